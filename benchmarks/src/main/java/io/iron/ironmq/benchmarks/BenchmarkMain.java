@@ -0,0 +1,40 @@
+package io.iron.ironmq.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always adding the GC profiler so that
+ * every result comes with its allocation rate ({@code gc.alloc.rate.norm} is bytes per operation).
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(cmd);
+        boolean hasGcProfiler = false;
+        for (ProfilerConfig profiler : cmd.getProfilers()) {
+            if (profiler.getKlass().equals("gc") || profiler.getKlass().equals(GCProfiler.class.getName())) {
+                hasGcProfiler = true;
+            }
+        }
+        if (!hasGcProfiler) {
+            options.addProfiler(GCProfiler.class);
+        }
+
+        Runner runner = new Runner(options.build());
+        if (cmd.shouldList()) {
+            runner.list();
+        } else {
+            runner.run();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package io.iron.ironmq.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import io.iron.ironmq.Client;
+import io.iron.ironmq.Cloud;
+import io.iron.ironmq.Ids;
+import io.iron.ironmq.Messages;
+import io.iron.ironmq.Queue;
+import io.iron.ironmq.Transport;
+import io.iron.ironmq.TransportRequest;
+import io.iron.ironmq.TransportResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Everything a queue operation does apart from the network: building the URL, path and headers
+ * in {@link Client}, encoding the body, and decoding the response. The transport answers every
+ * request with a canned response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientRequestBenchmark {
+    @Param({"1", "100"})
+    public int messages;
+
+    private Queue pushQueue;
+    private Queue reserveQueue;
+    private Queue deleteQueue;
+    private String[] bodies;
+    private Messages reserved;
+
+    /**
+     * Answers every request with the same body, without touching the network.
+     */
+    static class CannedTransport implements Transport {
+        private final byte[] body;
+
+        CannedTransport(String body) {
+            this.body = body.getBytes(StandardCharsets.UTF_8);
+        }
+
+        public TransportResponse execute(TransportRequest request) {
+            final InputStream stream = new ByteArrayInputStream(body);
+            return new TransportResponse() {
+                public int getStatus() {
+                    return 200;
+                }
+
+                public String getHeader(String name) {
+                    return name.equalsIgnoreCase("Content-Type") ? "application/json" : null;
+                }
+
+                public InputStream getBody() {
+                    return stream;
+                }
+
+                public void close() {
+                }
+            };
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        StringBuilder reserveResponse = new StringBuilder("{\"messages\":[");
+        StringBuilder pushResponse = new StringBuilder("{\"ids\":[");
+        bodies = new String[messages];
+        for (int i = 0; i < messages; i++) {
+            String id = String.format("%019d", i);
+            bodies[i] = "message " + i;
+            if (i > 0) {
+                reserveResponse.append(',');
+                pushResponse.append(',');
+            }
+            reserveResponse.append("{\"id\":\"").append(id).append("\",\"body\":\"").append(bodies[i])
+                    .append("\",\"reserved_count\":1,\"reservation_id\":\"7c3b8a2f40e64e6ba1d1d0ee5f6c9a11\"}");
+            pushResponse.append('"').append(id).append('"');
+        }
+
+        pushQueue = queue(pushResponse.append("],\"msg\":\"Messages put on queue.\"}").toString());
+        reserveQueue = queue(reserveResponse.append("]}").toString());
+        deleteQueue = queue("{\"msg\":\"Deleted\"}");
+        reserved = reserveQueue.reserve(messages);
+    }
+
+    private static Queue queue(String response) throws Exception {
+        Client client = new Client("5a1b2c3d4e5f60718293a4b5", "token", new Cloud("https://mq.example.com"), 3);
+        client.setTransport(new CannedTransport(response));
+        return client.queue("benchmark");
+    }
+
+    @Benchmark
+    public String push() throws IOException {
+        return pushQueue.push(bodies[0]);
+    }
+
+    @Benchmark
+    public Ids pushMessages() throws IOException {
+        return pushQueue.pushMessages(bodies);
+    }
+
+    @Benchmark
+    public Messages reserve() throws IOException {
+        return reserveQueue.reserve(messages);
+    }
+
+    @Benchmark
+    public void deleteMessages() throws IOException {
+        deleteQueue.deleteMessages(reserved);
+    }
+}
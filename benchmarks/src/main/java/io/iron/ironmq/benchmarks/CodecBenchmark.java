@@ -0,0 +1,104 @@
+package io.iron.ironmq.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+import io.iron.ironmq.Codecs;
+import io.iron.ironmq.Ids;
+import io.iron.ironmq.Message;
+import io.iron.ironmq.Messages;
+import io.iron.ironmq.MessagesArrayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Gson encoding of push payloads and decoding of reserve and push responses, the way the client
+ * does them. {@code codec=shared} uses the client's hand-written adapters, {@code codec=reflective}
+ * a plain Gson for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+    @Param({"1", "100"})
+    public int messages;
+
+    @Param({"64", "1024"})
+    public int bodySize;
+
+    @Param({"shared", "reflective"})
+    public String codec;
+
+    private Gson gson;
+    private Messages pushPayload;
+    private MessagesArrayList pushArrayPayload;
+    private String reserveResponse;
+    private String pushResponse;
+
+    @Setup
+    public void setUp() {
+        gson = codec.equals("shared") ? Codecs.gson() : new Gson();
+        char[] chars = new char[bodySize];
+        Arrays.fill(chars, 'x');
+        String body = new String(chars);
+
+        ArrayList<Message> list = new ArrayList<Message>();
+        StringBuilder reserved = new StringBuilder("{\"messages\":[");
+        StringBuilder ids = new StringBuilder("{\"ids\":[");
+        for (int i = 0; i < messages; i++) {
+            Message message = new Message();
+            message.setBody(body);
+            message.setDelay(0);
+            list.add(message);
+
+            String id = String.format("%019d", i);
+            if (i > 0) {
+                reserved.append(',');
+                ids.append(',');
+            }
+            reserved.append("{\"id\":\"").append(id)
+                    .append("\",\"body\":\"").append(body)
+                    .append("\",\"reserved_count\":1,\"reservation_id\":\"7c3b8a2f40e64e6ba1d1d0ee5f6c9a11\"}");
+            ids.append('"').append(id).append('"');
+        }
+        pushPayload = new Messages(list);
+        pushArrayPayload = new MessagesArrayList(list);
+        reserveResponse = reserved.append("]}").toString();
+        pushResponse = ids.append("],\"msg\":\"Messages put on queue.\"}").toString();
+    }
+
+    @Benchmark
+    public String encodeMessages() {
+        return gson.toJson(pushPayload);
+    }
+
+    @Benchmark
+    public String encodeMessagesArrayList() {
+        return gson.toJson(pushArrayPayload);
+    }
+
+    @Benchmark
+    public Messages decodeMessages() {
+        return gson.fromJson(reserveResponse, Messages.class);
+    }
+
+    @Benchmark
+    public Ids decodeIds() {
+        return gson.fromJson(pushResponse, Ids.class);
+    }
+}
@@ -0,0 +1,138 @@
+package io.iron.ironmq.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.iron.ironmq.Client;
+import io.iron.ironmq.JdkHttpTransport;
+import io.iron.ironmq.MockIronMQServer;
+import io.iron.ironmq.Queue;
+import io.iron.ironmq.RetryPolicy;
+import io.iron.ironmq.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time for {@code concurrency} threads to each complete one blocking long poll,
+ * {@code reserve(1, 60, waitSeconds)}, on an empty queue. Ideally this is {@code waitSeconds}, no
+ * matter how many polls run at once.
+ *
+ * It runs 1000 polls on platform threads by default. With {@code -p threads=virtual} (Java 21
+ * and later) all polls share a carrier pool of 4 threads, and the mock servers serve them on
+ * virtual threads too. The polls are spread over one mock server per 10000 of them, so the
+ * loopback connections do not run out of ephemeral ports. Every poll holds two sockets, so the
+ * open file limit has to be above twice the concurrency:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar LongPollBenchmark
+ * ulimit -n 25000
+ * java -jar target/benchmarks.jar LongPollBenchmark -p threads=virtual -p concurrency=10000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+// The mock servers must keep the connections of one iteration open for the next.
+@Fork(value = 1, jvmArgsAppend = {"-Djdk.virtualThreadScheduler.parallelism=4", "-Xmx4g",
+        "-Dsun.net.httpserver.maxIdleConnections=200000"})
+public class LongPollBenchmark {
+    private static final int pollsPerServer = 10000;
+    private static final String queueName = "benchmark-long-poll";
+
+    @Param({"1000"})
+    public int concurrency;
+
+    @Param({"platform"})
+    public String threads;
+
+    @Param({"1"})
+    public int waitSeconds;
+
+    private MockIronMQServer[] servers;
+    private Queue[] queues;
+    private ThreadFactory factory;
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicReference<IOException> lastFailure = new AtomicReference<IOException>();
+
+    @Setup
+    public void setUp() throws IOException {
+        boolean virtual = threads.equals("virtual");
+        if (virtual && !VirtualThreads.isSupported()) {
+            throw new IllegalStateException("Virtual threads need Java 21 or later; run with -p threads=platform");
+        }
+        if (virtual) {
+            factory = VirtualThreads.factory("long-poll");
+        } else {
+            factory = runnable -> {
+                Thread thread = new Thread(null, runnable, "long-poll", 256 * 1024);
+                thread.setDaemon(true);
+                return thread;
+            };
+        }
+
+        int count = (concurrency + pollsPerServer - 1) / pollsPerServer;
+        servers = new MockIronMQServer[count];
+        queues = new Queue[count];
+        for (int i = 0; i < count; i++) {
+            servers[i] = new MockIronMQServer(0, virtual).start();
+            servers[i].seed(queueName, 0, "");
+            Client client = servers[i].createClient();
+            // A JDK client per server spreads the connections over several selector threads.
+            client.setTransport(new JdkHttpTransport());
+            client.setRetryPolicy(RetryPolicy.NEVER);
+            queues[i] = client.queue(queueName);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (MockIronMQServer server : servers) {
+            server.close();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportFailures() {
+        int failed = failures.getAndSet(0);
+        if (failed > 0) {
+            System.out.println(failed + " of " + concurrency + " long polls failed, e.g. " + lastFailure.get());
+        }
+    }
+
+    @Benchmark
+    public void longPolls() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Queue queue = queues[i % queues.length];
+            factory.newThread(() -> {
+                try {
+                    queue.reserve(1, 60, waitSeconds);
+                } catch (IOException e) {
+                    failures.incrementAndGet();
+                    lastFailure.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+    }
+}
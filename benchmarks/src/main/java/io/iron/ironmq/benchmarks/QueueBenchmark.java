@@ -0,0 +1,109 @@
+package io.iron.ironmq.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import io.iron.ironmq.Client;
+import io.iron.ironmq.Ids;
+import io.iron.ironmq.Messages;
+import io.iron.ironmq.MockIronMQServer;
+import io.iron.ironmq.Queue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end throughput of the blocking queue operations against an in-process
+ * {@link MockIronMQServer} on the loopback interface. Use {@code -t} to run with several threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueBenchmark {
+    private static final String reserveQueueName = "benchmark-reserve";
+    private static final int seedSize = 10000;
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    @Param({"64", "1024"})
+    public int bodySize;
+
+    private MockIronMQServer server;
+    private Queue pushQueue;
+    private Queue reserveQueue;
+    private String body;
+    private String[] bodies;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new MockIronMQServer().start();
+        Client client = server.createClient();
+        pushQueue = client.queue("benchmark-push");
+        reserveQueue = client.queue(reserveQueueName);
+
+        char[] chars = new char[bodySize];
+        Arrays.fill(chars, 'x');
+        body = new String(chars);
+        bodies = new String[batchSize];
+        Arrays.fill(bodies, body);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void seed() {
+        server.seed(reserveQueueName, seedSize, body);
+    }
+
+    /**
+     * Drops the messages pushed during the iteration, so the mock server does not grow.
+     */
+    @TearDown(Level.Iteration)
+    public void reset() {
+        server.reset();
+    }
+
+    @Benchmark
+    public String push() throws IOException {
+        return pushQueue.push(body);
+    }
+
+    @Benchmark
+    public Ids pushMessages() throws IOException {
+        return pushQueue.pushMessages(bodies);
+    }
+
+    /**
+     * Reserves a batch and deletes it with a single request. The queue is refilled in-process
+     * when it runs low, which costs far less than the two requests.
+     */
+    @Benchmark
+    public Messages reserveAndDelete() throws IOException {
+        Messages messages = reserveQueue.reserve(batchSize);
+        if (messages.getSize() < batchSize) {
+            server.seed(reserveQueueName, seedSize, body);
+        }
+        if (messages.getSize() > 0) {
+            reserveQueue.deleteMessages(messages);
+        }
+        return messages;
+    }
+}
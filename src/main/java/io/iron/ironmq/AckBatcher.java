@@ -0,0 +1,242 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The AckBatcher class coalesces deletes of processed messages into bulk delete requests.
+ *
+ * Acknowledgements from any number of threads are collected until the batch holds
+ * {@code maxBatchSize} messages or the first one has waited {@code lingerMs} milliseconds. Every
+ * acknowledgement gets a future which completes when its message has been deleted.
+ *
+ * If the service rejects a bulk delete with a client error, for example because one reservation
+ * has already run out, the messages of that batch are deleted one by one so that each future
+ * reports the outcome of its own message. Server and network errors, timeouts (408) and
+ * throttling (429) fail the whole batch, and the acknowledgements can be retried.
+ */
+public class AckBatcher implements Closeable {
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final long DEFAULT_LINGER_MS = 10;
+
+    private final AsyncQueue queue;
+    private final int maxBatchSize;
+    private final long lingerMs;
+    private final ScheduledExecutorService timer;
+
+    // Only guards the buffers; sending may wait for a Keystone token, so batches are sent after
+    // it is released.
+    private final ReentrantLock lock = new ReentrantLock();
+    private ArrayList<MessageOptions> acks = new ArrayList<MessageOptions>();
+    private ArrayList<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+    private ScheduledFuture<?> lingerTask;
+    private boolean closed;
+
+    /**
+     * Creates a batcher sending up to 100 deletes per request, lingering 10 milliseconds.
+     *
+     * @param queue The queue the messages were reserved from.
+     */
+    public AckBatcher(Queue queue) {
+        this(queue, MAX_BATCH_SIZE, DEFAULT_LINGER_MS);
+    }
+
+    /**
+     * @param queue The queue the messages were reserved from.
+     * @param maxBatchSize Number of acknowledgements after which a batch is sent, 1..100.
+     * @param lingerMs Maximum time in milliseconds an acknowledgement waits for the batch to fill up.
+     */
+    public AckBatcher(Queue queue, int maxBatchSize, long lingerMs) {
+        if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("maxBatchSize has to be within 1..100");
+        }
+        if (lingerMs < 0) {
+            throw new IllegalArgumentException("lingerMs should not be negative");
+        }
+        this.queue = queue.async();
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMs = lingerMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ironmq-ack-batcher-" + queue.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Schedules a processed message for deletion.
+     *
+     * @param message A reserved message.
+     * @return A future completed once the message has been deleted.
+     */
+    public CompletableFuture<Void> ack(Message message) {
+        return ack(message.getId(), message.getReservationId());
+    }
+
+    /**
+     * Schedules a processed message for deletion.
+     *
+     * @param id The ID of the message to delete.
+     * @param reservationId Reservation Id of the message.
+     * @return A future completed once the message has been deleted.
+     * @throws IllegalStateException If the batcher has been closed.
+     */
+    public CompletableFuture<Void> ack(String id, String reservationId) {
+        CompletableFuture<Void> future = new CompletableFuture<Void>();
+        Batch filled = null;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("AckBatcher is closed");
+            }
+            acks.add(new MessageOptions(id, reservationId));
+            futures.add(future);
+            if (acks.size() >= maxBatchSize) {
+                filled = take();
+            } else if (lingerTask == null) {
+                lingerTask = timer.schedule(this::flush, lingerMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        send(filled);
+        return future;
+    }
+
+    /**
+     * Sends the collected acknowledgements without waiting for the batch to fill up.
+     */
+    public void flush() {
+        Batch batch = null;
+        lock.lock();
+        try {
+            if (!acks.isEmpty()) {
+                batch = take();
+            }
+        } finally {
+            lock.unlock();
+        }
+        send(batch);
+    }
+
+    /**
+     * Returns the number of acknowledgements waiting for their batch to be sent.
+     */
+    public int getPendingAcks() {
+        lock.lock();
+        try {
+            return acks.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the collected acknowledgements and stops accepting new ones.
+     */
+    public void close() throws IOException {
+        Batch batch = null;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!acks.isEmpty()) {
+                batch = take();
+            }
+        } finally {
+            lock.unlock();
+        }
+        send(batch);
+        timer.shutdown();
+    }
+
+    static private class Batch {
+        final ArrayList<MessageOptions> acks;
+        final ArrayList<CompletableFuture<Void>> futures;
+
+        Batch(ArrayList<MessageOptions> acks, ArrayList<CompletableFuture<Void>> futures) {
+            this.acks = acks;
+            this.futures = futures;
+        }
+    }
+
+    // Must be called with the lock held. Swaps the buffers for empty ones.
+    private Batch take() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        Batch batch = new Batch(acks, futures);
+        acks = new ArrayList<MessageOptions>();
+        futures = new ArrayList<CompletableFuture<Void>>();
+        return batch;
+    }
+
+    // Must be called without the lock held, so acks are not blocked while the batch is sent.
+    private void send(Batch taken) {
+        if (taken == null) {
+            return;
+        }
+        final ArrayList<MessageOptions> batch = taken.acks;
+        final ArrayList<CompletableFuture<Void>> results = taken.futures;
+        CompletableFuture<Void> response;
+        try {
+            response = queue.deleteMessages(batch.toArray(new MessageOptions[batch.size()]));
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((ignored, error) -> {
+            Throwable cause = unwrap(error);
+            if (cause == null) {
+                for (CompletableFuture<Void> result : results) {
+                    result.complete(null);
+                }
+            } else if (batch.size() > 1 && isClientError(cause)) {
+                deleteOneByOne(batch, results);
+            } else {
+                for (CompletableFuture<Void> result : results) {
+                    result.completeExceptionally(cause);
+                }
+            }
+        });
+    }
+
+    private void deleteOneByOne(ArrayList<MessageOptions> batch, ArrayList<CompletableFuture<Void>> results) {
+        for (int i = 0; i < batch.size(); i++) {
+            final CompletableFuture<Void> result = results.get(i);
+            MessageOptions ack = batch.get(i);
+            queue.deleteMessage(ack.getId(), ack.getReservationId()).whenComplete((ignored, error) -> {
+                Throwable cause = unwrap(error);
+                if (cause == null) {
+                    result.complete(null);
+                } else {
+                    result.completeExceptionally(cause);
+                }
+            });
+        }
+    }
+
+    // A rejected ack makes the whole bulk delete fail. Timeouts and throttling are not about
+    // any ack, and splitting the batch would only add load, so they fail it as a whole.
+    private static boolean isClientError(Throwable error) {
+        if (!(error instanceof HTTPException)) {
+            return false;
+        }
+        int status = ((HTTPException) error).getStatusCode();
+        return status >= 400 && status < 500 && status != 408 && status != 429;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
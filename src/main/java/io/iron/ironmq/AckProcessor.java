@@ -0,0 +1,255 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The AckProcessor class is a stream stage which deletes the messages passing through it.
+ *
+ * Place it after the stages that process the messages of a {@link QueuePublisher}. Deletes are
+ * coalesced by an {@link AckBatcher}, and a message is passed on only once it has been deleted,
+ * so downstream stages see exactly the messages which are done. Demand is passed upstream
+ * unchanged: a message whose delete fails, for example because its reservation ran out, is
+ * dropped and replaced by requesting one more message from upstream.
+ *
+ * Completion and errors are passed on after the outstanding deletes have finished.
+ *
+ * <pre>
+ * AckProcessor acks = new AckProcessor(queue);
+ * publisher.subscribe(processingStage);
+ * processingStage.subscribe(acks);
+ * acks.subscribe(doneStage);
+ * </pre>
+ */
+public class AckProcessor implements Flow.Processor<Message, Message> {
+    private final AckBatcher acks;
+
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super Message> downstream;
+    // Demand signalled downstream before the upstream subscription arrived.
+    private final AtomicLong requestedEarly = new AtomicLong();
+    private volatile boolean upstreamCancelled;
+    private volatile boolean cancelled;
+
+    private final ConcurrentLinkedQueue<Message> deleted = new ConcurrentLinkedQueue<Message>();
+    private final AtomicInteger pendingAcks = new AtomicInteger();
+    private final AtomicInteger wip = new AtomicInteger();
+    private volatile boolean upstreamDone;
+    private volatile Throwable upstreamError;
+    private boolean terminated;
+
+    private final LongAdder deletedMessages = new LongAdder();
+    private final LongAdder failedAcks = new LongAdder();
+    private volatile Throwable lastError;
+
+    /**
+     * Creates a processor sending up to 100 deletes per request, lingering 10 milliseconds.
+     *
+     * @param queue The queue the messages were reserved from.
+     */
+    public AckProcessor(Queue queue) {
+        this(queue, AckBatcher.MAX_BATCH_SIZE, AckBatcher.DEFAULT_LINGER_MS);
+    }
+
+    /**
+     * @param queue The queue the messages were reserved from.
+     * @param maxBatchSize Number of deletes after which a batch is sent, 1..100.
+     * @param lingerMs Maximum time in milliseconds a delete waits for the batch to fill up.
+     */
+    public AckProcessor(Queue queue, int maxBatchSize, long lingerMs) {
+        this.acks = new AckBatcher(queue, maxBatchSize, lingerMs);
+    }
+
+    public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        synchronized (this) {
+            if (downstream == null) {
+                downstream = subscriber;
+                subscriber = null;
+            }
+        }
+        if (subscriber != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {
+                }
+
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("AckProcessor allows only one subscriber"));
+            return;
+        }
+        downstream.onSubscribe(new Flow.Subscription() {
+            public void request(long n) {
+                if (n <= 0) {
+                    cancelUpstream();
+                    upstreamError = new IllegalArgumentException("n should be greater than 0");
+                    upstreamDone = true;
+                    drain();
+                    return;
+                }
+                Flow.Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.request(n);
+                } else {
+                    requestedEarly.getAndAccumulate(n, AckProcessor::addCapped);
+                    forwardEarlySignals();
+                }
+            }
+
+            public void cancel() {
+                cancelled = true;
+                cancelUpstream();
+                // Sends the deletes collected so far; messages still arriving are left to time out.
+                closeAcks();
+            }
+        });
+        drain();
+    }
+
+    private void cancelUpstream() {
+        upstreamCancelled = true;
+        Flow.Subscription subscription = upstream;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        forwardEarlySignals();
+    }
+
+    private void forwardEarlySignals() {
+        Flow.Subscription subscription = upstream;
+        if (subscription == null) {
+            return;
+        }
+        if (upstreamCancelled) {
+            subscription.cancel();
+            return;
+        }
+        long n = requestedEarly.getAndSet(0);
+        if (n > 0) {
+            subscription.request(n);
+        }
+    }
+
+    public void onNext(Message message) {
+        pendingAcks.incrementAndGet();
+        try {
+            acks.ack(message).whenComplete((ignored, error) -> acked(message, error));
+        } catch (IllegalStateException e) {
+            // Closed after completion; messages arriving now break the protocol.
+            acked(message, e);
+        }
+    }
+
+    private void acked(Message message, Throwable error) {
+        if (error == null) {
+            deletedMessages.increment();
+            deleted.add(message);
+        } else {
+            failedAcks.increment();
+            lastError = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            Flow.Subscription subscription = upstream;
+            if (subscription != null && !upstreamCancelled && !upstreamDone) {
+                subscription.request(1);
+            }
+        }
+        pendingAcks.decrementAndGet();
+        drain();
+    }
+
+    public void onError(Throwable throwable) {
+        upstreamError = throwable;
+        upstreamDone = true;
+        acks.flush();
+        drain();
+    }
+
+    public void onComplete() {
+        upstreamDone = true;
+        acks.flush();
+        drain();
+    }
+
+    // Serializes the signals to the downstream subscriber, whichever thread completed a delete.
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        while (true) {
+            Flow.Subscriber<? super Message> subscriber = downstream;
+            if (subscriber != null && !terminated) {
+                Message message;
+                while ((message = deleted.poll()) != null) {
+                    if (!cancelled) {
+                        subscriber.onNext(message);
+                    }
+                }
+                if (upstreamDone && pendingAcks.get() == 0 && deleted.isEmpty()) {
+                    terminated = true;
+                    closeAcks();
+                    if (!cancelled) {
+                        if (upstreamError != null) {
+                            subscriber.onError(upstreamError);
+                        } else {
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void closeAcks() {
+        try {
+            acks.close();
+        } catch (IOException e) {
+            lastError = e;
+        }
+    }
+
+    private static long addCapped(long current, long added) {
+        long sum = current + added;
+        return sum < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    /**
+     * Returns the number of messages deleted.
+     */
+    public long getDeletedMessages() {
+        return deletedMessages.sum();
+    }
+
+    /**
+     * Returns the number of messages which could not be deleted and were dropped.
+     */
+    public long getFailedAcks() {
+        return failedAcks.sum();
+    }
+
+    /**
+     * Returns the error of the last failed delete, or null if none failed.
+     */
+    public Throwable getLastError() {
+        return lastError;
+    }
+}
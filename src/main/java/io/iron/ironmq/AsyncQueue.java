@@ -0,0 +1,319 @@
+package io.iron.ironmq;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.google.gson.Gson;
+
+/**
+ * The AsyncQueue class is the non-blocking counterpart of {@link Queue}.
+ *
+ * Every operation returns immediately with a {@link CompletableFuture} which is completed once the
+ * response has been received and decoded. No thread waits for the network in the meantime, so
+ * a handful of threads can keep thousands of operations in flight. Errors are reported by
+ * completing the future exceptionally with the same exceptions the blocking methods throw.
+ */
+public class AsyncQueue {
+    final private Client client;
+    final private String name;
+
+    static final private Gson gson = Codecs.gson();
+
+    public AsyncQueue(Client client, String name) {
+        if (name == null)
+            throw new NullPointerException("Queue name cannot be null");
+        this.client = client;
+        this.name = name;
+    }
+
+    /**
+     * @return the name of this queue
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Retrieves a Message from the queue and reserves it. If there are no items on the queue, the
+     * future fails with an EmptyQueueException.
+     */
+    public CompletableFuture<Message> reserve() {
+        return reserve(1).thenApply(msgs -> {
+            if (msgs.getSize() == 0) {
+                throw new CompletionException(new EmptyQueueException());
+            }
+            return msgs.getMessage(0);
+        });
+    }
+
+    /**
+     * Retrieves Messages from the queue and reserves them.
+     * @param numberOfMessages The number of messages to receive. Max. is 100.
+     */
+    public CompletableFuture<Messages> reserve(int numberOfMessages) {
+        return reserve(numberOfMessages, -1);
+    }
+
+    /**
+     * Retrieves Messages from the queue and reserves them.
+     * @param numberOfMessages The number of messages to receive. Max. is 100.
+     * @param timeout timeout in seconds.
+     */
+    public CompletableFuture<Messages> reserve(int numberOfMessages, int timeout) {
+        return reserve(numberOfMessages, timeout, 0);
+    }
+
+    /**
+     * Retrieves Messages from the queue and reserves them.
+     * @param numberOfMessages The number of messages to receive. Max. is 100.
+     * @param timeout timeout in seconds.
+     * @param wait Time to long poll for messages, in seconds. Max is 30 seconds. Default 0.
+     */
+    public CompletableFuture<Messages> reserve(int numberOfMessages, int timeout, int wait) {
+        if (numberOfMessages < 1 || numberOfMessages > 100) {
+            throw new IllegalArgumentException("numberOfMessages has to be within 1..100");
+        }
+
+        MessagesReservationModel payload = new MessagesReservationModel(numberOfMessages, timeout, wait);
+        String url = "queues/" + name + "/reservations";
+        return decodeMessages(client.postAsync(url, gson.toJson(payload)));
+    }
+
+    /**
+     * Peeking at a queue returns the next messages on the queue, but it does not reserve them.
+     * @param numberOfMessages The maximum number of messages to peek. Maximum is 100.
+     */
+    public CompletableFuture<Messages> peek(int numberOfMessages) {
+        if (numberOfMessages < 1 || numberOfMessages > 100) {
+            throw new IllegalArgumentException("numberOfMessages has to be within 1..100");
+        }
+        return decodeMessages(client.getAsync("queues/" + name + "/messages?n=" + numberOfMessages));
+    }
+
+    /**
+     * Touching a reserved message extends its timeout to the duration specified when the message was created.
+     * The message's reservation id is replaced with the new one once the touch succeeds.
+     *
+     * @param message The message to touch.
+     */
+    public CompletableFuture<MessageOptions> touchMessage(Message message) {
+        return touchMessage(message, null);
+    }
+
+    /**
+     * Touching a reserved message extends its timeout to the specified duration.
+     * The message's reservation id is replaced with the new one once the touch succeeds.
+     *
+     * @param message The message to touch.
+     * @param timeout After timeout (in seconds), item will be placed back onto queue.
+     */
+    public CompletableFuture<MessageOptions> touchMessage(Message message, Long timeout) {
+        return touchMessage(message.getId(), message.getReservationId(), timeout)
+                .thenApply(options -> {
+                    message.setReservationId(options.getReservationId());
+                    return options;
+                });
+    }
+
+    /**
+     * Touching a reserved message extends its timeout to the specified duration.
+     *
+     * @param id The ID of the message to touch.
+     * @param reservationId This id is returned when you reserve a message.
+     * @param timeout After timeout (in seconds), item will be placed back onto queue.
+     */
+    public CompletableFuture<MessageOptions> touchMessage(String id, String reservationId, Long timeout) {
+        String payload = gson.toJson(new MessageOptions(null, reservationId, timeout));
+        return decode(client.postAsync("queues/" + name + "/messages/" + id + "/touch", payload), MessageOptions.class);
+    }
+
+    /**
+     * Release reserved message.
+     *
+     * @param message The message to release.
+     */
+    public CompletableFuture<Void> releaseMessage(Message message) {
+        return releaseMessage(message.getId(), message.getReservationId(), null);
+    }
+
+    /**
+     * Release reserved message after specified time.
+     *
+     * @param message The message to release.
+     * @param delay The time after which the message will be released.
+     */
+    public CompletableFuture<Void> releaseMessage(Message message, int delay) {
+        return releaseMessage(message.getId(), message.getReservationId(), (long) delay);
+    }
+
+    /**
+     * Release reserved message after specified time.
+     *
+     * @param id The ID of the message to release.
+     * @param reservationId Reservation Id of the message.
+     * @param delay The time after which the message will be released.
+     */
+    public CompletableFuture<Void> releaseMessage(String id, String reservationId, Long delay) {
+        String url = "queues/" + name + "/messages/" + id + "/release";
+        String payload = gson.toJson(new MessageOptions(reservationId, delay));
+        return discard(client.postAsync(url, payload));
+    }
+
+    /**
+     * Deletes a Message from the queue.
+     *
+     * @param msg The message to delete.
+     */
+    public CompletableFuture<Void> deleteMessage(Message msg) {
+        return deleteMessage(msg.getId(), msg.getReservationId());
+    }
+
+    /**
+     * Deletes a Message from the queue.
+     *
+     * @param id The ID of the message to delete.
+     * @param reservationId Reservation Id of the message. Reserved message could not be deleted without reservation Id.
+     */
+    public CompletableFuture<Void> deleteMessage(String id, String reservationId) {
+        String payload = gson.toJson(new SubscribedMessageOptions(reservationId, null));
+        return discard(client.deleteAsync("queues/" + name + "/messages/" + id, payload));
+    }
+
+    /**
+     * Deletes multiple messages from the queue.
+     *
+     * @param ids The IDs of the messages to delete.
+     */
+    public CompletableFuture<Void> deleteMessages(Ids ids) {
+        return deleteMessages(ids.toMessageOptions());
+    }
+
+    /**
+     * Deletes multiple messages from the queue.
+     *
+     * @param messages The list of the messages to delete.
+     */
+    public CompletableFuture<Void> deleteMessages(Messages messages) {
+        return deleteMessages(messages.toMessageOptions());
+    }
+
+    CompletableFuture<Void> deleteMessages(MessageOptions[] messages) {
+        Map<Cloud, MessageOptions[]> parts = client.byPinnedCloud(messages);
+        ArrayList<CompletableFuture<Void>> deletes = new ArrayList<CompletableFuture<Void>>(parts.size());
+        for (Map.Entry<Cloud, MessageOptions[]> part : parts.entrySet()) {
+            String payload = gson.toJson(new MessagesOptions(part.getValue()));
+            deletes.add(discard(client.deleteAsync("queues/" + name + "/messages", payload, part.getKey())));
+        }
+        return deletes.size() == 1 ? deletes.get(0) : CompletableFuture.allOf(deletes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Pushes a message onto the queue.
+     *
+     * @param msg The body of the message to push.
+     * @return The new message's ID
+     */
+    public CompletableFuture<String> push(String msg) {
+        return push(msg, 0);
+    }
+
+    /**
+     * Pushes a message onto the queue.
+     *
+     * @param msg The body of the message to push.
+     * @param delay The message's delay in seconds.
+     * @return The new message's ID
+     */
+    public CompletableFuture<String> push(String msg, long delay) {
+        Message message = new Message();
+        message.setBody(msg);
+        message.setDelay(delay);
+
+        return decode(client.postAsync("queues/" + name + "/messages", new Messages(message)), Ids.class)
+                .thenApply(ids -> ids.getId(0));
+    }
+
+    /**
+     * Pushes messages onto the queue.
+     *
+     * @param msg The array of the messages to push.
+     * @return The IDs of new messages
+     */
+    public CompletableFuture<Ids> pushMessages(String[] msg) {
+        return pushMessages(msg, 0);
+    }
+
+    /**
+     * Pushes messages onto the queue.
+     *
+     * @param msg The array of the messages to push.
+     * @param delay The message's delay in seconds.
+     * @return The IDs of new messages
+     */
+    public CompletableFuture<Ids> pushMessages(String[] msg, long delay) {
+        ArrayList<Message> messages = new ArrayList<Message>();
+        for (String messageName: msg){
+            Message message = new Message();
+            message.setBody(messageName);
+            message.setDelay(delay);
+            messages.add(message);
+        }
+
+        return pushMessages(messages);
+    }
+
+    /**
+     * Pushes messages with their own bodies and delays onto the queue.
+     * The returned IDs are in the same order as the messages.
+     */
+    CompletableFuture<Ids> pushMessages(ArrayList<Message> messages) {
+        return decode(client.postAsync("queues/" + name + "/messages", new MessagesArrayList(messages)), Ids.class);
+    }
+
+    /**
+     * Retrieves Info about queue, from the client's {@link QueueInfoCache} if it has one.
+     */
+    public CompletableFuture<QueueModel> getInfoAboutQueue() {
+        QueueInfoCache cache = client.getQueueInfoCache();
+        if (cache != null) {
+            return cache.get(this);
+        }
+        return fetchInfoAboutQueue();
+    }
+
+    CompletableFuture<QueueModel> fetchInfoAboutQueue() {
+        return decode(client.getAsync("queues/" + name), QueueContainer.class)
+                .thenApply(QueueContainer::getQueue);
+    }
+
+    private static <T> CompletableFuture<T> decode(CompletableFuture<IronReader> response, Class<T> type) {
+        return response.thenApply(reader -> {
+            try {
+                return gson.fromJson(reader.reader, type);
+            } finally {
+                reader.close();
+            }
+        });
+    }
+
+    // Messages are pinned to the endpoint which returned them, see CloudGroup.
+    private static CompletableFuture<Messages> decodeMessages(CompletableFuture<IronReader> response) {
+        return response.thenApply(reader -> {
+            try {
+                Messages messages = gson.fromJson(reader.reader, Messages.class);
+                if (messages != null) {
+                    reader.pin(messages.getMessages());
+                }
+                return messages;
+            } finally {
+                reader.close();
+            }
+        });
+    }
+
+    private static CompletableFuture<Void> discard(CompletableFuture<IronReader> response) {
+        return response.thenAccept(IronReader::close);
+    }
+}
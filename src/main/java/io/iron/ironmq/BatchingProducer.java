@@ -0,0 +1,284 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The BatchingProducer class coalesces individual pushes to a queue into bulk pushes.
+ *
+ * Messages are buffered until the batch holds {@code maxBatchSize} messages, its approximate
+ * encoded size reaches {@code maxBatchBytes} or the first buffered message has waited
+ * {@code lingerMs} milliseconds. The batch is then sent with a single request and every caller's
+ * future is completed with the ID the server assigned to its message.
+ *
+ * Instances are thread-safe. Call {@link #close()} to send the remaining messages and stop the
+ * linger timer.
+ */
+public class BatchingProducer implements Closeable {
+    /**
+     * The maximum number of messages the service accepts in one push.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+    public static final long DEFAULT_LINGER_MS = 5;
+
+    // Approximate size of the JSON around a message body: {"body":"","delay":0}
+    private static final int messageOverheadBytes = 32;
+
+    private final AsyncQueue queue;
+    private final int maxBatchSize;
+    private final int maxBatchBytes;
+    private final long lingerMs;
+    private final ScheduledExecutorService timer;
+
+    // Only guards the buffers; batches are encoded and sent after it is released.
+    private final ReentrantLock lock = new ReentrantLock();
+    private ArrayList<Message> messages = new ArrayList<Message>();
+    private ArrayList<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+    private int batchBytes;
+    private ScheduledFuture<?> lingerTask;
+    private boolean closed;
+
+    /**
+     * Creates a producer sending batches of up to 100 messages or 1 MiB, lingering 5 milliseconds.
+     *
+     * @param queue The queue to push to.
+     */
+    public BatchingProducer(Queue queue) {
+        this(queue, MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_BYTES, DEFAULT_LINGER_MS);
+    }
+
+    /**
+     * @param queue The queue to push to.
+     * @param maxBatchSize Number of messages after which a batch is sent, 1..100.
+     * @param maxBatchBytes Approximate encoded size in bytes after which a batch is sent.
+     * @param lingerMs Maximum time in milliseconds a message waits for the batch to fill up.
+     */
+    public BatchingProducer(Queue queue, int maxBatchSize, int maxBatchBytes, long lingerMs) {
+        if (maxBatchSize < 1 || maxBatchSize > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("maxBatchSize has to be within 1..100");
+        }
+        if (maxBatchBytes < 1) {
+            throw new IllegalArgumentException("maxBatchBytes should be greater than 0");
+        }
+        if (lingerMs < 0) {
+            throw new IllegalArgumentException("lingerMs should not be negative");
+        }
+        this.queue = queue.async();
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerMs = lingerMs;
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ironmq-batching-producer-" + queue.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Buffers a message for pushing.
+     *
+     * @param body The body of the message to push.
+     * @return A future completed with the new message's ID once its batch has been pushed.
+     * @throws NullPointerException If the body is null.
+     * @throws IllegalStateException If the producer has been closed.
+     */
+    public CompletableFuture<String> push(String body) {
+        return push(body, 0);
+    }
+
+    /**
+     * Buffers a message for pushing.
+     *
+     * @param body The body of the message to push.
+     * @param delay The message's delay in seconds.
+     * @return A future completed with the new message's ID once its batch has been pushed.
+     * @throws NullPointerException If the body is null.
+     * @throws IllegalStateException If the producer has been closed.
+     */
+    public CompletableFuture<String> push(String body, long delay) {
+        if (body == null) {
+            throw new NullPointerException("Message body cannot be null");
+        }
+        Message message = new Message();
+        message.setBody(body);
+        message.setDelay(delay);
+
+        CompletableFuture<String> future = new CompletableFuture<String>();
+        int size = encodedLength(body) + messageOverheadBytes;
+        Batch full = null;
+        Batch filled = null;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Producer is closed");
+            }
+            if (!messages.isEmpty() && batchBytes + size > maxBatchBytes) {
+                full = take();
+            }
+            messages.add(message);
+            futures.add(future);
+            batchBytes += size;
+            if (messages.size() >= maxBatchSize || batchBytes >= maxBatchBytes) {
+                filled = take();
+            } else if (lingerTask == null) {
+                lingerTask = timer.schedule(this::flush, lingerMs, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+        send(full);
+        send(filled);
+        return future;
+    }
+
+    /**
+     * Returns the length of the body once encoded in the request: its UTF-8 bytes, with the
+     * characters Gson escapes counted as their escape sequences.
+     */
+    static int encodedLength(String body) {
+        int length = 0;
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '\b':
+                case '\f':
+                case '\n':
+                case '\r':
+                case '\t':
+                    length += 2;
+                    break;
+                case '<':
+                case '>':
+                case '&':
+                case '=':
+                case '\'':
+                case '\u2028':
+                case '\u2029':
+                    length += 6;
+                    break;
+                default:
+                    if (c < 0x20) {
+                        length += 6;
+                    } else if (c < 0x80) {
+                        length += 1;
+                    } else if (c < 0x800 || Character.isSurrogate(c)) {
+                        // Either half of a surrogate pair takes 2 of the pair's 4 bytes.
+                        length += 2;
+                    } else {
+                        length += 3;
+                    }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Sends the buffered messages without waiting for the batch to fill up.
+     */
+    public void flush() {
+        Batch batch = null;
+        lock.lock();
+        try {
+            if (!messages.isEmpty()) {
+                batch = take();
+            }
+        } finally {
+            lock.unlock();
+        }
+        send(batch);
+    }
+
+    /**
+     * Returns the number of messages waiting for their batch to be sent.
+     */
+    public int getBufferedMessages() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffered messages and stops accepting new ones. Futures of messages already
+     * sent are completed when their responses arrive.
+     */
+    public void close() throws IOException {
+        Batch batch = null;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!messages.isEmpty()) {
+                batch = take();
+            }
+        } finally {
+            lock.unlock();
+        }
+        send(batch);
+        timer.shutdown();
+    }
+
+    static private class Batch {
+        final ArrayList<Message> messages;
+        final ArrayList<CompletableFuture<String>> futures;
+
+        Batch(ArrayList<Message> messages, ArrayList<CompletableFuture<String>> futures) {
+            this.messages = messages;
+            this.futures = futures;
+        }
+    }
+
+    // Must be called with the lock held. Swaps the buffers for empty ones.
+    private Batch take() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        Batch batch = new Batch(messages, futures);
+        messages = new ArrayList<Message>();
+        futures = new ArrayList<CompletableFuture<String>>();
+        batchBytes = 0;
+        return batch;
+    }
+
+    // Must be called without the lock held, so pushes are not blocked while the batch is encoded.
+    private void send(Batch taken) {
+        if (taken == null) {
+            return;
+        }
+        final ArrayList<CompletableFuture<String>> batch = taken.futures;
+        CompletableFuture<Ids> response;
+        try {
+            response = queue.pushMessages(taken.messages);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((ids, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            for (int i = 0; i < batch.size(); i++) {
+                if (cause != null) {
+                    batch.get(i).completeExceptionally(cause);
+                } else if (ids == null || ids.getIds() == null || i >= ids.getSize()) {
+                    batch.get(i).completeExceptionally(new IOException("IronMQ did not return an ID for the message"));
+                } else {
+                    batch.get(i).complete(ids.getId(i));
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,31 @@
+package io.iron.ironmq;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The BlockingExecutor class holds the threads that {@link Transport#executeAsync(TransportRequest)}
+ * falls back to for transports without asynchronous support.
+ *
+ * Those threads block on sockets for whole requests, so they are kept off the common pool, which
+ * would otherwise be starved of the few threads it has for the rest of the application.
+ */
+final class BlockingExecutor {
+    private static volatile ExecutorService executor;
+
+    private BlockingExecutor() {
+    }
+
+    static ExecutorService get() {
+        if (executor == null) {
+            synchronized (BlockingExecutor.class) {
+                if (executor == null) {
+                    executor = VirtualThreads.isSupported()
+                            ? VirtualThreads.newThreadPerTaskExecutor("ironmq-transport")
+                            : Executors.newCachedThreadPool(VirtualThreads.factory("ironmq-transport", false));
+                }
+            }
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,396 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The CircuitBreaker class stops sending requests to an IronMQ endpoint which keeps failing.
+ *
+ * Outcomes of the calls made in the last {@code windowMs} milliseconds are kept in ten rolling
+ * buckets. Once at least {@code minimumCalls} calls were made and the share of failed calls
+ * reaches {@code failureRateThreshold} percent, or the share of calls slower than
+ * {@code slowCallDurationMs} reaches {@code slowCallRateThreshold} percent, the circuit opens:
+ * requests fail right away with a {@link CircuitBreakerOpenException} instead of waiting for
+ * timeouts. After {@code openMs} milliseconds the circuit is half-open and lets
+ * {@code halfOpenCalls} probe requests through. If they all succeed the circuit closes again,
+ * otherwise it opens for another {@code openMs}.
+ *
+ * Network errors, 5xx and 429 responses count as failures. Other 4xx responses show a healthy
+ * server and count as successes. Reservations are not checked for slowness, since long polling
+ * makes them slow by design.
+ *
+ * Breakers are shared by all clients talking to the same scheme, host and port.
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+    public static final int DEFAULT_SLOW_CALL_RATE_THRESHOLD = 100;
+    public static final long DEFAULT_SLOW_CALL_DURATION_MS = 10000;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final long DEFAULT_WINDOW_MS = 10000;
+    public static final long DEFAULT_OPEN_MS = 15000;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 3;
+
+    private static final int buckets = 10;
+
+    static final private ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    final private String endpoint;
+    final private long bucketNanos;
+    final private long[] bucketIndex = new long[buckets];
+    final private int[] calls = new int[buckets];
+    final private int[] failures = new int[buckets];
+    final private int[] slowCalls = new int[buckets];
+
+    private volatile int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+    private volatile int slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+    private volatile long slowCallDurationMs = DEFAULT_SLOW_CALL_DURATION_MS;
+    private volatile int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private volatile long openMs = DEFAULT_OPEN_MS;
+    private volatile int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+    private State state = State.CLOSED;
+    // Incremented on every state change, so outcomes of calls let through in an earlier state are ignored.
+    private long generation;
+    private long openUntilNanos;
+    private int probesStarted;
+    private int probesSucceeded;
+
+    /**
+     * Creates a breaker with default thresholds and a 10 seconds window.
+     *
+     * @param cloud The endpoint requests are sent to.
+     */
+    public CircuitBreaker(Cloud cloud) {
+        this(cloud, DEFAULT_WINDOW_MS);
+    }
+
+    /**
+     * @param cloud The endpoint requests are sent to.
+     * @param windowMs Length in milliseconds of the rolling window the rates are computed over.
+     */
+    public CircuitBreaker(Cloud cloud, long windowMs) {
+        if (windowMs < buckets) {
+            throw new IllegalArgumentException("windowMs should be at least " + buckets);
+        }
+        this.endpoint = ConnectionPool.endpointOf(cloud);
+        this.bucketNanos = TimeUnit.MILLISECONDS.toNanos(windowMs) / buckets;
+    }
+
+    /**
+     * Returns the breaker shared by all clients talking to the same scheme, host and port as the
+     * specified cloud. The breaker is created with default settings on first use.
+     */
+    public static CircuitBreaker forCloud(Cloud cloud) {
+        String key = ConnectionPool.endpointOf(cloud);
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(cloud);
+            breaker = breakers.putIfAbsent(key, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Replaces the shared breaker of the specified cloud's endpoint.
+     */
+    public static void setForCloud(Cloud cloud, CircuitBreaker breaker) {
+        breakers.put(ConnectionPool.endpointOf(cloud), breaker);
+    }
+
+    /**
+     * Returns the breaker described by the {@code circuit_breaker} client option, or null if it
+     * is turned off, which it is by default. The option is either a boolean or a hash with the keys
+     * {@code failure_rate}, {@code slow_call_rate}, {@code slow_call_ms}, {@code minimum_calls},
+     * {@code window_ms}, {@code open_ms} and {@code half_open_calls}. Settings only apply if the
+     * endpoint has no breaker yet.
+     */
+    static CircuitBreaker fromOption(Cloud cloud, Object option) {
+        if (option == null) {
+            return null;
+        }
+        if (!(option instanceof Map)) {
+            return Boolean.parseBoolean(option.toString()) ? forCloud(cloud) : null;
+        }
+        Map<?, ?> settings = (Map<?, ?>) option;
+        if (settings.containsKey("enabled") && !Boolean.parseBoolean(settings.get("enabled").toString())) {
+            return null;
+        }
+        String key = ConnectionPool.endpointOf(cloud);
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker != null) {
+            return breaker;
+        }
+        CircuitBreaker created = new CircuitBreaker(cloud, number(settings, "window_ms", DEFAULT_WINDOW_MS));
+        created.setFailureRateThreshold((int) number(settings, "failure_rate", DEFAULT_FAILURE_RATE_THRESHOLD));
+        created.setSlowCallRateThreshold((int) number(settings, "slow_call_rate", DEFAULT_SLOW_CALL_RATE_THRESHOLD));
+        created.setSlowCallDurationMs(number(settings, "slow_call_ms", DEFAULT_SLOW_CALL_DURATION_MS));
+        created.setMinimumCalls((int) number(settings, "minimum_calls", DEFAULT_MINIMUM_CALLS));
+        created.setOpenMs(number(settings, "open_ms", DEFAULT_OPEN_MS));
+        created.setHalfOpenCalls((int) number(settings, "half_open_calls", DEFAULT_HALF_OPEN_CALLS));
+        breaker = breakers.putIfAbsent(key, created);
+        return breaker == null ? created : breaker;
+    }
+
+    /**
+     * Returns the breaker of the specified cloud's endpoint: this breaker if it guards that
+     * endpoint, otherwise the endpoint's shared breaker, which is created with this breaker's
+     * settings if the endpoint has none yet.
+     */
+    CircuitBreaker forEndpoint(Cloud cloud) {
+        String key = ConnectionPool.endpointOf(cloud);
+        if (key.equals(endpoint)) {
+            return this;
+        }
+        CircuitBreaker breaker = breakers.get(key);
+        if (breaker != null) {
+            return breaker;
+        }
+        CircuitBreaker created = new CircuitBreaker(cloud, TimeUnit.NANOSECONDS.toMillis(bucketNanos * buckets));
+        created.setFailureRateThreshold(failureRateThreshold);
+        created.setSlowCallRateThreshold(slowCallRateThreshold);
+        created.setSlowCallDurationMs(slowCallDurationMs);
+        created.setMinimumCalls(minimumCalls);
+        created.setOpenMs(openMs);
+        created.setHalfOpenCalls(halfOpenCalls);
+        breaker = breakers.putIfAbsent(key, created);
+        return breaker == null ? created : breaker;
+    }
+
+    private static long number(Map<?, ?> settings, String name, long defaultValue) {
+        Object value = settings.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return (long) Double.parseDouble(value.toString());
+    }
+
+    /**
+     * Asks for permission to send a request.
+     *
+     * @return A ticket to pass to {@link #record(long, long, boolean, boolean)} once the outcome is known.
+     * @throws CircuitBreakerOpenException If the circuit is open, or half-open with all probes in flight.
+     */
+    public synchronized long acquire() throws CircuitBreakerOpenException {
+        long now = System.nanoTime();
+        if (state == State.OPEN) {
+            if (now - openUntilNanos < 0) {
+                throw new CircuitBreakerOpenException(endpoint, TimeUnit.NANOSECONDS.toMillis(openUntilNanos - now) + 1);
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesStarted >= halfOpenCalls) {
+                throw new CircuitBreakerOpenException(endpoint, 0);
+            }
+            probesStarted++;
+        }
+        return generation;
+    }
+
+    /**
+     * Records the outcome of a request sent with the permission of {@link #acquire()}.
+     *
+     * @param ticket The value returned by {@link #acquire()}.
+     * @param durationNanos Time the request took.
+     * @param failed True if the request failed in a way that shows the endpoint is unhealthy.
+     * @param checkSlow False if the request is slow by design and its duration should be ignored.
+     */
+    public synchronized void record(long ticket, long durationNanos, boolean failed, boolean checkSlow) {
+        if (ticket != generation) {
+            return;
+        }
+        boolean slow = checkSlow && durationNanos >= TimeUnit.MILLISECONDS.toNanos(slowCallDurationMs);
+        if (state == State.HALF_OPEN) {
+            if (failed || slow) {
+                open();
+            } else if (++probesSucceeded >= halfOpenCalls) {
+                transition(State.CLOSED);
+            }
+            return;
+        }
+
+        int slot = bucket(System.nanoTime());
+        calls[slot]++;
+        if (failed) {
+            failures[slot]++;
+        }
+        if (slow) {
+            slowCalls[slot]++;
+        }
+
+        int totalCalls = 0;
+        int totalFailures = 0;
+        int totalSlow = 0;
+        for (int i = 0; i < buckets; i++) {
+            totalCalls += calls[i];
+            totalFailures += failures[i];
+            totalSlow += slowCalls[i];
+        }
+        if (totalCalls >= minimumCalls && (totalFailures * 100 >= failureRateThreshold * totalCalls
+                || totalSlow * 100 >= slowCallRateThreshold * totalCalls)) {
+            open();
+        }
+    }
+
+    /**
+     * Gives back the permission of {@link #acquire()} for a request that was not sent.
+     */
+    synchronized void cancel(long ticket) {
+        if (ticket == generation && state == State.HALF_OPEN) {
+            probesStarted--;
+        }
+    }
+
+    /**
+     * Records the outcome of a request by its error, if any.
+     */
+    void record(long ticket, long durationNanos, IOException error, boolean checkSlow) {
+        record(ticket, durationNanos, isFailure(error), checkSlow);
+    }
+
+    static boolean isFailure(IOException error) {
+        if (error == null) {
+            return false;
+        }
+        if (error instanceof HTTPException) {
+            int status = ((HTTPException) error).getStatusCode();
+            return status >= 500 || status == 429;
+        }
+        return true;
+    }
+
+    // Must be called with the lock held.
+    private void open() {
+        transition(State.OPEN);
+        openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(openMs);
+    }
+
+    // Must be called with the lock held.
+    private void transition(State next) {
+        state = next;
+        generation++;
+        probesStarted = 0;
+        probesSucceeded = 0;
+        for (int i = 0; i < buckets; i++) {
+            calls[i] = 0;
+            failures[i] = 0;
+            slowCalls[i] = 0;
+        }
+    }
+
+    /**
+     * Returns the slot of the bucket covering the given time, clearing it if it still holds an
+     * older period. Must be called with the lock held.
+     */
+    private int bucket(long nanos) {
+        long index = nanos / bucketNanos;
+        int slot = (int) Math.floorMod(index, (long) buckets);
+        if (bucketIndex[slot] != index) {
+            bucketIndex[slot] = index;
+            calls[slot] = 0;
+            failures[slot] = 0;
+            slowCalls[slot] = 0;
+        }
+        for (int i = 0; i < buckets; i++) {
+            if (index - bucketIndex[i] >= buckets) {
+                calls[i] = 0;
+                failures[i] = 0;
+                slowCalls[i] = 0;
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the current state. An open circuit whose wait has passed is reported as open until
+     * the next request turns it half-open.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Closes the circuit and forgets the recorded calls.
+     */
+    public synchronized void reset() {
+        transition(State.CLOSED);
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param failureRateThreshold Percentage of failed calls, 1..100, at which the circuit opens.
+     */
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @param slowCallRateThreshold Percentage of slow calls, 1..100, at which the circuit opens.
+     */
+    public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getSlowCallDurationMs() {
+        return slowCallDurationMs;
+    }
+
+    public void setSlowCallDurationMs(long slowCallDurationMs) {
+        this.slowCallDurationMs = slowCallDurationMs;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * @param minimumCalls Number of calls in the window below which the circuit never opens.
+     */
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public long getOpenMs() {
+        return openMs;
+    }
+
+    /**
+     * @param openMs Time in milliseconds the circuit stays open before probes are let through.
+     */
+    public void setOpenMs(long openMs) {
+        this.openMs = openMs;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * @param halfOpenCalls Number of probe requests which have to succeed to close the circuit.
+     */
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = halfOpenCalls;
+    }
+}
@@ -0,0 +1,27 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+
+/**
+ * The CircuitBreakerOpenException class is thrown instead of sending a request while the
+ * {@link CircuitBreaker} of the endpoint is open.
+ */
+public class CircuitBreakerOpenException extends IOException {
+    private final long retryAfterMs;
+
+    /**
+     * @param endpoint The endpoint whose circuit is open.
+     * @param retryAfterMs Time in milliseconds until probe requests will be let through.
+     */
+    public CircuitBreakerOpenException(String endpoint, long retryAfterMs) {
+        super("Circuit breaker for " + endpoint + " is open, retry after " + retryAfterMs + " ms");
+        this.retryAfterMs = retryAfterMs;
+    }
+
+    /**
+     * Returns the time in milliseconds until probe requests will be let through.
+     */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+}
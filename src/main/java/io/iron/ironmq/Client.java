@@ -1,21 +1,27 @@
 package io.iron.ironmq;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Serializable;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
 import io.iron.ironmq.keystone.KeystoneIdentity;
 import org.apache.commons.lang3.ArrayUtils;
@@ -30,12 +36,10 @@ import org.apache.commons.lang3.StringUtils;
  */
 public class Client {
     static final private String defaultApiVersion = "3";
-    static final private Gson gson = new Gson();
+    static final private Gson gson = Codecs.gson();
 
     final private String apiVersion;
 
-    static final Random rand = new Random();
-
     static final private HashMap<String, Object> defaultOptions;
 
     static {
@@ -48,6 +52,14 @@ public class Client {
     private String projectId;
     private TokenContainer tokenContainer;
     private Cloud cloud;
+    private volatile Transport transport = JdkHttpTransport.getDefault();
+    private volatile RetryPolicy retryPolicy = new DecorrelatedJitterRetryPolicy();
+    private volatile CircuitBreaker circuitBreaker;
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    private volatile CloudGroup cloudGroup;
+    private volatile ClientMetrics metrics;
+    private volatile Compression compression;
+    private volatile QueueInfoCache queueInfoCache;
 
     private String[] optionsList;
     private Map<String, Object> options;
@@ -118,6 +130,8 @@ public class Client {
         this.apiVersion = (apiVersion == null || apiVersion < 1) ? defaultApiVersion : apiVersion.toString();
 
         loadConfiguration("iron", "mq", userOptions, new String[]{"project_id", "token", "cloud"});
+        // Clients built from the same identity share its cached token.
+        tokenContainer = identity;
     }
 
     public Client(String projectId, String token, Cloud cloud, Integer apiVersion, int lookUpLimit) {
@@ -142,58 +156,445 @@ public class Client {
         return new Queue(this, name);
     }
 
+    /**
+     * Returns an AsyncQueue using the given name.
+     * The network is not accessed during this call.
+     *
+     * @param name The name of the Queue to create.
+     */
+    public AsyncQueue asyncQueue(String name) {
+        return new AsyncQueue(this, name);
+    }
+
     IronReader delete(String endpoint) throws IOException {
-        return request("DELETE", endpoint, null);
+        return request("DELETE", endpoint, null, null);
     }
 
     IronReader delete(String endpoint, String body) throws IOException {
-        return request("DELETE", endpoint, body);
+        return request("DELETE", endpoint, body, null);
     }
 
     IronReader get(String endpoint) throws IOException {
-        return request("GET", endpoint, null);
+        return request("GET", endpoint, null, null);
     }
 
     IronReader post(String endpoint, String body) throws IOException {
-        return request("POST", endpoint, body);
+        return request("POST", endpoint, body, null);
     }
 
     IronReader post(String endpoint, Object body) throws IOException {
-        return request("POST", endpoint, body);
+        return request("POST", endpoint, body, null);
     }
 
     IronReader put(String endpoint, String body) throws IOException {
-        return request("PUT", endpoint, body);
+        return request("PUT", endpoint, body, null);
     }
 
     IronReader patch(String endpoint, String body) throws IOException {
-        return request("PATCH", endpoint, body);
+        return request("PATCH", endpoint, body, null);
     }
 
-    private IronReader request(String method, String endpoint, Object body) throws IOException {
-        String path = "/" + apiVersion + "/projects/" + projectId + "/" + endpoint;
-        URL url = new URL(cloud.scheme, cloud.host, cloud.port, cloud.pathPrefix + path);
+    /**
+     * Deletes messages at the endpoint which issued them, see {@link #byPinnedCloud(MessageOptions[])}.
+     */
+    IronReader delete(String endpoint, String body, Cloud pinned) throws IOException {
+        return request("DELETE", endpoint, body, pinned);
+    }
 
-        final int maxRetries = 5;
-        int retries = 0;
-        while (true) {
-            try {
-                return singleRequest(method, url, body);
-            } catch (HTTPException e) {
-                // ELB sometimes returns this when load is increasing.
-                // We retry with exponential backoff.
-                if (e.getStatusCode() != 503 || retries >= maxRetries) {
+    CompletableFuture<IronReader> deleteAsync(String endpoint, String body) {
+        return requestAsync("DELETE", endpoint, body, null);
+    }
+
+    CompletableFuture<IronReader> deleteAsync(String endpoint, String body, Cloud pinned) {
+        return requestAsync("DELETE", endpoint, body, pinned);
+    }
+
+    CompletableFuture<IronReader> getAsync(String endpoint) {
+        return requestAsync("GET", endpoint, null, null);
+    }
+
+    CompletableFuture<IronReader> postAsync(String endpoint, Object body) {
+        return requestAsync("POST", endpoint, body, null);
+    }
+
+    private IronReader request(String method, String endpoint, Object body, Cloud pinned) throws IOException {
+        Payload payload = body == null ? null : encode(body, compression);
+        RetryPolicy policy = retryPolicy;
+        RetryContext context = new RetryContext(method, endpoint);
+        policy.requestStarted(context);
+        ClientMetrics metrics = this.metrics;
+        OperationMetrics operation = metrics == null ? null : metrics.operation(method, endpoint);
+        if (operation != null) {
+            metrics.requestStarted(operation);
+        }
+
+        boolean failed = true;
+        try {
+            while (true) {
+                Route route = route(endpoint, pinned);
+                route.admit(endpoint);
+                try {
+                    TransportResponse response = transport.execute(buildRequest(route.cloud, method, endpoint, payload));
+                    IronReader reader = route.issued(readResponse(response, operation));
+                    route.completed(endpoint, null);
+                    attemptCompleted(metrics, operation, route, payload, response.getStatus());
+                    failed = false;
+                    return reader;
+                } catch (IOException e) {
+                    route.completed(endpoint, e);
+                    attemptCompleted(metrics, operation, route, payload, statusOf(e));
+                    context.attemptFailed(e);
+                    long delay = policy.nextDelayMs(context);
+                    if (delay < 0) {
+                        throw e;
+                    }
+                    context.retryScheduled(delay);
+                    if (operation != null) {
+                        operation.retried();
+                    }
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw e;
+                    }
+                } catch (RuntimeException e) {
+                    route.completed(endpoint, null);
                     throw e;
                 }
-                retries++;
-                // random delay between 0 and 4^tries*100 milliseconds
-                int pow = (1 << (2 * retries)) * 100;
-                int delay = rand.nextInt(pow);
+            }
+        } finally {
+            if (operation != null) {
+                metrics.requestFinished(operation, failed);
+            }
+        }
+    }
+
+    /**
+     * Sends the request without blocking the calling thread. Failed attempts are retried according
+     * to the same policy as {@link #request(String, String, Object, Cloud)}, but the delay is
+     * scheduled instead of slept.
+     */
+    private CompletableFuture<IronReader> requestAsync(String method, String endpoint, Object body, Cloud pinned) {
+        CompletableFuture<IronReader> result = new CompletableFuture<IronReader>();
+        ClientMetrics metrics = this.metrics;
+        OperationMetrics operation = metrics == null ? null : metrics.operation(method, endpoint);
+        if (operation != null) {
+            metrics.requestStarted(operation);
+        }
+        try {
+            Payload payload = body == null ? null : encode(body, compression);
+            RetryPolicy policy = retryPolicy;
+            RetryContext context = new RetryContext(method, endpoint);
+            policy.requestStarted(context);
+            sendAsync(payload, pinned, policy, context, metrics, operation, result);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+        }
+        if (operation == null) {
+            return result;
+        }
+        // Finish the request before callers see the result.
+        return result.whenComplete((reader, error) -> metrics.requestFinished(operation, error != null));
+    }
+
+    private void sendAsync(Payload payload, Cloud pinned, RetryPolicy policy, RetryContext context, ClientMetrics metrics,
+                           OperationMetrics operation, CompletableFuture<IronReader> result) {
+        Route route;
+        try {
+            route = route(context.getEndpoint(), pinned);
+        } catch (CircuitBreakerOpenException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        route.admitAsync(context.getEndpoint()).whenComplete((ignored, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            sendAdmitted(route, payload, pinned, policy, context, metrics, operation, result);
+        });
+    }
+
+    private void sendAdmitted(Route route, Payload payload, Cloud pinned, RetryPolicy policy, RetryContext context,
+                              ClientMetrics metrics, OperationMetrics operation, CompletableFuture<IronReader> result) {
+        String endpoint = context.getEndpoint();
+        TransportRequest request;
+        try {
+            request = buildRequest(route.cloud, context.getMethod(), endpoint, payload);
+        } catch (IOException | RuntimeException e) {
+            route.completed(endpoint, e instanceof IOException ? (IOException) e : null);
+            result.completeExceptionally(e);
+            return;
+        }
+        transport.executeAsync(request).whenComplete((response, error) -> {
+            try {
+                if (error != null) {
+                    throw error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                }
+                IronReader reader = route.issued(readResponse(response, operation));
+                route.completed(endpoint, null);
+                attemptCompleted(metrics, operation, route, payload, response.getStatus());
+                result.complete(reader);
+            } catch (IOException e) {
+                route.completed(endpoint, e);
+                attemptCompleted(metrics, operation, route, payload, statusOf(e));
+                context.attemptFailed(e);
+                long delay = policy.nextDelayMs(context);
+                if (delay < 0) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                context.retryScheduled(delay);
+                if (operation != null) {
+                    operation.retried();
+                }
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                        .execute(() -> sendAsync(payload, pinned, policy, context, metrics, operation, result));
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private static void attemptCompleted(ClientMetrics metrics, OperationMetrics operation, Route route,
+                                         Payload payload, int status) {
+        if (operation != null) {
+            metrics.attemptCompleted(operation, System.nanoTime() - route.start,
+                    payload == null ? 0 : payload.bytes.length, payload == null ? 0 : payload.uncompressedLength, status);
+        }
+    }
+
+    /**
+     * Returns the HTTP status of a failed attempt, or 0 if no response was received.
+     */
+    private static int statusOf(IOException error) {
+        return error instanceof HTTPException ? ((HTTPException) error).getStatusCode() : 0;
+    }
+
+    /**
+     * Picks the endpoint for the next attempt and takes a permit from its circuit breaker.
+     * Endpoints of a {@link CloudGroup} are tried from the healthiest down, skipping those whose
+     * circuit is open, unless the request concerns a message, which only the endpoint that
+     * issued it knows.
+     *
+     * @param pinned The endpoint the request has to go to, or null to look it up by the message
+     *               ID in the endpoint path, if any.
+     * @throws io.iron.ironmq.CircuitBreakerOpenException If the circuits of all endpoints are open.
+     */
+    private Route route(String endpoint, Cloud pinned) throws CircuitBreakerOpenException {
+        CloudGroup group = cloudGroup;
+        if (group == null) {
+            return new Route(null, cloud, circuitBreaker, concurrencyLimiter);
+        }
+        if (pinned == null) {
+            pinned = group.pinned(messageIdOf(endpoint));
+        }
+        if (pinned != null) {
+            return new Route(group, pinned, breakerFor(pinned), limiterFor(pinned));
+        }
+        List<Cloud> ranked = group.rank();
+        Cloud idle = group.probeDue();
+        if (idle != null) {
+            probe(group, idle);
+        }
+        CircuitBreakerOpenException open = null;
+        for (Cloud target : ranked) {
+            try {
+                return new Route(group, target, breakerFor(target), limiterFor(target));
+            } catch (CircuitBreakerOpenException e) {
+                if (open == null) {
+                    open = e;
+                }
+            }
+        }
+        throw open;
+    }
+
+    /**
+     * Returns the ID of the message a {@code queues/{name}/messages/{id}} endpoint concerns, or null.
+     */
+    private static String messageIdOf(String endpoint) {
+        int query = endpoint.indexOf('?');
+        String[] parts = (query < 0 ? endpoint : endpoint.substring(0, query)).split("/");
+        return parts.length >= 4 && parts[0].equals("queues") && parts[2].equals("messages") ? parts[3] : null;
+    }
+
+    /**
+     * Groups messages by the endpoint of the cloud group which issued them, so a bulk request
+     * concerning them can be sent to each. Messages whose endpoint is not known, or all messages if
+     * the client has no group, are under null.
+     */
+    LinkedHashMap<Cloud, MessageOptions[]> byPinnedCloud(MessageOptions[] messages) {
+        LinkedHashMap<Cloud, MessageOptions[]> result = new LinkedHashMap<Cloud, MessageOptions[]>();
+        CloudGroup group = cloudGroup;
+        if (group == null) {
+            result.put(null, messages);
+            return result;
+        }
+        LinkedHashMap<Cloud, ArrayList<MessageOptions>> parts = new LinkedHashMap<Cloud, ArrayList<MessageOptions>>();
+        for (MessageOptions message : messages) {
+            parts.computeIfAbsent(group.pinned(message.getId()), key -> new ArrayList<MessageOptions>()).add(message);
+        }
+        for (Map.Entry<Cloud, ArrayList<MessageOptions>> part : parts.entrySet()) {
+            result.put(part.getKey(), part.getValue().toArray(new MessageOptions[0]));
+        }
+        return result;
+    }
+
+    /**
+     * Sends a synthetic call to an idle endpoint of the cloud group, so its averages stay current
+     * without sending requests of the application there.
+     */
+    private void probe(CloudGroup group, Cloud target) {
+        Route route;
+        try {
+            route = new Route(group, target, breakerFor(target), null);
+        } catch (CircuitBreakerOpenException e) {
+            return;
+        }
+        String endpoint = "queues?per_page=1";
+        TransportRequest request;
+        try {
+            request = buildRequest(target, "GET", endpoint, null);
+        } catch (IOException | RuntimeException e) {
+            route.completed(endpoint, e instanceof IOException ? (IOException) e : null);
+            return;
+        }
+        transport.executeAsync(request).whenComplete((response, error) -> {
+            IOException failure = null;
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } else {
                 try {
-                    Thread.sleep(delay);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
+                    readResponse(response, null).close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            route.completed(endpoint, failure);
+        });
+    }
+
+    // Failover endpoints get their own breaker and limiter, set up like the client's.
+    private CircuitBreaker breakerFor(Cloud target) {
+        CircuitBreaker breaker = circuitBreaker;
+        if (breaker == null || isPrimary(target)) {
+            return breaker;
+        }
+        return breaker.forEndpoint(target);
+    }
+
+    private ConcurrencyLimiter limiterFor(Cloud target) {
+        ConcurrencyLimiter limiter = concurrencyLimiter;
+        if (limiter == null || isPrimary(target)) {
+            return limiter;
+        }
+        return limiter.forEndpoint(target);
+    }
+
+    private boolean isPrimary(Cloud target) {
+        return target == cloud || ConnectionPool.endpointOf(target).equals(ConnectionPool.endpointOf(cloud));
+    }
+
+    /**
+     * A single attempt of a request: the endpoint it is sent to and the health trackers
+     * its outcome is reported to.
+     */
+    static private class Route {
+        final CloudGroup group;
+        final Cloud cloud;
+        final CircuitBreaker breaker;
+        final ConcurrencyLimiter limiter;
+        final long ticket;
+        // When the attempt was sent, after any wait for a permit of the concurrency limiter.
+        long start;
+        private boolean admitted;
+
+        Route(CloudGroup group, Cloud cloud, CircuitBreaker breaker, ConcurrencyLimiter limiter) throws CircuitBreakerOpenException {
+            this.group = group;
+            this.cloud = cloud;
+            this.breaker = breaker;
+            this.limiter = limiter;
+            this.ticket = breaker == null ? 0 : breaker.acquire();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Takes a permit from the concurrency limiter, waiting in line if necessary. Reservations
+         * may long poll, so they are not limited.
+         *
+         * @throws IOException If no permit was free in time; the attempt must not be sent.
+         */
+        void admit(String endpoint) throws IOException {
+            if (limiter == null || endpoint.endsWith("/reservations")) {
+                return;
+            }
+            try {
+                limiter.acquire();
+            } catch (IOException e) {
+                abandon();
+                throw e;
+            }
+            admitted();
+        }
+
+        /**
+         * Takes a permit like {@link #admit(String)} without blocking the calling thread.
+         */
+        CompletableFuture<Void> admitAsync(String endpoint) {
+            if (limiter == null || endpoint.endsWith("/reservations")) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return limiter.acquireAsync().whenComplete((ignored, error) -> {
+                if (error != null) {
+                    abandon();
+                } else {
+                    admitted();
                 }
+            });
+        }
+
+        private void admitted() {
+            admitted = true;
+            start = System.nanoTime();
+        }
+
+        /**
+         * Lets the reader pin the messages of the response to this endpoint.
+         */
+        IronReader issued(IronReader reader) {
+            if (group != null) {
+                reader.group = group;
+                reader.cloud = cloud;
+            }
+            return reader;
+        }
+
+        private void abandon() {
+            if (breaker != null) {
+                breaker.cancel(ticket);
+            }
+        }
+
+        /**
+         * Reports the outcome of the attempt. Reservations may long poll, so their duration
+         * is neither checked by the circuit breaker nor taken as latency by the group.
+         */
+        void completed(String endpoint, IOException error) {
+            long duration = System.nanoTime() - start;
+            boolean failed = CircuitBreaker.isFailure(error);
+            boolean timed = !endpoint.endsWith("/reservations");
+            if (breaker != null) {
+                breaker.record(ticket, duration, failed, timed);
+            }
+            if (group != null) {
+                group.record(cloud, duration, failed, timed);
+            }
+            if (admitted) {
+                admitted = false;
+                limiter.release(duration, failed);
             }
         }
     }
@@ -202,61 +603,310 @@ public class Client {
         String msg;
     }
 
-    private IronReader singleRequest(String method, URL url, Object body) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    private TransportRequest buildRequest(Cloud target, String method, String endpoint, Payload payload) throws IOException {
+        String path = "/" + apiVersion + "/projects/" + projectId + "/" + endpoint;
+        URL url = new URL(target.scheme, target.host, target.port, target.pathPrefix + path);
+
+        HashMap<String, String> headers = new HashMap<String, String>();
         if (method.equals("DELETE") || method.equals("PATCH")) {
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("X-HTTP-Method-Override", method);
+            headers.put("X-HTTP-Method-Override", method);
+            method = "POST";
+        }
+        headers.put("Authorization", "OAuth " + tokenContainer.getToken());
+        headers.put("User-Agent", "IronMQ Java Client");
+
+        if (compression != null) {
+            headers.put("Accept-Encoding", Compression.ACCEPT_ENCODING);
+        }
+
+        if (payload == null) {
+            return new TransportRequest(method, url, headers, null, connectionTimeOutMs, readTimeOutMs);
+        }
+        headers.put("Content-Type", "application/json");
+        if (payload.contentEncoding != null) {
+            headers.put("Content-Encoding", payload.contentEncoding);
+        }
+        return new TransportRequest(method, url, headers, payload.bytes, connectionTimeOutMs, readTimeOutMs);
+    }
+
+    private static IronReader readResponse(TransportResponse response, OperationMetrics operation) throws IOException {
+        int status = response.getStatus();
+        if (status < 200 || status >= 300) {
+            try {
+                throw new HTTPException(status, readErrorMessage(response));
+            } finally {
+                response.close();
+            }
+        }
+
+        InputStream body = response.getBody();
+        String contentEncoding = response.getHeader("Content-Encoding");
+        if (operation == null) {
+            body = Compression.decode(body, contentEncoding);
+        } else if (contentEncoding == null) {
+            body = new CountingInputStream(body, bytes -> {
+                operation.received(bytes);
+                operation.decoded(bytes);
+            });
         } else {
-            conn.setRequestMethod(method);
+            body = new CountingInputStream(Compression.decode(new CountingInputStream(body, operation::received),
+                    contentEncoding), operation::decoded);
         }
-        conn.setRequestProperty("Authorization", "OAuth " + tokenContainer.getToken());
-        conn.setRequestProperty("User-Agent", "IronMQ Java Client");
+        return new IronReader(new InputStreamReader(body, "UTF-8"), response);
+    }
+
+    /**
+     * Counts the response bytes read by the caller.
+     */
+    static private class CountingInputStream extends FilterInputStream {
+        final private LongConsumer counter;
 
-        if (body != null) {
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
+        CountingInputStream(InputStream in, LongConsumer counter) {
+            super(in);
+            this.counter = counter;
         }
-        
-        conn.setConnectTimeout(connectionTimeOutMs);
-        conn.setReadTimeout(readTimeOutMs);
 
-        conn.connect();
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counter.accept(1);
+            }
+            return b;
+        }
 
-        if (body != null) {
-            OutputStreamWriter out = new OutputStreamWriter(conn.getOutputStream(), "UTF-8");
-            if (body instanceof String) {
-                out.write((String)body);
-                out.close();
-            } else {
-                JsonWriter jwriter = new JsonWriter(out);
-                gson.toJson(body, body.getClass(), jwriter);
-                jwriter.close();
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counter.accept(n);
             }
+            return n;
         }
+    }
 
-        int status = conn.getResponseCode();
-        if (status < 200 || status >= 300) {
-            String msg;
-            if (conn.getContentLength() > 0 && conn.getContentType().equals("application/json")) {
-                InputStreamReader reader = null;
-                try {
-                    reader = new InputStreamReader(conn.getErrorStream());
-                    Error error = gson.fromJson(reader, Error.class);
-                    msg = error.msg;
-                } catch (JsonSyntaxException e) {
-                    msg = "IronMQ's response contained invalid JSON";
-                } finally {
-                    if (reader != null)
-                        reader.close();
+    /**
+     * A request body, encoded once and sent unchanged by every attempt.
+     */
+    static private class Payload {
+        final byte[] bytes;
+        final long uncompressedLength;
+        final String contentEncoding;
+
+        Payload(byte[] bytes, long uncompressedLength, String contentEncoding) {
+            this.bytes = bytes;
+            this.uncompressedLength = uncompressedLength;
+            this.contentEncoding = contentEncoding;
+        }
+    }
+
+    private static Payload encode(Object body, Compression compression) throws IOException {
+        if (compression == null) {
+            byte[] bytes = encode(body);
+            return new Payload(bytes, bytes.length, null);
+        }
+        if (body instanceof String) {
+            body = ((String) body).getBytes("UTF-8");
+        }
+        if (body instanceof byte[] && ((byte[]) body).length < compression.getThresholdBytes()) {
+            byte[] bytes = (byte[]) body;
+            return new Payload(bytes, bytes.length, null);
+        }
+        Compression.Output output = compression.newOutput();
+        if (body instanceof byte[]) {
+            output.write((byte[]) body);
+            output.close();
+        } else {
+            // The JSON goes straight into the compressor; only the compressed body is kept.
+            JsonWriter jwriter = new JsonWriter(new OutputStreamWriter(output, "UTF-8"));
+            gson.toJson(body, body.getClass(), jwriter);
+            jwriter.close();
+        }
+        return new Payload(output.toByteArray(), output.getUncompressedLength(), output.getContentEncoding());
+    }
+
+    private static byte[] encode(Object body) throws IOException {
+        if (body instanceof byte[]) {
+            return (byte[]) body;
+        }
+        if (body instanceof String) {
+            return ((String) body).getBytes("UTF-8");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        JsonWriter jwriter = new JsonWriter(new OutputStreamWriter(buffer, "UTF-8"));
+        gson.toJson(body, body.getClass(), jwriter);
+        jwriter.close();
+        return buffer.toByteArray();
+    }
+
+    private static String readErrorMessage(TransportResponse response) throws IOException {
+        String contentType = response.getHeader("Content-Type");
+        if (contentType != null && contentType.startsWith("application/json")) {
+            try {
+                InputStream body = Compression.decode(response.getBody(), response.getHeader("Content-Encoding"));
+                Error error = gson.fromJson(new InputStreamReader(body, "UTF-8"), Error.class);
+                if (error != null) {
+                    return error.msg;
                 }
-            } else {
-                msg = "Empty or non-JSON response";
+            } catch (JsonSyntaxException e) {
+                return "IronMQ's response contained invalid JSON";
             }
-            throw new HTTPException(status, msg);
         }
+        return "Empty or non-JSON response";
+    }
+
+    /**
+     * Returns the pool connections to this client's cloud are leased from
+     * when the client runs on a {@link UrlConnectionTransport}.
+     */
+    public ConnectionPool getConnectionPool() {
+        return ConnectionPool.forCloud(cloud);
+    }
+
+    /**
+     * Returns the transport requests are sent through.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets the transport requests are sent through. By default the client runs on the shared
+     * {@link JdkHttpTransport#getDefault()}.
+     *
+     * @param transport The new transport.
+     */
+    public void setTransport(Transport transport) {
+        if (transport == null) {
+            throw new NullPointerException("Transport cannot be null");
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the policy deciding which failed requests are retried.
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy deciding which failed requests are retried and when. By default failures
+     * which are known to be transient are retried up to 5 times by a {@link DecorrelatedJitterRetryPolicy}.
+     * Use {@link RetryPolicy#NEVER} to turn retries off.
+     *
+     * @param retryPolicy The new retry policy.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        if (retryPolicy == null) {
+            throw new NullPointerException("Retry policy cannot be null");
+        }
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Returns how request bodies are compressed, or null if they are sent uncompressed.
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Compresses large request bodies and accepts compressed responses. By default compression is
+     * configured by the {@code compression} option and turned off.
+     *
+     * @param compression The compression to use, or null to turn it off.
+     */
+    public void setCompression(Compression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Returns the metrics requests are recorded to, or null if they are not recorded.
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Records latencies, byte counts, retries and statuses of this client's requests. One instance
+     * may be shared by several clients. Metrics are off by default.
+     *
+     * @param metrics The metrics to record to, or null to stop recording.
+     */
+    public void setMetrics(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the cache answering {@link Queue#getInfoAboutQueue()}, or null if queue information
+     * is always retrieved.
+     */
+    public QueueInfoCache getQueueInfoCache() {
+        return queueInfoCache;
+    }
+
+    /**
+     * Answers {@link Queue#getInfoAboutQueue()} and {@link AsyncQueue#getInfoAboutQueue()} of this
+     * client's queues from a cache. Queue information is not cached by default.
+     *
+     * @param queueInfoCache The cache to use, or null to always retrieve queue information.
+     */
+    public void setQueueInfoCache(QueueInfoCache queueInfoCache) {
+        this.queueInfoCache = queueInfoCache;
+    }
+
+    /**
+     * Returns the endpoints requests are spread over, or null if the client talks to a single cloud.
+     */
+    public CloudGroup getCloudGroup() {
+        return cloudGroup;
+    }
+
+    /**
+     * Spreads requests over several endpoints instead of the client's cloud. Each attempt goes to
+     * the healthiest endpoint of the group, so the client fails over when an endpoint keeps failing.
+     *
+     * @param cloudGroup The endpoints to use, or null to talk to the client's cloud only.
+     */
+    public void setCloudGroup(CloudGroup cloudGroup) {
+        this.cloudGroup = cloudGroup;
+    }
+
+    /**
+     * Returns the circuit breaker guarding the client's endpoint, or null if it is turned off.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the circuit breaker guarding the client's endpoint. By default requests are not guarded,
+     * unless the {@code circuit_breaker} option turns on the breaker shared by all clients of the
+     * same endpoint.
+     *
+     * @param circuitBreaker The new circuit breaker, or null to turn it off.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
 
-        return new IronReader(new InputStreamReader(conn.getInputStream()),conn);
+    /**
+     * Returns the limiter of requests in flight to the client's endpoint, or null if it is turned off.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the adaptive limiter of requests in flight to the client's endpoint. By default
+     * requests are not limited, unless the {@code concurrency_limit} option turns on the limiter
+     * shared by all clients of the same endpoint.
+     *
+     * @param concurrencyLimiter The new limiter, or null to turn it off.
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
     }
 
     public Map<String, Object> getOptions() {
@@ -276,7 +926,7 @@ public class Client {
     }
 
     private void loadConfiguration(String company, String product, Map<String, Object> userOptions, String[] extraOptionsList, int lookUpLimit) {
-        optionsList = ArrayUtils.addAll(new String[]{"scheme", "host", "port", "user_agent", "keystone"}, extraOptionsList);
+        optionsList = ArrayUtils.addAll(new String[]{"scheme", "host", "port", "user_agent", "keystone", "circuit_breaker", "concurrency_limit", "compression"}, extraOptionsList);
 
         options = new HashMap<String, Object>();
 
@@ -356,6 +1006,10 @@ public class Client {
         } else {
             cloud = new Cloud((String) getOption("scheme"), (String) getOption("host"), ((Number) getOption("port")).intValue());
         }
+
+        circuitBreaker = CircuitBreaker.fromOption(cloud, getOption("circuit_breaker"));
+        concurrencyLimiter = ConcurrencyLimiter.fromOption(cloud, getOption("concurrency_limit"));
+        compression = Compression.fromOption(getOption("compression"));
     }
 
     private void setOption(String name, Object value) {
@@ -0,0 +1,216 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ClientMetrics class records what a {@link Client} does: per-operation latency histograms,
+ * request and response byte counts and compression ratios, retries, response status counts and
+ * requests in flight.
+ *
+ * Operations are named after the HTTP method and the endpoint with queue names and ids replaced
+ * by placeholders, e.g. {@code POST queues/{queue}/reservations} or {@code DELETE queues/{queue}/messages/{id}}.
+ * Recording only touches atomic counters, so one instance can be shared by many clients and threads.
+ *
+ * <pre>
+ * ClientMetrics metrics = new ClientMetrics();
+ * client.setMetrics(metrics);
+ * Closeable exporting = metrics.exportEvery(m -&gt; System.out.println(m), 60000);
+ * </pre>
+ */
+public class ClientMetrics {
+    final private ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+    final private ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<Integer, LongAdder>();
+    final private LongAdder networkErrors = new LongAdder();
+    final private AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * Returns the counters of the operation the request belongs to, creating them on first use.
+     */
+    OperationMetrics operation(String method, String endpoint) {
+        String name = operationName(method, endpoint);
+        OperationMetrics operation = operations.get(name);
+        if (operation == null) {
+            operation = operations.computeIfAbsent(name, OperationMetrics::new);
+        }
+        return operation;
+    }
+
+    void requestStarted(OperationMetrics operation) {
+        inFlight.incrementAndGet();
+        operation.requestStarted();
+    }
+
+    void requestFinished(OperationMetrics operation, boolean failed) {
+        inFlight.decrementAndGet();
+        operation.requestFinished(failed);
+    }
+
+    /**
+     * Records an attempt which got a response with the given status, or none if the status is 0.
+     */
+    void attemptCompleted(OperationMetrics operation, long durationNanos, long requestBytes,
+                          long uncompressedRequestBytes, int status) {
+        operation.attemptCompleted(durationNanos, requestBytes, uncompressedRequestBytes);
+        if (status == 0) {
+            networkErrors.increment();
+            return;
+        }
+        LongAdder counter = statuses.get(status);
+        if (counter == null) {
+            counter = statuses.computeIfAbsent(status, s -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * Returns the name of the operation a request belongs to.
+     */
+    static String operationName(String method, String endpoint) {
+        int query = endpoint.indexOf('?');
+        String path = query < 0 ? endpoint : endpoint.substring(0, query);
+        String[] segments = path.split("/");
+        StringBuilder name = new StringBuilder(method).append(' ');
+        for (int i = 0; i < segments.length; i++) {
+            if (i > 0) {
+                name.append('/');
+                String parent = segments[i - 1];
+                if (parent.equals("queues")) {
+                    name.append("{queue}");
+                    continue;
+                }
+                if (parent.equals("messages")) {
+                    name.append("{id}");
+                    continue;
+                }
+                if (parent.equals("subscribers")) {
+                    name.append("{subscriber}");
+                    continue;
+                }
+                if (parent.equals("alerts")) {
+                    name.append("{alert}");
+                    continue;
+                }
+            }
+            name.append(segments[i]);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Returns the counters of all operations seen so far.
+     */
+    public Collection<OperationMetrics> getOperations() {
+        return Collections.unmodifiableCollection(operations.values());
+    }
+
+    /**
+     * Returns the counters of the named operation, or null if it was not seen yet.
+     */
+    public OperationMetrics getOperation(String name) {
+        return operations.get(name);
+    }
+
+    /**
+     * Returns how many attempts got a response with the given HTTP status.
+     */
+    public long getStatusCount(int status) {
+        LongAdder counter = statuses.get(status);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Returns the number of responses by HTTP status.
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, LongAdder> entry : statuses.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().sum());
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the number of attempts which got no response, e.g. because of a timeout.
+     */
+    public long getNetworkErrors() {
+        return networkErrors.sum();
+    }
+
+    /**
+     * Returns the number of requests started but not finished yet.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Calls the exporter every {@code periodMs} milliseconds on a daemon thread, and once more when
+     * the returned handle is closed.
+     *
+     * @param exporter The exporter to call.
+     * @param periodMs Time in milliseconds between exports.
+     * @return A handle which stops the exports when closed.
+     */
+    public Closeable exportEvery(MetricsExporter exporter, long periodMs) {
+        if (periodMs <= 0) {
+            throw new IllegalArgumentException("periodMs should be greater than 0");
+        }
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ironmq-metrics-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> export(exporter), periodMs, periodMs, TimeUnit.MILLISECONDS);
+        return () -> {
+            if (!scheduler.isShutdown()) {
+                scheduler.shutdownNow();
+                export(exporter);
+            }
+        };
+    }
+
+    private void export(MetricsExporter exporter) {
+        try {
+            exporter.export(this);
+        } catch (RuntimeException e) {
+            // A failing exporter must not stop the next exports.
+        }
+    }
+
+    /**
+     * Returns a one-line-per-operation summary with latencies in milliseconds.
+     */
+    public String toString() {
+        StringBuilder summary = new StringBuilder();
+        summary.append("in_flight=").append(getInFlight())
+                .append(" statuses=").append(getStatusCounts())
+                .append(" network_errors=").append(getNetworkErrors());
+        for (OperationMetrics operation : new TreeMap<String, OperationMetrics>(operations).values()) {
+            LatencyHistogram latency = operation.getLatency();
+            summary.append('\n').append(operation.getName())
+                    .append(": requests=").append(operation.getRequests())
+                    .append(" failures=").append(operation.getFailures())
+                    .append(" retries=").append(operation.getRetries())
+                    .append(" sent=").append(operation.getBytesSent())
+                    .append(" received=").append(operation.getBytesReceived())
+                    .append(String.format(" compression=%.2f/%.2f",
+                            operation.getRequestCompressionRatio(), operation.getResponseCompressionRatio()))
+                    .append(String.format(" p50=%.1f p99=%.1f max=%.1f",
+                            latency.getPercentileMicros(50) / 1000.0,
+                            latency.getPercentileMicros(99) / 1000.0,
+                            latency.getMaxMicros() / 1000.0));
+        }
+        return summary.toString();
+    }
+}
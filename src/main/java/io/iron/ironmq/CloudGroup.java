@@ -0,0 +1,361 @@
+package io.iron.ironmq;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The CloudGroup class lets a {@link Client} spread its requests over several IronMQ endpoints,
+ * e.g. clusters of the same project in different regions.
+ *
+ * For every endpoint the group keeps an exponentially weighted moving average (EWMA) of the
+ * latency of successful calls and of the share of failed calls. Each attempt, retries included,
+ * goes to the endpoint with the best score, {@code latency * exp(errorPenalty * errorRate)}, so a
+ * failing endpoint is left for the next healthiest one without rebuilding the client. Error rates
+ * fade over time, so an endpoint which stopped receiving calls after a failure is tried again once
+ * its errors are old enough.
+ *
+ * Endpoints which have not been called yet are assumed to be as slow as the slowest measured one.
+ * Scores within 10% of the best count as a tie, which goes to the endpoint listed first. To keep the
+ * averages of the other endpoints current, the client sends a synthetic call, listing one queue, to
+ * an endpoint which was not called for {@code probeIntervalMs}. Requests of the application are
+ * never used as probes.
+ *
+ * Network errors, 5xx and 429 responses count as failures, other 4xx responses do not.
+ * Reservations may long poll, so their duration does not count as latency.
+ *
+ * Message IDs are only known to the cluster which issued them. The group remembers which endpoint
+ * returned the last {@code maxPinnedMessages} reserved or peeked messages, and calls concerning
+ * one of them, such as deleting, touching or releasing it, are sent to that endpoint, whatever its
+ * score.
+ */
+public class CloudGroup {
+    public static final double DEFAULT_SMOOTHING = 0.2;
+    public static final double DEFAULT_ERROR_PENALTY = 10;
+    public static final long DEFAULT_ERROR_DECAY_MS = 30000;
+    public static final long DEFAULT_PROBE_INTERVAL_MS = 30000;
+    public static final int DEFAULT_MAX_PINNED_MESSAGES = 100000;
+
+    final private List<Cloud> clouds;
+    final private Endpoint[] endpoints;
+
+    private volatile double smoothing = DEFAULT_SMOOTHING;
+    private volatile double errorPenalty = DEFAULT_ERROR_PENALTY;
+    private volatile long errorDecayMs = DEFAULT_ERROR_DECAY_MS;
+    private volatile long probeIntervalMs = DEFAULT_PROBE_INTERVAL_MS;
+    private volatile int maxPinnedMessages = DEFAULT_MAX_PINNED_MESSAGES;
+
+    // Separate from the monitor guarding the scores, so lookups of pinned messages don't wait for rank().
+    private final ReentrantLock pinLock = new ReentrantLock();
+    private final LinkedHashMap<String, Cloud> pins = new LinkedHashMap<String, Cloud>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Cloud> eldest) {
+            return size() > maxPinnedMessages;
+        }
+    };
+
+    static private class Endpoint {
+        final Cloud cloud;
+        final int order;
+        boolean measured;
+        double latencyMs;
+        double errorRate;
+        long updatedNanos;
+        // When the endpoint was last picked for a call, by rank() or as a probe.
+        long pickedNanos;
+        double score;
+
+        Endpoint(Cloud cloud, int order, long now) {
+            this.cloud = cloud;
+            this.order = order;
+            this.pickedNanos = now;
+        }
+    }
+
+    /**
+     * @param clouds The endpoints to use, the preferred one first.
+     */
+    public CloudGroup(Cloud... clouds) {
+        this(Arrays.asList(clouds));
+    }
+
+    /**
+     * @param clouds The endpoints to use, the preferred one first.
+     */
+    public CloudGroup(List<Cloud> clouds) {
+        if (clouds == null || clouds.isEmpty()) {
+            throw new IllegalArgumentException("CloudGroup should contain at least one cloud");
+        }
+        this.clouds = Collections.unmodifiableList(new ArrayList<Cloud>(clouds));
+        this.endpoints = new Endpoint[clouds.size()];
+        long now = System.nanoTime();
+        for (int i = 0; i < endpoints.length; i++) {
+            if (clouds.get(i) == null) {
+                throw new IllegalArgumentException("Cloud cannot be null");
+            }
+            endpoints[i] = new Endpoint(clouds.get(i), i, now);
+        }
+    }
+
+    /**
+     * Returns the endpoints of the group in the order they were given.
+     */
+    public List<Cloud> getClouds() {
+        return clouds;
+    }
+
+    /**
+     * Returns the first endpoint of the group.
+     */
+    public Cloud getPrimary() {
+        return clouds.get(0);
+    }
+
+    /**
+     * Returns the endpoints of the group, the healthiest first. The first endpoint is assumed to
+     * receive the next call.
+     */
+    public synchronized List<Cloud> rank() {
+        long now = System.nanoTime();
+        double assumedLatency = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.measured) {
+                assumedLatency = Math.max(assumedLatency, endpoint.latencyMs);
+            }
+        }
+        Endpoint[] ranked = endpoints.clone();
+        for (Endpoint endpoint : ranked) {
+            double latency = endpoint.measured ? endpoint.latencyMs : assumedLatency;
+            // One millisecond floor, so errors still tell apart endpoints with immeasurably small latencies.
+            endpoint.score = Math.max(1, latency) * Math.exp(errorPenalty * errorRate(endpoint, now));
+        }
+        Arrays.sort(ranked, (a, b) -> a.score != b.score ? Double.compare(a.score, b.score) : a.order - b.order);
+
+        // Scores within 10% of the best count as a tie, so small differences don't make traffic flap.
+        int preferred = 0;
+        for (int i = 1; i < ranked.length; i++) {
+            if (ranked[i].score <= ranked[0].score * 1.1 && ranked[i].order < ranked[preferred].order) {
+                preferred = i;
+            }
+        }
+        moveToFront(ranked, preferred);
+        ranked[0].pickedNanos = now;
+
+        List<Cloud> result = new ArrayList<Cloud>(ranked.length);
+        for (Endpoint endpoint : ranked) {
+            result.add(endpoint.cloud);
+        }
+        return result;
+    }
+
+    private static void moveToFront(Endpoint[] ranked, int index) {
+        Endpoint endpoint = ranked[index];
+        System.arraycopy(ranked, 0, ranked, 1, index);
+        ranked[0] = endpoint;
+    }
+
+    /**
+     * Returns the healthiest endpoint.
+     */
+    public Cloud select() {
+        return rank().get(0);
+    }
+
+    /**
+     * Returns an endpoint which was not called for {@code probeIntervalMs}, or null if none is
+     * due. The endpoint counts as called, so it is returned once per interval.
+     */
+    public synchronized Cloud probeDue() {
+        long interval = TimeUnit.MILLISECONDS.toNanos(probeIntervalMs);
+        if (interval <= 0) {
+            return null;
+        }
+        long now = System.nanoTime();
+        for (Endpoint endpoint : endpoints) {
+            if (now - endpoint.pickedNanos >= interval) {
+                endpoint.pickedNanos = now;
+                return endpoint.cloud;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the outcome of a call.
+     *
+     * @param cloud The endpoint which was called.
+     * @param durationNanos Time the call took. Only successful calls update the latency.
+     * @param failed True if the call failed in a way that shows the endpoint is unhealthy.
+     */
+    public void record(Cloud cloud, long durationNanos, boolean failed) {
+        record(cloud, durationNanos, failed, true);
+    }
+
+    /**
+     * Records the outcome of a call.
+     *
+     * @param cloud The endpoint which was called.
+     * @param durationNanos Time the call took. Only successful calls update the latency.
+     * @param failed True if the call failed in a way that shows the endpoint is unhealthy.
+     * @param timed False if the duration says nothing about the endpoint's latency, as for long polls.
+     */
+    public synchronized void record(Cloud cloud, long durationNanos, boolean failed, boolean timed) {
+        Endpoint endpoint = find(cloud);
+        if (endpoint == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        double alpha = smoothing;
+        endpoint.errorRate = errorRate(endpoint, now) * (1 - alpha) + (failed ? alpha : 0);
+        endpoint.updatedNanos = now;
+        if (!failed && timed) {
+            double latency = durationNanos / 1e6;
+            endpoint.latencyMs = endpoint.measured ? endpoint.latencyMs * (1 - alpha) + latency * alpha : latency;
+            endpoint.measured = true;
+        }
+    }
+
+    /**
+     * Remembers that the message was issued by the endpoint, so calls concerning it go there.
+     */
+    void pin(String messageId, Cloud cloud) {
+        if (messageId == null) {
+            return;
+        }
+        pinLock.lock();
+        try {
+            pins.put(messageId, cloud);
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the endpoint which issued the message, or null if it is not known.
+     */
+    Cloud pinned(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        pinLock.lock();
+        try {
+            return pins.get(messageId);
+        } finally {
+            pinLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the smoothed latency of successful calls to the endpoint in milliseconds,
+     * or -1 if none was made yet.
+     */
+    public synchronized double getLatencyMs(Cloud cloud) {
+        Endpoint endpoint = find(cloud);
+        return endpoint == null || !endpoint.measured ? -1 : endpoint.latencyMs;
+    }
+
+    /**
+     * Returns the smoothed share of failed calls to the endpoint, between 0 and 1.
+     */
+    public synchronized double getErrorRate(Cloud cloud) {
+        Endpoint endpoint = find(cloud);
+        return endpoint == null ? 0 : errorRate(endpoint, System.nanoTime());
+    }
+
+    // Must be called with the lock held.
+    private double errorRate(Endpoint endpoint, long now) {
+        if (endpoint.errorRate == 0) {
+            return 0;
+        }
+        double elapsedMs = TimeUnit.NANOSECONDS.toMillis(now - endpoint.updatedNanos);
+        return endpoint.errorRate * Math.exp(-elapsedMs / errorDecayMs);
+    }
+
+    // Must be called with the lock held.
+    private Endpoint find(Cloud cloud) {
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.cloud == cloud) {
+                return endpoint;
+            }
+        }
+        String key = ConnectionPool.endpointOf(cloud);
+        for (Endpoint endpoint : endpoints) {
+            if (ConnectionPool.endpointOf(endpoint.cloud).equals(key)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    public double getSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * @param smoothing Weight, between 0 and 1, of the latest call in the moving averages.
+     */
+    public void setSmoothing(double smoothing) {
+        if (smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("smoothing should be greater than 0 and at most 1");
+        }
+        this.smoothing = smoothing;
+    }
+
+    public double getErrorPenalty() {
+        return errorPenalty;
+    }
+
+    /**
+     * @param errorPenalty How strongly errors worsen an endpoint's score. With the default of 10
+     *                     an error rate of 0.3 makes an endpoint look 20 times slower.
+     */
+    public void setErrorPenalty(double errorPenalty) {
+        this.errorPenalty = errorPenalty;
+    }
+
+    public long getErrorDecayMs() {
+        return errorDecayMs;
+    }
+
+    /**
+     * @param errorDecayMs Time in milliseconds over which the error rate of an idle endpoint fades
+     *                     to about a third.
+     */
+    public void setErrorDecayMs(long errorDecayMs) {
+        if (errorDecayMs <= 0) {
+            throw new IllegalArgumentException("errorDecayMs should be greater than 0");
+        }
+        this.errorDecayMs = errorDecayMs;
+    }
+
+    public long getProbeIntervalMs() {
+        return probeIntervalMs;
+    }
+
+    /**
+     * @param probeIntervalMs Time in milliseconds after which an endpoint which was not called
+     *                        gets a synthetic call to refresh its averages, 0 to never probe.
+     */
+    public void setProbeIntervalMs(long probeIntervalMs) {
+        this.probeIntervalMs = probeIntervalMs;
+    }
+
+    public int getMaxPinnedMessages() {
+        return maxPinnedMessages;
+    }
+
+    /**
+     * @param maxPinnedMessages Number of messages whose issuing endpoint is remembered. The least
+     *                          recently used ones are forgotten first.
+     */
+    public void setMaxPinnedMessages(int maxPinnedMessages) {
+        if (maxPinnedMessages < 0) {
+            throw new IllegalArgumentException("maxPinnedMessages should not be negative");
+        }
+        this.maxPinnedMessages = maxPinnedMessages;
+    }
+}
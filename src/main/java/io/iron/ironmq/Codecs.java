@@ -0,0 +1,371 @@
+package io.iron.ironmq;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Codecs class holds the Gson instance shared by all classes of the client.
+ *
+ * Building a Gson and discovering reflective adapters is expensive, so it is done once. The model
+ * classes on the hot path ({@link Message}, {@link Messages}, {@link Ids}, {@link MessageOptions}
+ * and {@link QueueModel}) are read and written by hand-written adapters which produce the same JSON
+ * as Gson's reflective ones without reflection. Subclasses of {@link MessageOptions} other than
+ * {@link Message} still go through reflection.
+ */
+public final class Codecs {
+    static final private Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(new ModelAdapterFactory())
+            .create();
+
+    private Codecs() {
+    }
+
+    /**
+     * Returns the shared Gson instance. Use {@link Gson#newBuilder()} to derive an instance with
+     * other settings; it shares the adapters registered here.
+     */
+    public static Gson gson() {
+        return gson;
+    }
+
+    static private class ModelAdapterFactory implements TypeAdapterFactory {
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> raw = type.getRawType();
+            if (raw == Message.class) {
+                return (TypeAdapter<T>) new MessageAdapter();
+            }
+            if (raw == MessageOptions.class) {
+                return (TypeAdapter<T>) new MessageOptionsAdapter(gson);
+            }
+            if (raw == Messages.class) {
+                return (TypeAdapter<T>) new MessagesAdapter(gson.getAdapter(Message.class));
+            }
+            if (raw == Ids.class) {
+                return (TypeAdapter<T>) new IdsAdapter();
+            }
+            if (raw == QueueModel.class) {
+                return (TypeAdapter<T>) new QueueModelAdapter(gson.getAdapter(QueuePushModel.class),
+                        gson.getAdapter(new TypeToken<ArrayList<Alert>>() {}));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the fields of {@link MessageOptions}.
+     */
+    private static void writeOptions(JsonWriter out, MessageOptions value) throws IOException {
+        writeString(out, "id", value.id);
+        writeLong(out, "delay", value.delay);
+        writeLong(out, "timeout", value.timeout);
+        writeString(out, "reservation_id", value.reservationId);
+    }
+
+    /**
+     * Reads a field of {@link MessageOptions}. Returns false, without consuming the value, for
+     * fields it doesn't know.
+     */
+    private static boolean readOption(JsonReader in, String name, MessageOptions value) throws IOException {
+        if (name.equals("id")) {
+            value.id = readString(in);
+        } else if (name.equals("delay")) {
+            value.delay = readLong(in);
+        } else if (name.equals("timeout")) {
+            value.timeout = readLong(in);
+        } else if (name.equals("reservation_id")) {
+            value.reservationId = readString(in);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    static private class MessageOptionsAdapter extends TypeAdapter<MessageOptions> {
+        final private Gson gson;
+
+        MessageOptionsAdapter(Gson gson) {
+            this.gson = gson;
+        }
+
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, MessageOptions value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            if (value.getClass() != MessageOptions.class) {
+                // Arrays of options may hold subclasses carrying more fields.
+                ((TypeAdapter<MessageOptions>) gson.getAdapter(value.getClass())).write(out, value);
+                return;
+            }
+            out.beginObject();
+            writeOptions(out, value);
+            out.endObject();
+        }
+
+        public MessageOptions read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            MessageOptions value = new MessageOptions();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (!readOption(in, in.nextName(), value)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    static private class MessageAdapter extends TypeAdapter<Message> {
+        public void write(JsonWriter out, Message value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "body", value.body);
+            writeLong(out, "expires_in", value.expiresIn);
+            out.name("reserved_count").value(value.reservedCount);
+            writeOptions(out, value);
+            out.endObject();
+        }
+
+        public Message read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Message value = new Message();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("body")) {
+                    value.body = readString(in);
+                } else if (name.equals("expires_in")) {
+                    value.expiresIn = readLong(in);
+                } else if (name.equals("reserved_count")) {
+                    Long reservedCount = readLong(in);
+                    value.reservedCount = reservedCount == null ? 0 : reservedCount;
+                } else if (!readOption(in, name, value)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    static private class MessagesAdapter extends TypeAdapter<Messages> {
+        final private TypeAdapter<Message> messageAdapter;
+
+        MessagesAdapter(TypeAdapter<Message> messageAdapter) {
+            this.messageAdapter = messageAdapter;
+        }
+
+        public void write(JsonWriter out, Messages value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (value.messages != null) {
+                out.name("messages").beginArray();
+                for (Message message : value.messages) {
+                    messageAdapter.write(out, message);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        public Messages read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Messages value = new Messages();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("messages") && in.peek() != JsonToken.NULL) {
+                    ArrayList<Message> messages = new ArrayList<Message>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        messages.add(messageAdapter.read(in));
+                    }
+                    in.endArray();
+                    value.messages = messages;
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    static private class IdsAdapter extends TypeAdapter<Ids> {
+        public void write(JsonWriter out, Ids value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (value.ids != null) {
+                out.name("ids").beginArray();
+                for (String id : value.ids) {
+                    out.value(id);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        public Ids read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            Ids value = new Ids();
+            in.beginObject();
+            while (in.hasNext()) {
+                if (in.nextName().equals("ids") && in.peek() != JsonToken.NULL) {
+                    List<String> ids = new ArrayList<String>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        ids.add(readString(in));
+                    }
+                    in.endArray();
+                    value.ids = ids.toArray(new String[ids.size()]);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    static private class QueueModelAdapter extends TypeAdapter<QueueModel> {
+        final private TypeAdapter<QueuePushModel> pushAdapter;
+        final private TypeAdapter<ArrayList<Alert>> alertsAdapter;
+
+        QueueModelAdapter(TypeAdapter<QueuePushModel> pushAdapter, TypeAdapter<ArrayList<Alert>> alertsAdapter) {
+            this.pushAdapter = pushAdapter;
+            this.alertsAdapter = alertsAdapter;
+        }
+
+        public void write(JsonWriter out, QueueModel value) throws IOException {
+            if (value == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            writeString(out, "id", value.id);
+            writeString(out, "name", value.name);
+            writeString(out, "type", value.type);
+            writeLong(out, "size", value.size);
+            writeString(out, "project_id", value.project_id);
+            writeLong(out, "total_messages", value.total_messages);
+            if (value.push != null) {
+                out.name("push");
+                pushAdapter.write(out, value.push);
+            }
+            if (value.alerts != null) {
+                out.name("alerts");
+                alertsAdapter.write(out, value.alerts);
+            }
+            writeLong(out, "message_timeout", value.messageTimeout == null ? null : value.messageTimeout.longValue());
+            writeLong(out, "message_expiration", value.messageExpiration == null ? null : value.messageExpiration.longValue());
+            out.endObject();
+        }
+
+        public QueueModel read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            QueueModel value = new QueueModel();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (name.equals("id")) {
+                    value.id = readString(in);
+                } else if (name.equals("name")) {
+                    value.name = readString(in);
+                } else if (name.equals("type")) {
+                    value.type = readString(in);
+                } else if (name.equals("size")) {
+                    value.size = readLong(in);
+                } else if (name.equals("project_id")) {
+                    value.project_id = readString(in);
+                } else if (name.equals("total_messages")) {
+                    value.total_messages = readLong(in);
+                } else if (name.equals("push")) {
+                    value.push = pushAdapter.read(in);
+                } else if (name.equals("alerts")) {
+                    value.alerts = alertsAdapter.read(in);
+                } else if (name.equals("message_timeout")) {
+                    value.messageTimeout = readInteger(in);
+                } else if (name.equals("message_expiration")) {
+                    value.messageExpiration = readInteger(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return value;
+        }
+    }
+
+    // Null fields are left out, as Gson does by default.
+    private static void writeString(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+
+    private static void writeLong(JsonWriter out, String name, Long value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value.longValue());
+        }
+    }
+
+    private static String readString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static Long readLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextLong();
+    }
+
+    private static Integer readInteger(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextInt();
+    }
+}
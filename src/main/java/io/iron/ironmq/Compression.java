@@ -0,0 +1,225 @@
+package io.iron.ironmq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The Compression class configures how a {@link Client} compresses request bodies.
+ *
+ * Bodies of at least {@code thresholdBytes} bytes are compressed with gzip or deflate while they
+ * are encoded, so a large batch is never held uncompressed in memory; smaller bodies are sent as
+ * they are, since compressing them costs more than it saves. Clients with compression turned on
+ * also accept compressed responses, which are decompressed while they are read.
+ *
+ * <pre>
+ * Compression compression = new Compression(Compression.GZIP);
+ * compression.setThresholdBytes(4096);
+ * client.setCompression(compression);
+ * </pre>
+ */
+public class Compression {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final int DEFAULT_THRESHOLD_BYTES = 1024;
+
+    static final String ACCEPT_ENCODING = GZIP + ", " + DEFLATE;
+
+    final private String encoding;
+    private volatile int thresholdBytes = DEFAULT_THRESHOLD_BYTES;
+    private volatile int level = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * Creates a compression of request bodies of at least 1 KB.
+     *
+     * @param encoding Either {@link #GZIP} or {@link #DEFLATE}.
+     */
+    public Compression(String encoding) {
+        if (!GZIP.equals(encoding) && !DEFLATE.equals(encoding)) {
+            throw new IllegalArgumentException("encoding should be " + GZIP + " or " + DEFLATE);
+        }
+        this.encoding = encoding;
+    }
+
+    /**
+     * Returns the compression described by the {@code compression} client option, or null if it is
+     * turned off. The option is {@code true} for gzip, the name of the encoding, or a hash with the
+     * keys {@code encoding}, {@code threshold_bytes} and {@code level}.
+     */
+    static Compression fromOption(Object option) {
+        if (option == null) {
+            return null;
+        }
+        if (!(option instanceof Map)) {
+            String value = option.toString();
+            if (Boolean.parseBoolean(value)) {
+                return new Compression(GZIP);
+            }
+            return value.equalsIgnoreCase("false") ? null : new Compression(value.toLowerCase());
+        }
+        Map<?, ?> settings = (Map<?, ?>) option;
+        if (settings.containsKey("enabled") && !Boolean.parseBoolean(settings.get("enabled").toString())) {
+            return null;
+        }
+        Object encoding = settings.get("encoding");
+        Compression compression = new Compression(encoding == null ? GZIP : encoding.toString().toLowerCase());
+        if (settings.get("threshold_bytes") != null) {
+            compression.setThresholdBytes((int) number(settings.get("threshold_bytes")));
+        }
+        if (settings.get("level") != null) {
+            compression.setLevel((int) number(settings.get("level")));
+        }
+        return compression;
+    }
+
+    private static double number(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public int getThresholdBytes() {
+        return thresholdBytes;
+    }
+
+    /**
+     * Sets the size from which request bodies are compressed.
+     */
+    public void setThresholdBytes(int thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("thresholdBytes should not be negative");
+        }
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the compression level, from 1 (fastest) to 9 (smallest), or -1 for the default of 6.
+     */
+    public void setLevel(int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("level should be between 1 and 9, or -1");
+        }
+        this.level = level;
+    }
+
+    /**
+     * Returns a stream which encodes the request body written to it.
+     */
+    Output newOutput() {
+        return new Output(encoding, thresholdBytes, level);
+    }
+
+    /**
+     * Wraps a response body sent with the given {@code Content-Encoding} into a stream which
+     * decompresses it while it is read.
+     */
+    static InputStream decode(InputStream body, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return body;
+        }
+        String value = contentEncoding.trim().toLowerCase();
+        if (value.equals(GZIP) || value.equals("x-gzip")) {
+            return new GZIPInputStream(body);
+        }
+        if (value.equals(DEFLATE)) {
+            return new InflaterInputStream(body);
+        }
+        return body;
+    }
+
+    /**
+     * Buffers a request body until it reaches the threshold, then compresses the buffered bytes
+     * and everything written afterwards on the fly.
+     */
+    static class Output extends OutputStream {
+        final private String encoding;
+        final private int thresholdBytes;
+        final private int level;
+        final private ByteArrayOutputStream buffer;
+        private Deflater deflater;
+        private DeflaterOutputStream compressor;
+        private long uncompressedLength;
+
+        private Output(String encoding, int thresholdBytes, int level) {
+            this.encoding = encoding;
+            this.thresholdBytes = thresholdBytes;
+            this.level = level;
+            this.buffer = new ByteArrayOutputStream(Math.min(Math.max(thresholdBytes, 32), 8192));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            uncompressedLength += len;
+            if (compressor != null) {
+                compressor.write(b, off, len);
+                return;
+            }
+            buffer.write(b, off, len);
+            if (buffer.size() >= thresholdBytes) {
+                startCompressing();
+            }
+        }
+
+        private void startCompressing() throws IOException {
+            byte[] buffered = buffer.toByteArray();
+            buffer.reset();
+            // gzip wraps raw deflate data in its own header and trailer, deflate uses the zlib format.
+            deflater = new Deflater(level, encoding.equals(GZIP));
+            if (encoding.equals(GZIP)) {
+                compressor = new GZIPOutputStream(buffer, 8192) {
+                    {
+                        def.end();
+                        def = deflater;
+                    }
+                };
+            } else {
+                compressor = new DeflaterOutputStream(buffer, deflater, 8192);
+            }
+            compressor.write(buffered);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (compressor != null) {
+                try {
+                    compressor.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+        }
+
+        /**
+         * Returns the {@code Content-Encoding} of the body, or null if it was not compressed.
+         */
+        String getContentEncoding() {
+            return compressor == null ? null : encoding;
+        }
+
+        long getUncompressedLength() {
+            return uncompressedLength;
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+}
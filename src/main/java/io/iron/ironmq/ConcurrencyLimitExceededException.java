@@ -0,0 +1,27 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+
+/**
+ * The ConcurrencyLimitExceededException class is thrown instead of sending a request when the
+ * {@link ConcurrencyLimiter} of the endpoint has no permit for it in time.
+ */
+public class ConcurrencyLimitExceededException extends IOException {
+    private final int limit;
+
+    /**
+     * @param endpoint The endpoint whose limit was reached.
+     * @param limit The number of requests the endpoint was permitted to have in flight.
+     */
+    public ConcurrencyLimitExceededException(String endpoint, int limit) {
+        super("Concurrency limit of " + limit + " requests for " + endpoint + " exceeded");
+        this.limit = limit;
+    }
+
+    /**
+     * Returns the number of requests the endpoint was permitted to have in flight.
+     */
+    public int getLimit() {
+        return limit;
+    }
+}
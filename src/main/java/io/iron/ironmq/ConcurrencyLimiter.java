@@ -0,0 +1,448 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ConcurrencyLimiter class adapts the number of requests in flight to an IronMQ endpoint to
+ * what the endpoint can serve.
+ *
+ * The limit follows the AIMD rule of TCP congestion control. Every completed request is a sample:
+ * while the permitted requests are mostly in use and their round-trip times stay within
+ * {@code rttTolerance} times the lowest recent round-trip time, the limit grows by one per
+ * limit's worth of samples. An overloaded endpoint, shown by a network error, a 5xx or 429
+ * response, or a round-trip time above the tolerance, makes the limit shrink by
+ * {@code backoffRatio}, at most once per round trip. Retries take permits like first attempts,
+ * so they wait instead of adding load while the endpoint is saturated.
+ *
+ * Requests beyond the limit wait in line for up to {@code maxWaitMs} milliseconds, at most
+ * {@code maxQueued} of them; others fail right away with a
+ * {@link ConcurrencyLimitExceededException} and are not retried. Reservations are not limited,
+ * since long polls keep a request in flight while the endpoint does no work for it.
+ *
+ * Limiters are shared by all clients talking to the same scheme, host and port.
+ */
+public class ConcurrencyLimiter {
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 500;
+    public static final int DEFAULT_MAX_QUEUED = 1000;
+    public static final long DEFAULT_MAX_WAIT_MS = 1000;
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+    public static final double DEFAULT_RTT_TOLERANCE = 2.0;
+
+    // The lowest round-trip time is forgotten after this long, so the limiter adapts to an
+    // endpoint that became slower for good.
+    private static final long minRttWindowNanos = TimeUnit.SECONDS.toNanos(30);
+    // Round-trip times below this are compared as if they took this long, so the jitter of a
+    // nearby, idle endpoint is not taken for congestion.
+    private static final long minRttFloorNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    static final private ConcurrentMap<String, ConcurrencyLimiter> limiters = new ConcurrentHashMap<String, ConcurrencyLimiter>();
+
+    final private String endpoint;
+    final private int initialLimit;
+    final private int minLimit;
+    final private int maxLimit;
+
+    private volatile int maxQueued = DEFAULT_MAX_QUEUED;
+    private volatile long maxWaitMs = DEFAULT_MAX_WAIT_MS;
+    private volatile double backoffRatio = DEFAULT_BACKOFF_RATIO;
+    private volatile double rttTolerance = DEFAULT_RTT_TOLERANCE;
+
+    // Permits are handed over from the thread completing a request; a monitor would pin a virtual thread.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<CompletableFuture<Void>> waiters = new ArrayDeque<CompletableFuture<Void>>();
+    private double limit;
+    private int inFlight;
+    private long minRttNanos;
+    private long minRttSince;
+    private long smoothedRttNanos;
+    private long lastDecreaseNanos;
+    private boolean decreased;
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a limiter starting at 20 requests, adapting between 1 and 500.
+     *
+     * @param cloud The endpoint requests are sent to.
+     */
+    public ConcurrencyLimiter(Cloud cloud) {
+        this(cloud, DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param cloud The endpoint requests are sent to.
+     * @param initialLimit Number of requests permitted in flight at first.
+     * @param minLimit Lowest number of requests the limit shrinks to.
+     * @param maxLimit Highest number of requests the limit grows to.
+     */
+    public ConcurrencyLimiter(Cloud cloud, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1) {
+            throw new IllegalArgumentException("minLimit should be greater than 0");
+        }
+        if (maxLimit < minLimit) {
+            throw new IllegalArgumentException("maxLimit should not be less than minLimit");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("initialLimit has to be within minLimit..maxLimit");
+        }
+        this.endpoint = ConnectionPool.endpointOf(cloud);
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Returns the limiter shared by all clients talking to the same scheme, host and port as the
+     * specified cloud. The limiter is created with default settings on first use.
+     */
+    public static ConcurrencyLimiter forCloud(Cloud cloud) {
+        String key = ConnectionPool.endpointOf(cloud);
+        ConcurrencyLimiter limiter = limiters.get(key);
+        if (limiter == null) {
+            ConcurrencyLimiter created = new ConcurrencyLimiter(cloud);
+            limiter = limiters.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Replaces the shared limiter of the specified cloud's endpoint.
+     */
+    public static void setForCloud(Cloud cloud, ConcurrencyLimiter limiter) {
+        limiters.put(ConnectionPool.endpointOf(cloud), limiter);
+    }
+
+    /**
+     * Returns the limiter described by the {@code concurrency_limit} client option, or null if it
+     * is turned off, which it is by default. The option is either a boolean or a hash with the
+     * keys {@code initial_limit}, {@code min_limit}, {@code max_limit}, {@code max_queued},
+     * {@code max_wait_ms}, {@code backoff_ratio} and {@code rtt_tolerance}. Settings only apply if
+     * the endpoint has no limiter yet.
+     */
+    static ConcurrencyLimiter fromOption(Cloud cloud, Object option) {
+        if (option == null) {
+            return null;
+        }
+        if (!(option instanceof Map)) {
+            return Boolean.parseBoolean(option.toString()) ? forCloud(cloud) : null;
+        }
+        Map<?, ?> settings = (Map<?, ?>) option;
+        if (settings.containsKey("enabled") && !Boolean.parseBoolean(settings.get("enabled").toString())) {
+            return null;
+        }
+        String key = ConnectionPool.endpointOf(cloud);
+        ConcurrencyLimiter limiter = limiters.get(key);
+        if (limiter != null) {
+            return limiter;
+        }
+        ConcurrencyLimiter created = new ConcurrencyLimiter(cloud,
+                (int) number(settings, "initial_limit", DEFAULT_INITIAL_LIMIT),
+                (int) number(settings, "min_limit", DEFAULT_MIN_LIMIT),
+                (int) number(settings, "max_limit", DEFAULT_MAX_LIMIT));
+        created.setMaxQueued((int) number(settings, "max_queued", DEFAULT_MAX_QUEUED));
+        created.setMaxWaitMs((long) number(settings, "max_wait_ms", DEFAULT_MAX_WAIT_MS));
+        created.setBackoffRatio(number(settings, "backoff_ratio", DEFAULT_BACKOFF_RATIO));
+        created.setRttTolerance(number(settings, "rtt_tolerance", DEFAULT_RTT_TOLERANCE));
+        limiter = limiters.putIfAbsent(key, created);
+        return limiter == null ? created : limiter;
+    }
+
+    /**
+     * Returns the limiter of the specified cloud's endpoint: this limiter if it guards that
+     * endpoint, otherwise the endpoint's shared limiter, which is created with this limiter's
+     * settings if the endpoint has none yet.
+     */
+    ConcurrencyLimiter forEndpoint(Cloud cloud) {
+        String key = ConnectionPool.endpointOf(cloud);
+        if (key.equals(endpoint)) {
+            return this;
+        }
+        ConcurrencyLimiter limiter = limiters.get(key);
+        if (limiter != null) {
+            return limiter;
+        }
+        ConcurrencyLimiter created = new ConcurrencyLimiter(cloud, initialLimit, minLimit, maxLimit);
+        created.setMaxQueued(maxQueued);
+        created.setMaxWaitMs(maxWaitMs);
+        created.setBackoffRatio(backoffRatio);
+        created.setRttTolerance(rttTolerance);
+        limiter = limiters.putIfAbsent(key, created);
+        return limiter == null ? created : limiter;
+    }
+
+    private static double number(Map<?, ?> settings, String name, double defaultValue) {
+        Object value = settings.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.parseDouble(value.toString());
+    }
+
+    /**
+     * Takes a permit to send a request, waiting in line if the limit is reached.
+     *
+     * @throws ConcurrencyLimitExceededException If no permit was free within the maximum wait, or
+     *         too many requests are waiting already.
+     */
+    public void acquire() throws IOException {
+        CompletableFuture<Void> permit = acquireAsync();
+        try {
+            permit.get();
+        } catch (InterruptedException e) {
+            // A permit handed over meanwhile is given back.
+            if (!permit.cancel(false) && !permit.isCompletedExceptionally()) {
+                cancel();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a permit");
+        } catch (ExecutionException e) {
+            throw (ConcurrencyLimitExceededException) e.getCause();
+        }
+    }
+
+    /**
+     * Takes a permit to send a request without blocking the calling thread.
+     *
+     * @return A future completed once the permit is taken, or failed with a
+     *         {@link ConcurrencyLimitExceededException}.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        CompletableFuture<Void> waiter;
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                return CompletableFuture.completedFuture(null);
+            }
+            if (maxWaitMs <= 0 || waiters.size() >= maxQueued) {
+                rejected.increment();
+                return CompletableFuture.failedFuture(new ConcurrencyLimitExceededException(endpoint, (int) limit));
+            }
+            waiter = new CompletableFuture<Void>();
+            waiters.add(waiter);
+        } finally {
+            lock.unlock();
+        }
+        CompletableFuture.delayedExecutor(maxWaitMs, TimeUnit.MILLISECONDS).execute(() -> expire(waiter));
+        return waiter;
+    }
+
+    private void expire(CompletableFuture<Void> waiter) {
+        int current;
+        lock.lock();
+        try {
+            // A waiter which is no longer in line has been given a permit.
+            if (!waiters.remove(waiter)) {
+                return;
+            }
+            current = (int) limit;
+        } finally {
+            lock.unlock();
+        }
+        rejected.increment();
+        waiter.completeExceptionally(new ConcurrencyLimitExceededException(endpoint, current));
+    }
+
+    /**
+     * Returns a permit and adapts the limit to the outcome of the request.
+     *
+     * @param rttNanos Time the request took.
+     * @param overloaded True if the request failed in a way that shows the endpoint is overloaded.
+     */
+    public void release(long rttNanos, boolean overloaded) {
+        ArrayList<CompletableFuture<Void>> admitted = new ArrayList<CompletableFuture<Void>>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            sample(now, rttNanos, overloaded);
+            inFlight--;
+            admit(admitted);
+        } finally {
+            lock.unlock();
+        }
+        complete(admitted);
+    }
+
+    /**
+     * Returns a permit for a request that was not sent, without adapting the limit.
+     */
+    public void cancel() {
+        ArrayList<CompletableFuture<Void>> admitted = new ArrayList<CompletableFuture<Void>>();
+        lock.lock();
+        try {
+            inFlight--;
+            admit(admitted);
+        } finally {
+            lock.unlock();
+        }
+        complete(admitted);
+    }
+
+    /**
+     * Records the outcome of a request sent with a permit. Must be called with the lock held,
+     * before the request is removed from {@code inFlight}.
+     */
+    private void sample(long now, long rttNanos, boolean overloaded) {
+        if (!overloaded) {
+            if (minRttNanos == 0 || rttNanos < minRttNanos || now - minRttSince > minRttWindowNanos) {
+                minRttNanos = Math.max(rttNanos, 1);
+                minRttSince = now;
+            }
+            smoothedRttNanos = smoothedRttNanos == 0 ? rttNanos : (smoothedRttNanos * 7 + rttNanos) / 8;
+            overloaded = rttNanos > Math.max(minRttNanos, minRttFloorNanos) * rttTolerance;
+        }
+        if (overloaded) {
+            // Requests in flight when the limit was lowered report the same congestion; wait a round trip.
+            if (!decreased || now - lastDecreaseNanos >= smoothedRttNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+                decreased = true;
+            }
+        } else if (inFlight * 2 >= (int) limit) {
+            // Grow only while the permits are used; an idle client says nothing about capacity.
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    // Must be called with the lock held.
+    private void admit(ArrayList<CompletableFuture<Void>> admitted) {
+        while (!waiters.isEmpty() && inFlight < (int) limit) {
+            admitted.add(waiters.poll());
+            inFlight++;
+        }
+    }
+
+    private void complete(ArrayList<CompletableFuture<Void>> admitted) {
+        for (CompletableFuture<Void> waiter : admitted) {
+            if (!waiter.complete(null)) {
+                // The caller gave up on it.
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests currently permitted in flight.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests in flight.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting for a permit.
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests failed with a {@link ConcurrencyLimitExceededException}.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    /**
+     * @param maxQueued Maximum number of requests waiting for a permit. Further ones are rejected.
+     */
+    public void setMaxQueued(int maxQueued) {
+        if (maxQueued < 0) {
+            throw new IllegalArgumentException("maxQueued should not be negative");
+        }
+        this.maxQueued = maxQueued;
+    }
+
+    public long getMaxWaitMs() {
+        return maxWaitMs;
+    }
+
+    /**
+     * @param maxWaitMs Maximum time in milliseconds a request waits for a permit. 0 rejects
+     *                  requests beyond the limit right away.
+     */
+    public void setMaxWaitMs(long maxWaitMs) {
+        if (maxWaitMs < 0) {
+            throw new IllegalArgumentException("maxWaitMs should not be negative");
+        }
+        this.maxWaitMs = maxWaitMs;
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    /**
+     * @param backoffRatio Factor, within 0.5..1, the limit is multiplied by when the endpoint is overloaded.
+     */
+    public void setBackoffRatio(double backoffRatio) {
+        if (backoffRatio < 0.5 || backoffRatio > 1) {
+            throw new IllegalArgumentException("backoffRatio has to be within 0.5..1");
+        }
+        this.backoffRatio = backoffRatio;
+    }
+
+    public double getRttTolerance() {
+        return rttTolerance;
+    }
+
+    /**
+     * @param rttTolerance Multiple of the lowest recent round-trip time above which a request shows
+     *                     the endpoint is overloaded. Should be greater than 1.
+     */
+    public void setRttTolerance(double rttTolerance) {
+        if (rttTolerance <= 1) {
+            throw new IllegalArgumentException("rttTolerance should be greater than 1");
+        }
+        this.rttTolerance = rttTolerance;
+    }
+}
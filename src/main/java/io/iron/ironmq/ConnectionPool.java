@@ -0,0 +1,182 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ConnectionPool class bounds and recycles HTTP connections to a single IronMQ endpoint.
+ *
+ * Sockets are kept alive by the JDK's HTTP keep-alive cache as long as the response is fully
+ * read and the connection is not disconnected. The pool leases at most
+ * {@code maxConnectionsPerHost} connections at a time and drains every returned response so its
+ * socket can be reused. How many idle sockets the cache keeps and for how long is up to the JDK,
+ * configured by the {@code http.maxConnections} system property and the server's keep-alive
+ * timeout.
+ */
+public class ConnectionPool {
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+
+    static final private ConcurrentMap<String, ConnectionPool> pools = new ConcurrentHashMap<String, ConnectionPool>();
+
+    final private String endpoint;
+    final private Semaphore leases;
+    final private int maxConnectionsPerHost;
+
+    private volatile boolean keepAlive = true;
+
+    /**
+     * Creates a new pool for the specified endpoint.
+     *
+     * @param cloud The endpoint connections are made to.
+     * @param maxConnectionsPerHost Maximum number of connections leased at the same time.
+     */
+    public ConnectionPool(Cloud cloud, int maxConnectionsPerHost) {
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerHost should be greater than 0");
+        }
+        this.endpoint = endpointOf(cloud);
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.leases = new Semaphore(maxConnectionsPerHost, true);
+    }
+
+    /**
+     * Returns the pool shared by all clients talking to the same scheme, host and port as the
+     * specified cloud. The pool is created with default settings on first use.
+     *
+     * @param cloud The endpoint connections are made to.
+     */
+    public static ConnectionPool forCloud(Cloud cloud) {
+        String key = endpointOf(cloud);
+        ConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            ConnectionPool created = new ConnectionPool(cloud, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+            pool = pools.putIfAbsent(key, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Replaces the shared pool of the specified cloud's endpoint.
+     *
+     * @param cloud The endpoint connections are made to.
+     * @param pool The pool to use for this endpoint from now on.
+     */
+    public static void setForCloud(Cloud cloud, ConnectionPool pool) {
+        pools.put(endpointOf(cloud), pool);
+    }
+
+    /**
+     * Returns the pool shared by all clients talking to the endpoint of the specified URL.
+     */
+    static ConnectionPool forUrl(URL url) {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        return forCloud(new Cloud(url.getProtocol(), url.getHost(), port));
+    }
+
+    static String endpointOf(Cloud cloud) {
+        return cloud.scheme + "://" + cloud.host + ":" + cloud.port;
+    }
+
+    /**
+     * Opens a connection to the specified URL, waiting up to {@code timeoutMs} for a free slot.
+     * Every leased connection must be given back through {@link #release(HttpURLConnection)}.
+     *
+     * @throws java.io.IOException If no slot was freed in time or the connection could not be opened.
+     */
+    public HttpURLConnection lease(URL url, long timeoutMs) throws IOException {
+        try {
+            if (!leases.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a connection to " + endpoint);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + endpoint);
+        }
+
+        try {
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            if (!keepAlive) {
+                conn.setRequestProperty("Connection", "close");
+            }
+            return conn;
+        } catch (IOException e) {
+            leases.release();
+            throw e;
+        } catch (RuntimeException e) {
+            leases.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a leased connection to the pool. The rest of the response is drained so that the
+     * socket goes back to the keep-alive cache; it is closed instead if keep-alive is off.
+     */
+    public void release(HttpURLConnection conn) {
+        try {
+            if (!keepAlive || !drain(conn)) {
+                conn.disconnect();
+            }
+        } finally {
+            leases.release();
+        }
+    }
+
+    private static boolean drain(HttpURLConnection conn) {
+        InputStream stream = null;
+        try {
+            try {
+                stream = conn.getInputStream();
+            } catch (IOException e) {
+                stream = conn.getErrorStream();
+            }
+            if (stream == null) {
+                return true;
+            }
+            byte[] buf = new byte[4096];
+            while (stream.read(buf) >= 0) {
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of connections currently leased.
+     */
+    public int getLeasedConnections() {
+        return maxConnectionsPerHost - leases.availablePermits();
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @param keepAlive False to close every connection once its response has been read.
+     */
+    public void setKeepAlive(boolean keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+}
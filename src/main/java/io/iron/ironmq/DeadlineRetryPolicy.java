@@ -0,0 +1,42 @@
+package io.iron.ironmq;
+
+/**
+ * The DeadlineRetryPolicy class stops retrying once a request could not be retried within its deadline.
+ *
+ * A retry is only scheduled if the request's elapsed time plus the chosen delay stays within
+ * {@code deadlineMs}. Otherwise the latest error is reported right away instead of after a wait
+ * which could not lead to an answer in time.
+ */
+public class DeadlineRetryPolicy implements RetryPolicy {
+    private final RetryPolicy delegate;
+    private final long deadlineMs;
+
+    /**
+     * @param delegate The policy choosing which failures are retried and when.
+     * @param deadlineMs Time in milliseconds, measured from the first attempt, after which no more
+     *                   attempts are started.
+     */
+    public DeadlineRetryPolicy(RetryPolicy delegate, long deadlineMs) {
+        if (deadlineMs < 0) {
+            throw new IllegalArgumentException("deadlineMs should not be negative");
+        }
+        this.delegate = delegate;
+        this.deadlineMs = deadlineMs;
+    }
+
+    public void requestStarted(RetryContext context) {
+        delegate.requestStarted(context);
+    }
+
+    public long nextDelayMs(RetryContext context) {
+        long delay = delegate.nextDelayMs(context);
+        if (delay < 0 || context.getElapsedMs() + delay >= deadlineMs) {
+            return -1;
+        }
+        return delay;
+    }
+
+    public long getDeadlineMs() {
+        return deadlineMs;
+    }
+}
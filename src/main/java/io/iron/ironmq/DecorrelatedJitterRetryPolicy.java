@@ -0,0 +1,114 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.net.http.HttpConnectTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The DecorrelatedJitterRetryPolicy class retries transient failures with randomized, growing delays.
+ *
+ * Each delay is drawn uniformly between {@code baseDelayMs} and three times the previous delay, and
+ * is capped at {@code maxDelayMs}. Clients that fail at the same time thus spread their retries
+ * instead of hitting the service in waves.
+ *
+ * Which failures are retried depends on whether the request may have been processed:
+ * <ul>
+ *     <li>429 and 503 responses, and errors while connecting, are always retried, because the
+ *     request was not processed.</li>
+ *     <li>500, 502 and 504 responses, timeouts and connection resets are retried only if the request is
+ *     idempotent according to the {@link IdempotencyTable}. Otherwise a retried push could post its
+ *     messages twice.</li>
+ *     <li>Other HTTP errors are never retried.</li>
+ * </ul>
+ */
+public class DecorrelatedJitterRetryPolicy implements RetryPolicy {
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final long DEFAULT_BASE_DELAY_MS = 100;
+    public static final long DEFAULT_MAX_DELAY_MS = 10000;
+
+    private final int maxRetries;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final IdempotencyTable idempotency;
+
+    /**
+     * Creates a policy retrying up to 5 times, waiting between 100 milliseconds and 10 seconds.
+     */
+    public DecorrelatedJitterRetryPolicy() {
+        this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, new IdempotencyTable());
+    }
+
+    /**
+     * @param maxRetries Maximum number of retries per request.
+     * @param baseDelayMs Minimum delay in milliseconds.
+     * @param maxDelayMs Maximum delay in milliseconds.
+     * @param idempotency Tells which requests can be repeated after an ambiguous failure.
+     */
+    public DecorrelatedJitterRetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs, IdempotencyTable idempotency) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("maxRetries should not be negative");
+        }
+        if (baseDelayMs < 1 || maxDelayMs < baseDelayMs) {
+            throw new IllegalArgumentException("baseDelayMs should be greater than 0 and not greater than maxDelayMs");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.idempotency = idempotency;
+    }
+
+    public long nextDelayMs(RetryContext context) {
+        if (context.getFailedAttempts() > maxRetries || !isRetryable(context)) {
+            return -1;
+        }
+        long previous = Math.max(baseDelayMs, context.getLastDelayMs());
+        long upper = Math.min(maxDelayMs, previous * 3);
+        return upper > baseDelayMs ? ThreadLocalRandom.current().nextLong(baseDelayMs, upper + 1) : baseDelayMs;
+    }
+
+    /**
+     * Returns true if the error of the latest attempt may go away when the request is repeated.
+     */
+    protected boolean isRetryable(RetryContext context) {
+        IOException error = context.getLastError();
+        if (error instanceof HTTPException) {
+            int status = ((HTTPException) error).getStatusCode();
+            if (status == 429 || status == 503) {
+                return true;
+            }
+            if (status == 500 || status == 502 || status == 504) {
+                return isIdempotent(context);
+            }
+            return false;
+        }
+        if (error instanceof ConnectException || error instanceof NoRouteToHostException
+                || error instanceof UnknownHostException || error instanceof HttpConnectTimeoutException) {
+            return true;
+        }
+        // Timeouts, resets and other I/O errors: the server may have processed the request.
+        return isIdempotent(context);
+    }
+
+    protected boolean isIdempotent(RetryContext context) {
+        return idempotency.isIdempotent(context.getMethod(), context.getEndpoint());
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBaseDelayMs() {
+        return baseDelayMs;
+    }
+
+    public long getMaxDelayMs() {
+        return maxDelayMs;
+    }
+
+    public IdempotencyTable getIdempotencyTable() {
+        return idempotency;
+    }
+}
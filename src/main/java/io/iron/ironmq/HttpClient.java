@@ -1,16 +1,14 @@
 package io.iron.ironmq;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
-import java.util.Map;
 
 public class HttpClient {
     private boolean forMq;
+    private Transport transport = JdkHttpTransport.getDefault();
 
     private HttpClient() { }
 
@@ -18,6 +16,11 @@ public class HttpClient {
         this.forMq = forMq;
     }
 
+    public HttpClient(boolean forMq, Transport transport) {
+        this.forMq = forMq;
+        this.transport = transport;
+    }
+
     public static HttpClient create() {
         return new HttpClient(false);
     }
@@ -31,59 +34,52 @@ public class HttpClient {
     }
 
     public Reader singleRequest(String method, URL url, String body, HashMap<String, String> headers) throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-
+        HashMap<String, String> requestHeaders = new HashMap<String, String>(headers);
         if (method.equals("DELETE") || method.equals("PATCH")) {
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("X-HTTP-Method-Override", method);
-        } else {
-            conn.setRequestMethod(method);
-        }
-
-        for (Map.Entry<String, String> entry : headers.entrySet()) {
-            conn.setRequestProperty(entry.getKey(), entry.getValue());
+            requestHeaders.put("X-HTTP-Method-Override", method);
+            method = "POST";
         }
 
+        byte[] payload = null;
         if (body != null) {
-            conn.setRequestProperty("Content-Type", "application/json");
-            conn.setDoOutput(true);
+            requestHeaders.put("Content-Type", "application/json");
+            payload = body.getBytes("UTF-8");
         }
 
-        conn.connect();
-
-        if (body != null) {
-            OutputStreamWriter out = new OutputStreamWriter(conn.getOutputStream(), "UTF-8");
-            out.write(body);
-            out.close();
-        }
+        TransportResponse response = transport.execute(new TransportRequest(method, url, requestHeaders, payload, 0, 0));
 
-        int status = conn.getResponseCode();
+        int status = response.getStatus();
         if (status != 200) {
-            if (forMq) {
-                String msg;
-                if (conn.getContentLength() > 0 && conn.getContentType().equals("application/json")) {
-                    InputStreamReader reader = null;
-                    try {
-                        reader = new InputStreamReader(conn.getErrorStream());
-                        Gson gson = new Gson();
-                        Error error = gson.fromJson(reader, Error.class);
-                        msg = error.msg;
-                    } catch (JsonSyntaxException e) {
-                        msg = "IronMQ's response contained invalid JSON";
-                    } finally {
-                        if (reader != null)
-                            reader.close();
+            try {
+                if (forMq) {
+                    String msg;
+                    String contentType = response.getHeader("Content-Type");
+                    if (contentType != null && contentType.startsWith("application/json")) {
+                        InputStreamReader reader = null;
+                        try {
+                            reader = new InputStreamReader(response.getBody(), "UTF-8");
+                            Error error = Codecs.gson().fromJson(reader, Error.class);
+                            msg = error == null ? "Empty or non-JSON response" : error.msg;
+                        } catch (JsonSyntaxException e) {
+                            msg = "IronMQ's response contained invalid JSON";
+                        } finally {
+                            if (reader != null)
+                                reader.close();
+                        }
+                    } else {
+                        msg = "Empty or non-JSON response";
                     }
+                    throw new HTTPException(status, msg);
                 } else {
-                    msg = "Empty or non-JSON response";
+                    String reason = response.getReasonPhrase();
+                    throw new HTTPException(status, reason != null ? reason : "HTTP " + status);
                 }
-                throw new HTTPException(status, msg);
-            } else {
-                throw new HTTPException(status, conn.getResponseMessage());
+            } finally {
+                response.close();
             }
         }
 
-        return new InputStreamReader(conn.getInputStream());
+        return new InputStreamReader(response.getBody(), "UTF-8");
     }
 
 }
@@ -0,0 +1,83 @@
+package io.iron.ironmq;
+
+import java.util.ArrayList;
+
+/**
+ * The IdempotencyTable class tells whether repeating a request is safe when it is unknown if the
+ * first attempt reached the server.
+ *
+ * GET, PUT, PATCH and DELETE requests are idempotent and POST requests are not, with these
+ * exceptions:
+ * <ul>
+ *     <li>{@code POST queues/*&#47;messages} (push) is not idempotent: a repeated push posts the messages twice.</li>
+ *     <li>{@code POST queues/*&#47;reservations}, {@code touch} and {@code release} are not idempotent.</li>
+ *     <li>{@code POST queues/*&#47;subscribers} is idempotent, since it adds or updates subscribers by name.</li>
+ * </ul>
+ * More rules can be added with {@link #set(String, String, boolean)}; later rules take precedence.
+ */
+public class IdempotencyTable {
+    private final ArrayList<Rule> rules = new ArrayList<Rule>();
+
+    private static class Rule {
+        final String method;
+        final String[] pattern;
+        final boolean idempotent;
+
+        Rule(String method, String pattern, boolean idempotent) {
+            this.method = method;
+            this.pattern = pattern.split("/");
+            this.idempotent = idempotent;
+        }
+
+        boolean matches(String method, String[] segments) {
+            if (!this.method.equals(method) || pattern.length != segments.length) {
+                return false;
+            }
+            for (int i = 0; i < pattern.length; i++) {
+                if (!pattern[i].equals("*") && !pattern[i].equals(segments[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public IdempotencyTable() {
+        set("POST", "queues/*/messages", false);
+        set("POST", "queues/*/reservations", false);
+        set("POST", "queues/*/messages/*/touch", false);
+        set("POST", "queues/*/messages/*/release", false);
+        set("POST", "queues/*/subscribers", true);
+    }
+
+    /**
+     * Declares whether requests to matching endpoints are idempotent.
+     *
+     * @param method The HTTP method, for example {@code POST}.
+     * @param endpoint The endpoint relative to the project. A {@code *} segment matches any one segment,
+     *                 for example {@code queues/*&#47;messages}.
+     * @param idempotent True if repeating the request is safe.
+     * @return This table.
+     */
+    public synchronized IdempotencyTable set(String method, String endpoint, boolean idempotent) {
+        rules.add(0, new Rule(method.toUpperCase(), endpoint, idempotent));
+        return this;
+    }
+
+    /**
+     * Returns true if repeating the specified request is safe.
+     *
+     * @param method The HTTP method as issued by the client, before any method override.
+     * @param endpoint The endpoint relative to the project. A query string is ignored.
+     */
+    public synchronized boolean isIdempotent(String method, String endpoint) {
+        int query = endpoint.indexOf('?');
+        String[] segments = (query < 0 ? endpoint : endpoint.substring(0, query)).split("/");
+        for (Rule rule : rules) {
+            if (rule.matches(method, segments)) {
+                return rule.idempotent;
+            }
+        }
+        return !method.equals("POST");
+    }
+}
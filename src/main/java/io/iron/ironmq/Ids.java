@@ -1,7 +1,7 @@
 package io.iron.ironmq;
 
 public class Ids {
-    private String[] ids;
+    String[] ids;
 
     protected Ids() {
     }
@@ -10,14 +10,48 @@ import java.net.HttpURLConnection;
 public class IronReader {
     Reader reader;
     HttpURLConnection connection;
+    TransportResponse response;
+    // The endpoint of a cloud group which sent the response, if the client has a group.
+    CloudGroup group;
+    Cloud cloud;
+    private boolean closed;
 
     protected IronReader(Reader reader, HttpURLConnection connection) {
         this.reader = reader;
         this.connection = connection;
     }
 
+    protected IronReader(Reader reader, TransportResponse response) {
+        this.reader = reader;
+        this.response = response;
+    }
+
+    /**
+     * Sends later calls concerning the messages to the endpoint which returned them.
+     */
+    void pin(Message... messages) {
+        if (group == null || messages == null) {
+            return;
+        }
+        for (Message message : messages) {
+            group.pin(message.getId(), cloud);
+        }
+    }
+
+    /**
+     * Frees the underlying connection. Responses received through a {@link Transport} are given
+     * back to the transport so the connection can be reused.
+     */
     public void close(){
+        if (closed) {
+            return;
+        }
+        closed = true;
         try {
+            if (response != null) {
+                response.close();
+                return;
+            }
             try {
                 reader.close();
             } catch (IOException e) {
@@ -0,0 +1,207 @@
+package io.iron.ironmq;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The JdkHttpTransport class sends requests through the JDK's {@link java.net.http.HttpClient}.
+ *
+ * HTTP/2 is preferred, so concurrent requests to the same endpoint are multiplexed over a single
+ * connection when the server supports it, and HTTP/1.1 keep-alive connections are pooled otherwise.
+ * This is the default transport of {@link Client}.
+ *
+ * The JDK client applies a single connection timeout to all of its connections. Unless the transport
+ * is given a timeout or a JDK client explicitly, it keeps one JDK client per connection timeout
+ * requested, so every request is connected within {@link TransportRequest#getConnectTimeoutMs()}.
+ */
+public class JdkHttpTransport implements Transport {
+    private static volatile JdkHttpTransport defaultTransport;
+
+    private final java.net.http.HttpClient http;
+    private final ConcurrentHashMap<Integer, java.net.http.HttpClient> clients =
+            new ConcurrentHashMap<Integer, java.net.http.HttpClient>();
+
+    /**
+     * Creates a transport preferring HTTP/2 which honors the connection timeout of each request.
+     */
+    public JdkHttpTransport() {
+        this.http = null;
+    }
+
+    /**
+     * Creates a transport preferring HTTP/2.
+     *
+     * @param connectTimeoutMs Connection timeout in milliseconds, 0 means no timeout. The JDK client
+     *                         applies it to every connection, so {@link TransportRequest#getConnectTimeoutMs()}
+     *                         is ignored.
+     */
+    public JdkHttpTransport(int connectTimeoutMs) {
+        this(newHttpClient(connectTimeoutMs));
+    }
+
+    /**
+     * Creates a transport on top of the specified JDK client.
+     */
+    public JdkHttpTransport(java.net.http.HttpClient http) {
+        if (http == null) {
+            throw new NullPointerException("HttpClient cannot be null");
+        }
+        this.http = http;
+    }
+
+    /**
+     * Returns the transport shared by all clients which were not given one explicitly.
+     */
+    public static JdkHttpTransport getDefault() {
+        if (defaultTransport == null) {
+            synchronized (JdkHttpTransport.class) {
+                if (defaultTransport == null) {
+                    defaultTransport = new JdkHttpTransport();
+                }
+            }
+        }
+        return defaultTransport;
+    }
+
+    private static java.net.http.HttpClient newHttpClient(int connectTimeoutMs) {
+        java.net.http.HttpClient.Builder builder = java.net.http.HttpClient.newBuilder()
+                .version(java.net.http.HttpClient.Version.HTTP_2)
+                .followRedirects(java.net.http.HttpClient.Redirect.NORMAL);
+        if (connectTimeoutMs > 0) {
+            builder.connectTimeout(Duration.ofMillis(connectTimeoutMs));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the underlying JDK client, or null if the transport keeps one per connection timeout.
+     */
+    public java.net.http.HttpClient getHttpClient() {
+        return http;
+    }
+
+    /**
+     * Returns the JDK client the specified request is sent through.
+     */
+    java.net.http.HttpClient clientFor(TransportRequest request) {
+        if (http != null) {
+            return http;
+        }
+        return clients.computeIfAbsent(Math.max(request.getConnectTimeoutMs(), 0), JdkHttpTransport::newHttpClient);
+    }
+
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        HttpRequest httpRequest = toHttpRequest(request);
+        try {
+            return new Response(clientFor(request).send(httpRequest, HttpResponse.BodyHandlers.ofInputStream()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + request.getUrl());
+        }
+    }
+
+    /**
+     * Sends the request on the JDK client's selector thread. The body is received as a byte array,
+     * so no thread is blocked while waiting for or reading the response.
+     */
+    @Override
+    public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        HttpRequest httpRequest;
+        try {
+            httpRequest = toHttpRequest(request);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return clientFor(request).sendAsync(httpRequest, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> (TransportResponse) new BufferedResponse(response));
+    }
+
+    HttpRequest toHttpRequest(TransportRequest request) throws IOException {
+        HttpRequest.Builder builder;
+        try {
+            builder = HttpRequest.newBuilder(request.getUrl().toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid URL " + request.getUrl(), e);
+        }
+        if (request.getReadTimeoutMs() > 0) {
+            builder.timeout(Duration.ofMillis(request.getReadTimeoutMs()));
+        }
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        byte[] body = request.getBody();
+        builder.method(request.getMethod(), body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(body));
+        return builder.build();
+    }
+
+    private static class BufferedResponse implements TransportResponse {
+        private final HttpResponse<byte[]> response;
+        private final InputStream body;
+
+        BufferedResponse(HttpResponse<byte[]> response) {
+            this.response = response;
+            this.body = new ByteArrayInputStream(response.body());
+        }
+
+        public int getStatus() {
+            return response.statusCode();
+        }
+
+        public String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        public InputStream getBody() {
+            return body;
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class Response implements TransportResponse {
+        private final HttpResponse<InputStream> response;
+
+        Response(HttpResponse<InputStream> response) {
+            this.response = response;
+        }
+
+        public int getStatus() {
+            return response.statusCode();
+        }
+
+        public String getHeader(String name) {
+            return response.headers().firstValue(name).orElse(null);
+        }
+
+        public InputStream getBody() {
+            return response.body();
+        }
+
+        public void close() {
+            InputStream body = response.body();
+            try {
+                // Reading up to the end keeps an HTTP/1.1 connection reusable.
+                body.transferTo(OutputStream.nullOutputStream());
+            } catch (IOException e) {
+            } finally {
+                try {
+                    body.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
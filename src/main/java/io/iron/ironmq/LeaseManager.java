@@ -0,0 +1,276 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The LeaseManager class keeps reservations of messages alive while they are being processed.
+ *
+ * Every registered message gets a {@link Lease}. Shortly before its reservation runs out the
+ * message is touched, which extends the reservation by the lease timeout and replaces the
+ * message's reservation id. Touches are sent through {@link AsyncQueue}, and their deadlines are
+ * kept in a hashed timer wheel served by a single thread, so one manager can renew tens of
+ * thousands of leases.
+ *
+ * Handlers are expected to end every lease: {@link Lease#delete()} when the message was
+ * processed, {@link Lease#release()} to put it back on the queue or {@link Lease#complete()} to
+ * just stop renewing. Closing a lease which was not ended releases the message, so a handler
+ * running in a try-with-resources block gives its message back when it throws:
+ *
+ * <pre>
+ * try (LeaseManager.Lease lease = leases.register(message)) {
+ *     process(message);
+ *     lease.delete();
+ * }
+ * </pre>
+ */
+public class LeaseManager implements Closeable {
+    public static final long DEFAULT_TICK_MS = 100;
+    private static final int wheelSize = 512;
+
+    private final AsyncQueue queue;
+    private final int timeout;
+    private final long tickMs;
+    private final long renewAheadMs;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayList<Lease>[] wheel = new ArrayList[wheelSize];
+    private final ConcurrentLinkedQueue<Lease> scheduled = new ConcurrentLinkedQueue<Lease>();
+    private final AtomicInteger active = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * The Lease class tracks the reservation of a single message.
+     */
+    public class Lease implements AutoCloseable {
+        private final Message message;
+        private long deadlineTick;
+        private long rounds;
+        private boolean ended;
+        private Throwable lostCause;
+        private CompletableFuture<?> pending = CompletableFuture.completedFuture(null);
+
+        Lease(Message message) {
+            this.message = message;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        /**
+         * Returns true if a touch failed, usually because the reservation had already run out.
+         * The message may then have been delivered to another consumer.
+         */
+        public synchronized boolean isLost() {
+            return lostCause != null;
+        }
+
+        /**
+         * Returns the error of the failed touch if the lease was lost, otherwise null.
+         */
+        public synchronized Throwable getLostCause() {
+            return lostCause;
+        }
+
+        /**
+         * Stops renewing without touching the message on the server.
+         */
+        public void complete() {
+            end();
+        }
+
+        /**
+         * Stops renewing and deletes the message. The delete is sent after a touch in flight,
+         * if any, has updated the reservation id.
+         */
+        public CompletableFuture<Void> delete() {
+            CompletableFuture<?> after = end();
+            return after.handle((ignored, error) -> null)
+                    .thenCompose(ignored -> queue.deleteMessage(message));
+        }
+
+        /**
+         * Stops renewing and releases the message back onto the queue. The release is sent after
+         * a touch in flight, if any, has updated the reservation id.
+         */
+        public CompletableFuture<Void> release() {
+            CompletableFuture<?> after = end();
+            return after.handle((ignored, error) -> null)
+                    .thenCompose(ignored -> queue.releaseMessage(message));
+        }
+
+        /**
+         * Releases the message unless the lease has already been ended.
+         */
+        public void close() {
+            boolean wasEnded;
+            synchronized (this) {
+                wasEnded = ended;
+            }
+            if (!wasEnded) {
+                release();
+            }
+        }
+
+        private synchronized CompletableFuture<?> end() {
+            if (!ended) {
+                ended = true;
+                active.decrementAndGet();
+            }
+            return pending;
+        }
+
+        private void renew() {
+            CompletableFuture<MessageOptions> touch;
+            synchronized (this) {
+                if (ended || !running) {
+                    return;
+                }
+                touch = queue.touchMessage(message, (long) timeout);
+                pending = touch;
+            }
+            touch.whenComplete((options, error) -> {
+                synchronized (Lease.this) {
+                    if (error != null) {
+                        lostCause = error instanceof CompletionException && error.getCause() != null
+                                ? error.getCause() : error;
+                        if (!ended) {
+                            ended = true;
+                            active.decrementAndGet();
+                        }
+                        return;
+                    }
+                    if (ended) {
+                        return;
+                    }
+                }
+                schedule(this, TimeUnit.SECONDS.toMillis(timeout) - renewAheadMs);
+            });
+        }
+    }
+
+    /**
+     * Creates a manager renewing reservations by 60 seconds.
+     *
+     * @param queue The queue the messages were reserved from.
+     */
+    public LeaseManager(Queue queue) {
+        this(queue, 60, DEFAULT_TICK_MS);
+    }
+
+    /**
+     * @param queue The queue the messages were reserved from.
+     * @param timeout Reservation timeout in seconds the messages were reserved with. Every touch
+     *                extends the reservation by the same amount.
+     * @param tickMs Resolution of the timer wheel in milliseconds.
+     */
+    public LeaseManager(Queue queue, int timeout, long tickMs) {
+        if (timeout < 1) {
+            throw new IllegalArgumentException("timeout should be greater than 0");
+        }
+        if (tickMs < 1) {
+            throw new IllegalArgumentException("tickMs should be greater than 0");
+        }
+        this.queue = queue.async();
+        this.timeout = timeout;
+        this.tickMs = tickMs;
+        // Touch when a third of the reservation is left, but at least two ticks ahead.
+        this.renewAheadMs = Math.min(TimeUnit.SECONDS.toMillis(timeout) / 2,
+                Math.max(TimeUnit.SECONDS.toMillis(timeout) / 3, 2 * tickMs));
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new ArrayList<Lease>();
+        }
+        this.worker = new Thread(this::run, "ironmq-lease-manager-" + queue.getName());
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Starts renewing the reservation of a message which has just been reserved.
+     *
+     * @param message A reserved message.
+     * @throws IllegalStateException If the manager has been closed.
+     */
+    public Lease register(Message message) {
+        if (!running) {
+            throw new IllegalStateException("LeaseManager is closed");
+        }
+        Lease lease = new Lease(message);
+        active.incrementAndGet();
+        schedule(lease, TimeUnit.SECONDS.toMillis(timeout) - renewAheadMs);
+        return lease;
+    }
+
+    /**
+     * Returns the number of leases being renewed.
+     */
+    public int getActiveLeases() {
+        return active.get();
+    }
+
+    /**
+     * Stops renewing all leases. Reservations which are not ended by their handlers run out
+     * after the timeout.
+     */
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void schedule(Lease lease, long delayMs) {
+        long ticks = Math.max(1, delayMs / tickMs);
+        lease.deadlineTick = currentTick() + ticks;
+        scheduled.add(lease);
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startNanos) / TimeUnit.MILLISECONDS.toNanos(tickMs);
+    }
+
+    private void run() {
+        while (running) {
+            long next = tick + 1;
+            long sleepNanos = startNanos + next * TimeUnit.MILLISECONDS.toNanos(tickMs) - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            tick = next;
+
+            Lease lease;
+            while ((lease = scheduled.poll()) != null) {
+                long deadline = Math.max(lease.deadlineTick, tick);
+                lease.rounds = (deadline - tick) / wheelSize;
+                wheel[(int) (deadline % wheelSize)].add(lease);
+            }
+
+            ArrayList<Lease> bucket = wheel[(int) (tick % wheelSize)];
+            Iterator<Lease> it = bucket.iterator();
+            while (it.hasNext()) {
+                Lease candidate = it.next();
+                if (candidate.rounds > 0) {
+                    candidate.rounds--;
+                    continue;
+                }
+                it.remove();
+                candidate.renew();
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package io.iron.ironmq;
 
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 import com.google.gson.annotations.SerializedName;
 
@@ -8,12 +9,14 @@ import com.google.gson.annotations.SerializedName;
  * The Message class represents a message retrieved from an IronMQ queue.
  */
 public class Message extends MessageOptions implements Serializable {
-    private String body;
+    String body;
     // Long, not long, so that it's nullable. Gson doesn't serialize null,
     // so we can use the default on the server and not have to know about
     // it.
-    @SerializedName("expires_in") private Long expiresIn;
-    @SerializedName("reserved_count") private long reservedCount;
+    @SerializedName("expires_in") Long expiresIn;
+    @SerializedName("reserved_count") long reservedCount;
+    // UTF-8 encoding of the body, computed on first use.
+    private transient byte[] bodyBytes;
 
     public Message() {}
 
@@ -27,7 +30,21 @@ public class Message extends MessageOptions implements Serializable {
     *
     * @param body The new body contents.
     */
-    public void setBody(String body) { this.body = body; }
+    public void setBody(String body) {
+        this.body = body;
+        this.bodyBytes = null;
+    }
+
+    /**
+    * Returns the Message's body contents encoded as UTF-8. The encoding is computed once,
+    * so the returned array is shared and must not be modified.
+    */
+    public byte[] getBodyBytes() {
+        if (bodyBytes == null && body != null) {
+            bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        }
+        return bodyBytes;
+    }
 
     /**
      * Returns the number of times the message has been reserved.
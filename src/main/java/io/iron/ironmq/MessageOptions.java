@@ -10,7 +10,7 @@ import java.io.Serializable;
 public class MessageOptions implements Serializable {
     protected String id;
     protected Long delay;
-    private Long timeout;
+    Long timeout;
 
     @SerializedName("reservation_id")
     protected String reservationId;
@@ -0,0 +1,105 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The MessageStream class decodes the messages of a reserve or peek response one at a time,
+ * while the rest of the response is still being received.
+ *
+ * Only the message returned by the last {@link #next()} call is held in memory. The stream has
+ * to be closed to free the connection; closing it before the end discards the remaining
+ * messages, which for reserved messages means they stay reserved until their timeout.
+ *
+ * Read errors are reported as {@link com.google.gson.JsonIOException}s and malformed responses
+ * as {@link com.google.gson.JsonSyntaxException}s.
+ */
+public class MessageStream implements Iterator<Message>, Closeable {
+    private final IronReader response;
+    private final JsonReader json;
+    private final TypeAdapter<Message> adapter;
+    private boolean inArray;
+    private boolean finished;
+
+    MessageStream(IronReader response, Gson gson) {
+        this.response = response;
+        this.json = new JsonReader(response.reader);
+        this.adapter = gson.getAdapter(Message.class);
+    }
+
+    /**
+     * Returns true if the response contains another message.
+     */
+    public boolean hasNext() {
+        if (finished) {
+            return false;
+        }
+        try {
+            if (!inArray) {
+                if (!seekMessages()) {
+                    finish();
+                    return false;
+                }
+                inArray = true;
+            }
+            if (json.hasNext()) {
+                return true;
+            }
+            json.endArray();
+            finish();
+            return false;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Decodes and returns the next message.
+     */
+    public Message next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Message message = adapter.read(json);
+            response.pin(message);
+            return message;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        }
+    }
+
+    /**
+     * Frees the connection.
+     */
+    public void close() {
+        finished = true;
+        response.close();
+    }
+
+    private boolean seekMessages() throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            String name = json.nextName();
+            if (name.equals("messages") && json.peek() == JsonToken.BEGIN_ARRAY) {
+                json.beginArray();
+                return true;
+            }
+            json.skipValue();
+        }
+        return false;
+    }
+
+    private void finish() {
+        finished = true;
+        response.close();
+    }
+}
@@ -4,7 +4,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 public class Messages {
-    private ArrayList<Message> messages;
+    ArrayList<Message> messages;
 
     public Messages(Message... msgs) {
         messages = new ArrayList<Message>(Arrays.asList(msgs));
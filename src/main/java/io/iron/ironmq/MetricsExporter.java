@@ -0,0 +1,14 @@
+package io.iron.ironmq;
+
+/**
+ * The MetricsExporter interface publishes the counters of a {@link ClientMetrics}, e.g. to a
+ * monitoring system. Exporters are called periodically by {@link ClientMetrics#exportEvery(MetricsExporter, long)}
+ * on a background thread; they should read what they need and return quickly.
+ */
+public interface MetricsExporter {
+    /**
+     * Publishes the current counters. Counters are cumulative; exporters reporting rates have to
+     * keep the previous values themselves.
+     */
+    void export(ClientMetrics metrics);
+}
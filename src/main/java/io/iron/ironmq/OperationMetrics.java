@@ -0,0 +1,148 @@
+package io.iron.ironmq;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The OperationMetrics class holds the counters of a single kind of request, such as
+ * {@code POST queues/{name}/reservations}. All counters are cumulative.
+ */
+public class OperationMetrics {
+    final private String name;
+    final private LatencyHistogram latency = new LatencyHistogram();
+    final private LongAdder requests = new LongAdder();
+    final private LongAdder failures = new LongAdder();
+    final private LongAdder attempts = new LongAdder();
+    final private LongAdder retries = new LongAdder();
+    final private LongAdder bytesSent = new LongAdder();
+    final private LongAdder bytesReceived = new LongAdder();
+    final private LongAdder bytesSentUncompressed = new LongAdder();
+    final private LongAdder bytesReceivedUncompressed = new LongAdder();
+    final private AtomicInteger inFlight = new AtomicInteger();
+
+    OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    void requestStarted() {
+        requests.increment();
+        inFlight.incrementAndGet();
+    }
+
+    void requestFinished(boolean failed) {
+        inFlight.decrementAndGet();
+        if (failed) {
+            failures.increment();
+        }
+    }
+
+    void attemptCompleted(long durationNanos, long requestBytes, long uncompressedRequestBytes) {
+        attempts.increment();
+        latency.record(durationNanos);
+        bytesSent.add(requestBytes);
+        bytesSentUncompressed.add(uncompressedRequestBytes);
+    }
+
+    void retried() {
+        retries.increment();
+    }
+
+    void received(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    void decoded(long bytes) {
+        bytesReceivedUncompressed.add(bytes);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the latencies of single attempts, measured until the response headers arrived.
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of requests, each of which may have taken several attempts.
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of requests which failed after their last attempt.
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * Returns the number of attempts sent, retries included.
+     */
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * Returns the number of request body bytes sent, retries included. Compressed bodies count
+     * with their compressed size.
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Returns the number of request body bytes sent, counting compressed bodies with their size
+     * before compression.
+     */
+    public long getBytesSentUncompressed() {
+        return bytesSentUncompressed.sum();
+    }
+
+    /**
+     * Returns the number of response body bytes read, as received from the server.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    /**
+     * Returns the number of response body bytes read after decompression.
+     */
+    public long getBytesReceivedUncompressed() {
+        return bytesReceivedUncompressed.sum();
+    }
+
+    /**
+     * Returns how many times larger request bodies were before compression, or 1 if nothing was sent.
+     */
+    public double getRequestCompressionRatio() {
+        return ratio(getBytesSentUncompressed(), getBytesSent());
+    }
+
+    /**
+     * Returns how many times larger response bodies were after decompression, or 1 if nothing was read.
+     */
+    public double getResponseCompressionRatio() {
+        return ratio(getBytesReceivedUncompressed(), getBytesReceived());
+    }
+
+    private static double ratio(long uncompressed, long compressed) {
+        return compressed == 0 ? 1 : (double) uncompressed / compressed;
+    }
+
+    /**
+     * Returns the number of requests started but not finished yet.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,408 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The PrefetchingConsumer class keeps a bounded local buffer of reserved messages so that
+ * consumer threads do not wait for a round-trip per message.
+ *
+ * A background thread refills the buffer with long polling reservations. The number of messages
+ * reserved per request, and held in the buffer, follows the rate at which the buffer is drained,
+ * so messages are not reserved long before anyone can process them.
+ *
+ * Every buffered message carries the deadline of its reservation, measured from the moment the
+ * reservation was requested. Messages whose deadline has passed, or is closer than the configured
+ * margin, are dropped instead of being handed out and reappear on the queue once their
+ * reservation runs out.
+ */
+public class PrefetchingConsumer implements Closeable {
+    public static final int DEFAULT_CAPACITY = 100;
+    public static final int DEFAULT_TIMEOUT = 60;
+    public static final int DEFAULT_WAIT = 10;
+    public static final long DEFAULT_EXPIRY_MARGIN_MS = 1000;
+
+    private static final long maxBackoffMs = 30000;
+    // Weight of the latest sample in the drain rate and fetch latency averages.
+    private static final double smoothing = 0.3;
+
+    private final Queue queue;
+    private final int capacity;
+    private final int timeout;
+    private final int wait;
+    private volatile long expiryMarginMs = DEFAULT_EXPIRY_MARGIN_MS;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Entry> buffer = new ArrayDeque<Entry>();
+
+    private long taken;
+    private long expired;
+    private double drainRate;
+    private double fetchSeconds;
+
+    private volatile boolean running;
+    // Whether a reservation request is in flight, and whether close() was called. Guarded by the lock.
+    private boolean reserving;
+    private boolean closed;
+    private volatile IOException lastError;
+    private Thread fetcher;
+
+    private static class Entry {
+        final Message message;
+        final long deadline;
+
+        Entry(Message message, long deadline) {
+            this.message = message;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * Creates a consumer buffering up to 100 messages reserved for 60 seconds, long polling
+     * for up to 10 seconds.
+     *
+     * @param queue The queue to reserve messages from.
+     */
+    public PrefetchingConsumer(Queue queue) {
+        this(queue, DEFAULT_CAPACITY, DEFAULT_TIMEOUT, DEFAULT_WAIT);
+    }
+
+    /**
+     * @param queue The queue to reserve messages from.
+     * @param capacity Maximum number of reserved messages held in the buffer.
+     * @param timeout Reservation timeout in seconds.
+     * @param wait Time to long poll for messages, in seconds. Max is 30 seconds.
+     */
+    public PrefetchingConsumer(Queue queue, int capacity, int timeout, int wait) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity should be greater than 0");
+        }
+        if (timeout < 1) {
+            throw new IllegalArgumentException("timeout should be greater than 0");
+        }
+        if (wait < 0 || wait > 30) {
+            throw new IllegalArgumentException("wait has to be within 0..30");
+        }
+        this.queue = queue;
+        this.capacity = capacity;
+        this.timeout = timeout;
+        this.wait = wait;
+    }
+
+    /**
+     * Starts the background thread filling the buffer.
+     * The network is not accessed before this call.
+     *
+     * @throws IllegalStateException If the consumer has been closed.
+     */
+    public synchronized void start() {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("PrefetchingConsumer is closed");
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (running) {
+            return;
+        }
+        running = true;
+        fetcher = new Thread(this::fetchLoop, "ironmq-prefetch-" + queue.getName());
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    /**
+     * Returns the next reserved message, waiting until one is available.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @throws IllegalStateException If the consumer is closed, also while waiting.
+     */
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Message message = pollUnexpired();
+                if (message != null) {
+                    return message;
+                }
+                if (closed) {
+                    throw new IllegalStateException("PrefetchingConsumer is closed");
+                }
+                notEmpty.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next reserved message, waiting up to the specified time for one to become available.
+     *
+     * @return The message, or null if none became available in time.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @throws IllegalStateException If the consumer is closed, also while waiting.
+     */
+    public Message poll(long time, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(time);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                Message message = pollUnexpired();
+                if (message != null) {
+                    return message;
+                }
+                if (closed) {
+                    throw new IllegalStateException("PrefetchingConsumer is closed");
+                }
+                if (remaining <= 0) {
+                    return null;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held.
+    private Message pollUnexpired() {
+        long now = System.nanoTime();
+        long margin = TimeUnit.MILLISECONDS.toNanos(expiryMarginMs);
+        Entry entry;
+        while ((entry = buffer.pollFirst()) != null) {
+            notFull.signal();
+            if (entry.deadline - now > margin) {
+                taken++;
+                return entry.message;
+            }
+            expired++;
+        }
+        return null;
+    }
+
+    private void fetchLoop() {
+        long backoffMs = 0;
+        long lastSample = System.nanoTime();
+        long lastTaken = 0;
+        while (running) {
+            int n;
+            lock.lock();
+            try {
+                while (true) {
+                    if (!running) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    double elapsed = (now - lastSample) / 1e9;
+                    if (elapsed >= 0.1) {
+                        drainRate = smoothing * ((taken - lastTaken) / elapsed) + (1 - smoothing) * drainRate;
+                        lastSample = now;
+                        lastTaken = taken;
+                    }
+                    n = nextBatchSize();
+                    if (n > 0) {
+                        reserving = true;
+                        break;
+                    }
+                    notFull.await(100, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            Messages messages;
+            try {
+                messages = queue.reserve(n, timeout, wait);
+                lastError = null;
+                backoffMs = 0;
+            } catch (IOException e) {
+                lastError = e;
+                lock.lock();
+                try {
+                    reserving = false;
+                    if (!running) {
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                backoffMs = backoffMs == 0 ? 100 : Math.min(backoffMs * 2, maxBackoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            long end = System.nanoTime();
+            long deadline = start + TimeUnit.SECONDS.toNanos(timeout);
+
+            boolean closing;
+            lock.lock();
+            try {
+                reserving = false;
+                closing = closed;
+                if (!closing) {
+                    // Long polls end early when messages arrive, so only full responses measure latency.
+                    if (messages.getSize() > 0 || wait == 0) {
+                        fetchSeconds = smoothing * ((end - start) / 1e9) + (1 - smoothing) * fetchSeconds;
+                    }
+                    for (Message message : messages.getMessages()) {
+                        buffer.addLast(new Entry(message, deadline));
+                    }
+                    if (messages.getSize() > 0) {
+                        notEmpty.signalAll();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (closing) {
+                // The long poll returned after close(); hand its messages back right away.
+                try {
+                    releaseAll(Arrays.asList(messages.getMessages()));
+                } catch (IOException e) {
+                    lastError = e;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reserves enough messages to cover the drain rate for twice the fetch latency, but never holds
+     * more than can be handed out before the reservations run out. Returns 0 when the buffer is
+     * full enough. Must be called with the lock held.
+     */
+    private int nextBatchSize() {
+        int free = capacity - buffer.size();
+        int budget = (int) Math.max(1, Math.floor(drainRate * timeout)) - buffer.size();
+        int perFetch = (int) Math.max(1, Math.ceil(drainRate * fetchSeconds * 2));
+        int n = Math.min(Math.min(perFetch, budget), Math.min(free, 100));
+        return Math.max(0, n);
+    }
+
+    /**
+     * Stops the background thread and releases the buffered messages back to the queue, so they
+     * become available to other consumers immediately. Threads waiting in {@link #take()} or
+     * {@link #poll(long, TimeUnit)} are woken up.
+     *
+     * A reservation in flight is not aborted, since the server would still reserve its messages:
+     * close() waits for the long poll to return, up to the wait time plus the client's read
+     * timeout, and the messages it brings are released as well.
+     */
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            thread = fetcher;
+            fetcher = null;
+            lock.lock();
+            try {
+                closed = true;
+                running = false;
+                if (thread != null && !reserving) {
+                    thread.interrupt();
+                }
+                notEmpty.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (thread != null) {
+            try {
+                long joinMs = TimeUnit.SECONDS.toMillis(wait) + Math.max(0, queue.getClient().getReadTimeOutMs());
+                // join(0) would wait forever.
+                thread.join(Math.max(1, joinMs));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        ArrayList<Message> pending = new ArrayList<Message>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            Entry entry;
+            while ((entry = buffer.pollFirst()) != null) {
+                if (entry.deadline > now) {
+                    pending.add(entry.message);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        releaseAll(pending);
+    }
+
+    private void releaseAll(List<Message> messages) throws IOException {
+        IOException error = null;
+        for (Message message : messages) {
+            try {
+                queue.releaseMessage(message);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Returns the number of messages in the buffer.
+     */
+    public int getBufferedMessages() {
+        lock.lock();
+        try {
+            return buffer.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped because their reservation was about to expire.
+     */
+    public long getExpiredMessages() {
+        lock.lock();
+        try {
+            return expired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the error of the last reservation attempt, or null if it succeeded.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    public long getExpiryMarginMs() {
+        return expiryMarginMs;
+    }
+
+    /**
+     * Sets how much reservation time a message must have left to be handed out.
+     *
+     * @param expiryMarginMs Margin in milliseconds, 1000 by default.
+     */
+    public void setExpiryMarginMs(long expiryMarginMs) {
+        this.expiryMarginMs = expiryMarginMs;
+    }
+}
@@ -0,0 +1,554 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The PushSpool class keeps pushed messages on local disk until IronMQ has accepted them, so
+ * producers can carry on while the service or the network is down.
+ *
+ * {@link #push(String, long)} appends the message to a log of memory-mapped segment files and
+ * returns without accessing the network. A background thread replays the log in order, in bulk
+ * pushes of up to 100 messages, and retries with exponential backoff while pushes fail. After
+ * every push the position up to which the log has been replayed is checkpointed, and segments
+ * behind it are deleted.
+ *
+ * Appended messages survive a crash of the process; {@link #flush()} makes them survive a crash
+ * of the machine too. Every record carries a CRC32, so a record torn by a crash is detected and
+ * dropped when the spool is opened again. Since the checkpoint is written after a push succeeded,
+ * the last batch before a crash may be pushed again after it.
+ *
+ * The log takes at most {@code maxBytes} of disk; pushes fail while it is full. A batch the
+ * service rejects as malformed or too large (400 or 413), which repeating cannot fix, is dropped
+ * and counted. Any other error, including a revoked token or a missing queue, keeps the batch and
+ * is retried with backoff until it is fixed.
+ * Only one spool can use a directory at a time.
+ *
+ * <pre>
+ * PushSpool spool = new PushSpool(queue, new File("/var/spool/orders"));
+ * spool.push("Hello, IronMQ!", 0);
+ * ...
+ * spool.close(); // the messages not pushed yet are replayed when the spool is opened again
+ * </pre>
+ */
+public class PushSpool implements Closeable {
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    // A record is an int size including the header, the CRC32 of the rest, a long delay and the
+    // UTF-8 body. The size is written last, so a record without one was never completed.
+    private static final int headerBytes = 16;
+    private static final int maxBatchSize = 100;
+    private static final int maxBatchBytes = BatchingProducer.DEFAULT_MAX_BATCH_BYTES;
+    private static final long maxBackoffMs = 30000;
+    private static final String segmentSuffix = ".segment";
+    private static final String checkpointName = "checkpoint";
+
+    static private class Segment {
+        final long sequence;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        Segment(long sequence, Path path, int defaultSize) throws IOException {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            long size = channel.size() > 0 ? Math.min(channel.size(), Integer.MAX_VALUE) : defaultSize;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // The mapping stays valid; nothing was lost.
+            }
+        }
+    }
+
+    static private class Batch {
+        final ArrayList<Message> messages = new ArrayList<Message>();
+        long sequence;
+        int position;
+    }
+
+    private final Queue queue;
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+    private long mappedBytes;
+    private Segment writeSegment;
+    private int writePosition;
+    // Position of the first record not pushed yet.
+    private long readSequence;
+    private int readPosition;
+    private long pendingMessages;
+    private boolean closed;
+
+    private final Thread drainer;
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private volatile IOException lastError;
+
+    /**
+     * Opens a spool of up to 1 GiB in 16 MiB segments, and starts replaying what it holds.
+     *
+     * @param queue The queue to push to.
+     * @param directory The directory of the log. It is created if it does not exist.
+     * @throws IOException If the log cannot be opened or another spool is using it.
+     */
+    public PushSpool(Queue queue, File directory) throws IOException {
+        this(queue, directory, DEFAULT_SEGMENT_BYTES, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param queue The queue to push to.
+     * @param directory The directory of the log. It is created if it does not exist.
+     * @param segmentBytes Size of a segment file. A message has to fit into one segment.
+     * @param maxBytes Maximum size of all segment files together.
+     * @throws IOException If the log cannot be opened or another spool is using it.
+     */
+    public PushSpool(Queue queue, File directory, int segmentBytes, long maxBytes) throws IOException {
+        if (segmentBytes <= headerBytes) {
+            throw new IllegalArgumentException("segmentBytes should be greater than " + headerBytes);
+        }
+        if (maxBytes < segmentBytes) {
+            throw new IllegalArgumentException("maxBytes should not be less than segmentBytes");
+        }
+        this.queue = queue;
+        this.directory = directory.toPath();
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+
+        Files.createDirectories(this.directory);
+        lockChannel = FileChannel.open(this.directory.resolve("lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            lockChannel.close();
+            throw new IOException("Push spool directory is in use: " + directory);
+        }
+        directoryLock = acquired;
+        try {
+            recover();
+        } catch (IOException e) {
+            closeFiles();
+            throw e;
+        }
+
+        drainer = new Thread(this::drainLoop, "ironmq-push-spool-" + queue.getName());
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private void recover() throws IOException {
+        long checkpointSequence = -1;
+        int checkpointPosition = 0;
+        Path checkpoint = directory.resolve(checkpointName);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            if (data.remaining() == 16) {
+                CRC32 crc = new CRC32();
+                crc.update(data.array(), 0, 12);
+                if ((int) crc.getValue() == data.getInt(12)) {
+                    checkpointSequence = data.getLong(0);
+                    checkpointPosition = data.getInt(8);
+                }
+            }
+        }
+
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + segmentSuffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long sequence;
+                try {
+                    sequence = Long.parseLong(name.substring(0, name.length() - segmentSuffix.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (sequence < checkpointSequence) {
+                    // Replayed before the last checkpoint, and not deleted before a crash.
+                    Files.delete(file);
+                } else {
+                    Segment segment = new Segment(sequence, file, segmentBytes);
+                    segments.put(sequence, segment);
+                    mappedBytes += segment.buffer.capacity();
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            openSegment(Math.max(checkpointSequence, 0));
+            checkpointPosition = 0;
+        }
+        if (segments.containsKey(checkpointSequence)) {
+            readSequence = checkpointSequence;
+            readPosition = checkpointPosition;
+        } else {
+            readSequence = segments.firstKey();
+            readPosition = 0;
+        }
+
+        for (Segment segment : segments.tailMap(readSequence).values()) {
+            int position = segment.sequence == readSequence ? readPosition : 0;
+            int size;
+            while ((size = recordSize(segment.buffer, position)) > 0) {
+                pendingMessages++;
+                position += size;
+            }
+            writeSegment = segment;
+            writePosition = position;
+        }
+        // Clear what a torn record left behind, so it cannot be mistaken for a record later.
+        for (int i = writePosition; i < writeSegment.buffer.capacity(); i++) {
+            writeSegment.buffer.put(i, (byte) 0);
+        }
+    }
+
+    // Must be called with the lock held, or before the drainer has started.
+    private void openSegment(long sequence) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", sequence, segmentSuffix));
+        Segment segment = new Segment(sequence, path, segmentBytes);
+        segments.put(sequence, segment);
+        mappedBytes += segment.buffer.capacity();
+        writeSegment = segment;
+        writePosition = 0;
+    }
+
+    // Returns the size of the complete record at the position, or 0 if there is none.
+    private static int recordSize(MappedByteBuffer buffer, int position) {
+        if (position > buffer.capacity() - headerBytes) {
+            return 0;
+        }
+        int size = buffer.getInt(position);
+        if (size < headerBytes || size > buffer.capacity() - position) {
+            return 0;
+        }
+        ByteBuffer content = buffer.duplicate();
+        content.limit(position + size).position(position + 8);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue() == buffer.getInt(position + 4) ? size : 0;
+    }
+
+    /**
+     * Appends a message to the log, to be pushed without delay.
+     *
+     * @param body The message's body.
+     * @throws IOException If the log is full or cannot be written.
+     * @throws IllegalStateException If the spool has been closed.
+     */
+    public void push(String body) throws IOException {
+        push(body, 0);
+    }
+
+    /**
+     * Appends a message to the log. The message is pushed in the background.
+     *
+     * @param body The message's body.
+     * @param delay The message's delay in seconds.
+     * @throws IOException If the log is full or cannot be written.
+     * @throws IllegalStateException If the spool has been closed.
+     */
+    public void push(String body, long delay) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > segmentBytes - headerBytes) {
+            throw new IllegalArgumentException("body does not fit into a segment of " + segmentBytes + " bytes");
+        }
+        int size = headerBytes + bytes.length;
+        ByteBuffer delayBytes = ByteBuffer.allocate(8).putLong(0, delay);
+        CRC32 crc = new CRC32();
+        crc.update(delayBytes.array());
+        crc.update(bytes);
+
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("PushSpool is closed");
+            }
+            if (size > writeSegment.buffer.capacity() - writePosition) {
+                if (mappedBytes + segmentBytes > maxBytes) {
+                    throw new IOException("Push spool is full: " + pendingMessages + " messages are waiting");
+                }
+                writeSegment.buffer.force();
+                openSegment(writeSegment.sequence + 1);
+            }
+            MappedByteBuffer buffer = writeSegment.buffer;
+            buffer.putLong(writePosition + 8, delay);
+            buffer.position(writePosition + headerBytes);
+            buffer.put(bytes);
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            buffer.putInt(writePosition, size);
+            writePosition += size;
+            pendingMessages++;
+            changed.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the appended messages through to the disk, so they survive a crash of the machine.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            if (!closed) {
+                writeSegment.buffer.force();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainLoop() {
+        long backoffMs = 0;
+        while (true) {
+            Batch batch;
+            lock.lock();
+            try {
+                while ((batch = nextBatch()) == null && !closed) {
+                    changed.await();
+                }
+                if (closed) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                queue.pushMessages(batch.messages);
+                replayed.add(batch.messages.size());
+                lastError = null;
+                backoffMs = 0;
+            } catch (HTTPException e) {
+                // Only the payload itself can be at fault for these; anything else may be fixed later.
+                int status = e.getStatusCode();
+                if (status != 400 && status != 413) {
+                    backoffMs = backoff(backoffMs, e);
+                    if (!pause(backoffMs)) {
+                        return;
+                    }
+                    continue;
+                }
+                dropped.add(batch.messages.size());
+                lastError = e;
+            } catch (IOException e) {
+                backoffMs = backoff(backoffMs, e);
+                if (!pause(backoffMs)) {
+                    return;
+                }
+                continue;
+            }
+            commit(batch);
+        }
+    }
+
+    private long backoff(long backoffMs, IOException error) {
+        lastError = error;
+        return backoffMs == 0 ? 100 : Math.min(backoffMs * 2, maxBackoffMs);
+    }
+
+    // Waits until the backoff is over. Returns false if the spool was closed meanwhile.
+    private boolean pause(long backoffMs) {
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(backoffMs);
+            while (!closed && remaining > 0) {
+                remaining = changed.awaitNanos(remaining);
+            }
+            return !closed;
+        } catch (InterruptedException e) {
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held. Returns null if every record has been pushed.
+    private Batch nextBatch() {
+        Batch batch = new Batch();
+        long sequence = readSequence;
+        int position = readPosition;
+        int bytes = 0;
+        while (batch.messages.size() < maxBatchSize) {
+            Segment segment = segments.get(sequence);
+            int size = segment == writeSegment && position >= writePosition ? 0 : recordSize(segment.buffer, position);
+            if (size == 0) {
+                if (segment == writeSegment) {
+                    break;
+                }
+                // The rest of a full segment is unused.
+                sequence = segments.higherKey(sequence);
+                position = 0;
+                continue;
+            }
+            if (!batch.messages.isEmpty() && bytes + size > maxBatchBytes) {
+                break;
+            }
+            byte[] body = new byte[size - headerBytes];
+            ByteBuffer content = segment.buffer.duplicate();
+            content.position(position + headerBytes);
+            content.get(body);
+            Message message = new Message();
+            message.setBody(new String(body, StandardCharsets.UTF_8));
+            message.setDelay(segment.buffer.getLong(position + 8));
+            batch.messages.add(message);
+            bytes += size;
+            position += size;
+        }
+        if (batch.messages.isEmpty()) {
+            return null;
+        }
+        batch.sequence = sequence;
+        batch.position = position;
+        return batch;
+    }
+
+    private void commit(Batch batch) {
+        ArrayList<Segment> replayedSegments = new ArrayList<Segment>();
+        lock.lock();
+        try {
+            readSequence = batch.sequence;
+            readPosition = batch.position;
+            pendingMessages -= batch.messages.size();
+            while (segments.firstKey() < readSequence) {
+                Segment segment = segments.pollFirstEntry().getValue();
+                mappedBytes -= segment.buffer.capacity();
+                replayedSegments.add(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writeCheckpoint(batch.sequence, batch.position);
+            for (Segment segment : replayedSegments) {
+                segment.close();
+                Files.deleteIfExists(segment.path);
+            }
+        } catch (IOException e) {
+            // The next checkpoint covers this one; at worst the batch is pushed again after a crash.
+            lastError = e;
+        }
+    }
+
+    private void writeCheckpoint(long sequence, int position) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(16).putLong(0, sequence).putInt(8, position);
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, 12);
+        data.putInt(12, (int) crc.getValue());
+
+        Path temporary = directory.resolve(checkpointName + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, directory.resolve(checkpointName), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Stops replaying and closes the log. A push in progress is finished first. The messages not
+     * pushed yet stay in the log and are replayed when the directory is opened again.
+     */
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSegment.buffer.force();
+        closeFiles();
+    }
+
+    private void closeFiles() throws IOException {
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            entry.getValue().close();
+        }
+        directoryLock.release();
+        lockChannel.close();
+    }
+
+    /**
+     * Returns the number of messages in the log which have not been pushed yet.
+     */
+    public long getPendingMessages() {
+        lock.lock();
+        try {
+            return pendingMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages pushed from the log since it was opened.
+     */
+    public long getReplayedMessages() {
+        return replayed.sum();
+    }
+
+    /**
+     * Returns the number of messages dropped because the service rejected them as malformed or too large.
+     */
+    public long getDroppedMessages() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the error of the last failed push, or null if it succeeded.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+}
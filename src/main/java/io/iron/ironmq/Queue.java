@@ -2,7 +2,9 @@ package io.iron.ironmq;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Map;
 
 import com.google.gson.Gson;
 
@@ -13,7 +15,7 @@ public class Queue {
     final private Client client;
     final private String name;
 
-    static final private Gson gson = new Gson();
+    static final private Gson gson = Codecs.gson();
 
     public Queue(Client client, String name) {
         if (name == null)
@@ -22,6 +24,10 @@ public class Queue {
         this.name = name;
     }
 
+    Client getClient() {
+        return client;
+    }
+
     /**
      * Retrieves a Message from the queue and reserves it. If there are no items on the queue, an
      * EmptyQueueException is thrown.
@@ -125,9 +131,47 @@ public class Queue {
         IronReader reader = client.post(url, gson.toJson(payload));
         Messages messages = gson.fromJson(reader.reader, Messages.class);
         reader.close();
+        if (messages != null) {
+            reader.pin(messages.getMessages());
+        }
         return messages;
     }
 
+    /**
+     * Reserves messages like {@link #reserve(int, int, int)}, but decodes them one by one while the
+     * response is still being received. The returned stream has to be closed.
+     *
+     * @param numberOfMessages The number of messages to receive. Max. is 100.
+     * @param timeout timeout in seconds.
+     * @param wait Time to long poll for messages, in seconds. Max is 30 seconds. Default 0.
+     * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws java.io.IOException If there is an error accessing the IronMQ server.
+     */
+    public MessageStream reserveStream(int numberOfMessages, int timeout, int wait) throws IOException {
+        if (numberOfMessages < 1 || numberOfMessages > 100) {
+            throw new IllegalArgumentException("numberOfMessages has to be within 1..100");
+        }
+
+        MessagesReservationModel payload = new MessagesReservationModel(numberOfMessages, timeout, wait);
+        String url = "queues/" + name + "/reservations";
+        return new MessageStream(client.post(url, gson.toJson(payload)), gson);
+    }
+
+    /**
+     * Peeks at messages like {@link #peek(int)}, but decodes them one by one while the response
+     * is still being received. The returned stream has to be closed.
+     *
+     * @param numberOfMessages The maximum number of messages to peek. Maximum is 100.
+     * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws java.io.IOException If there is an error accessing the IronMQ server.
+     */
+    public MessageStream peekStream(int numberOfMessages) throws IOException {
+        if (numberOfMessages < 1 || numberOfMessages > 100) {
+            throw new IllegalArgumentException("numberOfMessages has to be within 1..100");
+        }
+        return new MessageStream(client.get("queues/" + name + "/messages?n=" + numberOfMessages), gson);
+    }
+
     /**
      * Peeking at a queue returns the next messages on the queue, but it does not reserve them.
      * If there are no items on the queue, an EmptyQueueException is thrown.
@@ -164,7 +208,11 @@ public class Queue {
         }
         IronReader reader = client.get("queues/" + name + "/messages?n=" + numberOfMessages);
         try {
-            return gson.fromJson(reader.reader, Messages.class);
+            Messages messages = gson.fromJson(reader.reader, Messages.class);
+            if (messages != null) {
+                reader.pin(messages.getMessages());
+            }
+            return messages;
         } finally {
             reader.close();
         }
@@ -322,9 +370,11 @@ public class Queue {
     }
 
     private void deleteMessages(MessageOptions[] messages) throws IOException {
-        String payload = gson.toJson(new MessagesOptions(messages));
-        IronReader reader = client.delete("queues/" + name + "/messages", payload);
-        reader.close();
+        for (Map.Entry<Cloud, MessageOptions[]> part : client.byPinnedCloud(messages).entrySet()) {
+            String payload = gson.toJson(new MessagesOptions(part.getValue()));
+            IronReader reader = client.delete("queues/" + name + "/messages", payload, part.getKey());
+            reader.close();
+        }
     }
 
     /**
@@ -336,6 +386,7 @@ public class Queue {
     public void destroy() throws IOException {
         IronReader reader = client.delete("queues/" + name);
         reader.close();
+        invalidateInfo();
     }
 
     /**
@@ -399,6 +450,71 @@ public class Queue {
         return ids.getId(0);
     }
 
+    /**
+     * Pushes a message whose body is given as UTF-8 encoded text. The bytes are escaped straight
+     * into the request without being decoded into a String.
+     *
+     * @param msg The UTF-8 encoded body of the message to push.
+     * @return The new message's ID
+     *
+     * @throws java.lang.IllegalArgumentException If the body is not valid UTF-8.
+     * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws java.io.IOException If there is an error accessing the IronMQ server.
+     */
+    public String push(byte[] msg) throws IOException {
+        return push(ByteBuffer.wrap(msg), 0);
+    }
+
+    /**
+     * Pushes a message whose body is given as UTF-8 encoded text. The bytes are escaped straight
+     * into the request without being decoded into a String.
+     *
+     * @param msg The UTF-8 encoded body of the message to push.
+     * @param delay The message's delay in seconds.
+     * @return The new message's ID
+     *
+     * @throws java.lang.IllegalArgumentException If the body is not valid UTF-8.
+     * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws java.io.IOException If there is an error accessing the IronMQ server.
+     */
+    public String push(byte[] msg, long delay) throws IOException {
+        return push(ByteBuffer.wrap(msg), delay);
+    }
+
+    /**
+     * Pushes a message whose body is given as UTF-8 encoded text. The remaining bytes of the
+     * buffer are escaped straight into the request; the buffer's position is not changed.
+     *
+     * @param msg The UTF-8 encoded body of the message to push.
+     * @return The new message's ID
+     *
+     * @throws java.lang.IllegalArgumentException If the body is not valid UTF-8.
+     * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws java.io.IOException If there is an error accessing the IronMQ server.
+     */
+    public String push(ByteBuffer msg) throws IOException {
+        return push(msg, 0);
+    }
+
+    /**
+     * Pushes a message whose body is given as UTF-8 encoded text. The remaining bytes of the
+     * buffer are escaped straight into the request; the buffer's position is not changed.
+     *
+     * @param msg The UTF-8 encoded body of the message to push.
+     * @param delay The message's delay in seconds.
+     * @return The new message's ID
+     *
+     * @throws java.lang.IllegalArgumentException If the body is not valid UTF-8.
+     * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws java.io.IOException If there is an error accessing the IronMQ server.
+     */
+    public String push(ByteBuffer msg, long delay) throws IOException {
+        IronReader reader = client.post("queues/" + name + "/messages", RawMessageEncoder.encodePush(msg, delay));
+        Ids ids = gson.fromJson(reader.reader, Ids.class);
+        reader.close();
+        return ids.getId(0);
+    }
+
     /**
      * Pushes a messages onto the queue.
      *
@@ -418,6 +534,14 @@ public class Queue {
             messages.add(message);
         }
 
+        return pushMessages(messages);
+    }
+
+    /**
+     * Pushes messages with their own bodies and delays onto the queue.
+     * The returned IDs are in the same order as the messages.
+     */
+    Ids pushMessages(ArrayList<Message> messages) throws IOException {
         MessagesArrayList msgs = new MessagesArrayList(messages);
 
         IronReader reader = client.post("queues/" + name + "/messages", msgs);
@@ -435,6 +559,22 @@ public class Queue {
         reader.close();
     }
 
+    // Cached information about a queue that was changed or deleted would be stale.
+    private void invalidateInfo() {
+        QueueInfoCache cache = client.getQueueInfoCache();
+        if (cache != null) {
+            cache.invalidate(name);
+        }
+    }
+
+    /**
+     * Returns a non-blocking view of this queue.
+     * The network is not accessed during this call.
+     */
+    public AsyncQueue async() {
+        return new AsyncQueue(client, name);
+    }
+
     /**
      * @return the name of this queue
      */
@@ -444,11 +584,16 @@ public class Queue {
 
     /**
      * Retrieves Info about queue. If there is no queue, an EmptyQueueException is thrown.
+     * Answered from the client's {@link QueueInfoCache} if it has one.
      * @throws io.iron.ironmq.EmptyQueueException If there is no queue.
      * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
      * @throws java.io.IOException If there is an error accessing the IronMQ server.
      */
     public QueueModel getInfoAboutQueue() throws IOException {
+        QueueInfoCache cache = client.getQueueInfoCache();
+        if (cache != null) {
+            return cache.get(this);
+        }
         IronReader reader = client.get("queues/" + name);
         QueueContainer queueContainer = gson.fromJson(reader.reader, QueueContainer.class);
         reader.close();
@@ -738,6 +883,7 @@ public class Queue {
         IronReader reader = client.put(url, gson.toJson(payload));
         QueueContainer container = gson.fromJson(reader.reader, QueueContainer.class);
         reader.close();
+        invalidateInfo();
         return container.getQueue();
     }
 
@@ -781,6 +927,7 @@ public class Queue {
         IronReader reader = client.patch(url, gson.toJson(payload));
         QueueContainer container = gson.fromJson(reader.reader, QueueContainer.class);
         reader.close();
+        invalidateInfo();
         return container.getQueue();
     }
 
@@ -0,0 +1,471 @@
+package io.iron.ironmq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The QueueConsumer class runs a handler for every message of a queue on a pool of worker threads.
+ *
+ * A background thread reserves messages with long polling, up to 100 per request, and hands them
+ * to {@code concurrency} workers. At most {@code maxInFlight} messages are reserved and not yet
+ * deleted or released at any time, so a slow handler makes the consumer reserve less instead of
+ * letting reservations run out in a local backlog. Messages the handler accepts are deleted in
+ * batches; messages it rejects, or fails on with an exception, are released so they can be
+ * delivered again.
+ *
+ * Workers are daemon platform threads by default, or virtual threads on Java 21 and later.
+ *
+ * <pre>
+ * QueueConsumer consumer = new QueueConsumer(queue, message -&gt; {
+ *     process(message.getBody());
+ *     return QueueConsumer.Result.DELETE;
+ * }, 20, 200);
+ * consumer.start();
+ * ...
+ * consumer.close(); // finishes running handlers and releases the rest
+ * </pre>
+ */
+public class QueueConsumer implements Closeable {
+    public static final int DEFAULT_CONCURRENCY = 10;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 100;
+    public static final int DEFAULT_TIMEOUT = 60;
+    public static final int DEFAULT_WAIT = 10;
+    public static final long DEFAULT_DRAIN_TIMEOUT_MS = 30000;
+
+    private static final int maxBatchSize = 100;
+    private static final long maxBackoffMs = 30000;
+
+    /**
+     * What to do with a message once its handler returned.
+     */
+    public enum Result {
+        /** The message was processed and is deleted. */
+        DELETE,
+        /** The message is released and delivered again, to this or another consumer. */
+        RELEASE
+    }
+
+    /**
+     * Processes messages. Handlers are called from several threads at once.
+     */
+    public interface Handler {
+        /**
+         * Processes a reserved message.
+         *
+         * @return Whether to delete or release the message. Throwing an exception releases it
+         *         after the consumer's failure delay.
+         */
+        Result handle(Message message) throws Exception;
+    }
+
+    private final Queue queue;
+    private final Handler handler;
+    private final int concurrency;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final LinkedBlockingQueue<Message> ready = new LinkedBlockingQueue<Message>();
+    private final AckBatcher acks;
+
+    private volatile int timeout = DEFAULT_TIMEOUT;
+    private volatile int wait = DEFAULT_WAIT;
+    private volatile int failureDelay;
+    private volatile long drainTimeoutMs = DEFAULT_DRAIN_TIMEOUT_MS;
+    private volatile boolean virtualThreads;
+
+    private final LongAdder deleted = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile IOException lastError;
+
+    private volatile boolean running;
+    private boolean closed;
+    private Thread fetcher;
+    // Guards running against a reservation being sent, which close() must not interrupt.
+    private final ReentrantLock fetchLock = new ReentrantLock();
+    private boolean reserving;
+    private final ArrayList<Thread> workers = new ArrayList<Thread>();
+
+    /**
+     * Creates a consumer running the handler on 10 workers with up to 100 messages in flight.
+     *
+     * @param queue The queue to consume.
+     * @param handler The handler to run for every message.
+     */
+    public QueueConsumer(Queue queue, Handler handler) {
+        this(queue, handler, DEFAULT_CONCURRENCY, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param queue The queue to consume.
+     * @param handler The handler to run for every message.
+     * @param concurrency Number of workers running the handler.
+     * @param maxInFlight Maximum number of messages reserved and not yet deleted or released.
+     */
+    public QueueConsumer(Queue queue, Handler handler, int concurrency, int maxInFlight) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency should be greater than 0");
+        }
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight should be greater than 0");
+        }
+        this.queue = queue;
+        this.handler = handler;
+        this.concurrency = concurrency;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.acks = new AckBatcher(queue);
+    }
+
+    /**
+     * Starts reserving messages and running the handler.
+     * The network is not accessed before this call.
+     *
+     * @throws IllegalStateException If the consumer has been closed.
+     */
+    public synchronized void start() {
+        if (closed) {
+            throw new IllegalStateException("QueueConsumer is closed");
+        }
+        if (running) {
+            return;
+        }
+        running = true;
+        ThreadFactory factory = VirtualThreads.factory("ironmq-consumer-" + queue.getName(), virtualThreads);
+        for (int i = 0; i < concurrency; i++) {
+            Thread worker = factory.newThread(this::workLoop);
+            workers.add(worker);
+            worker.start();
+        }
+        fetcher = new Thread(this::fetchLoop, "ironmq-consumer-fetch-" + queue.getName());
+        fetcher.setDaemon(true);
+        fetcher.start();
+    }
+
+    private void fetchLoop() {
+        long backoffMs = 0;
+        while (running) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                return;
+            }
+            int available = 1 + permits.drainPermits();
+            int n = Math.min(available, maxBatchSize);
+            permits.release(available - n);
+
+            fetchLock.lock();
+            try {
+                if (!running) {
+                    permits.release(n);
+                    return;
+                }
+                reserving = true;
+            } finally {
+                fetchLock.unlock();
+            }
+
+            Messages messages;
+            try {
+                messages = queue.reserve(n, timeout, wait);
+                lastError = null;
+                backoffMs = 0;
+            } catch (IOException e) {
+                permits.release(n);
+                lastError = e;
+                if (!finishReserving()) {
+                    return;
+                }
+                backoffMs = backoffMs == 0 ? 100 : Math.min(backoffMs * 2, maxBackoffMs);
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                continue;
+            }
+            permits.release(n - messages.getSize());
+            fetchLock.lock();
+            try {
+                if (finishReserving()) {
+                    for (Message message : messages.getMessages()) {
+                        ready.add(message);
+                    }
+                    continue;
+                }
+            } finally {
+                fetchLock.unlock();
+            }
+            // The long poll returned after close(); hand its messages back right away.
+            for (Message message : messages.getMessages()) {
+                release(message, 0);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Marks the reservation in flight as done and returns whether the consumer is still running.
+     */
+    private boolean finishReserving() {
+        fetchLock.lock();
+        try {
+            reserving = false;
+            return running;
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+
+    private void workLoop() {
+        while (running) {
+            Message message;
+            try {
+                message = ready.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (message != null) {
+                process(message);
+            }
+        }
+    }
+
+    private void process(Message message) {
+        Result result;
+        try {
+            result = handler.handle(message);
+        } catch (Exception e) {
+            failed.increment();
+            release(message, failureDelay);
+            return;
+        }
+        if (result == Result.RELEASE) {
+            release(message, 0);
+            return;
+        }
+
+        CompletableFuture<Void> ack;
+        try {
+            ack = acks.ack(message);
+        } catch (IllegalStateException e) {
+            // Closed after the drain timeout; the reservation runs out on its own.
+            permits.release();
+            return;
+        }
+        ack.whenComplete((ignored, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause == null) {
+                deleted.increment();
+            } else if (cause instanceof IOException) {
+                lastError = (IOException) cause;
+            }
+            permits.release();
+        });
+    }
+
+    private IOException release(Message message, int delay) {
+        try {
+            queue.releaseMessage(message, delay);
+            released.increment();
+            return null;
+        } catch (IOException e) {
+            lastError = e;
+            return e;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Stops reserving messages and drains the consumer. Messages which were reserved but not handed
+     * to a worker yet are released right away, so they reappear on the queue instead of waiting
+     * for their reservation to run out. A long poll in flight is not aborted, since the server
+     * would still reserve its messages; the messages it returns are released as well. Running
+     * handlers get up to the drain timeout to finish; after that their workers are interrupted and
+     * their messages are left to time out.
+     *
+     * @throws IOException If a message could not be released.
+     */
+    public void close() throws IOException {
+        Thread stoppedFetcher;
+        ArrayList<Thread> stoppedWorkers;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            stoppedFetcher = fetcher;
+            stoppedWorkers = new ArrayList<Thread>(workers);
+            fetcher = null;
+            workers.clear();
+            fetchLock.lock();
+            try {
+                running = false;
+                if (stoppedFetcher != null && !reserving) {
+                    stoppedFetcher.interrupt();
+                }
+            } finally {
+                fetchLock.unlock();
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMs);
+
+        if (stoppedFetcher != null) {
+            join(stoppedFetcher, deadline);
+        }
+        IOException error = null;
+        Message message;
+        while ((message = ready.poll()) != null) {
+            IOException releaseError = release(message, 0);
+            if (releaseError != null) {
+                error = releaseError;
+            }
+        }
+        for (Thread worker : stoppedWorkers) {
+            if (!join(worker, deadline)) {
+                worker.interrupt();
+            }
+        }
+
+        acks.close();
+        try {
+            // Wait for the last deletes, and releases of abandoned handlers, to complete.
+            long remaining = deadline - System.nanoTime();
+            if (permits.tryAcquire(maxInFlight, Math.max(0, remaining), TimeUnit.NANOSECONDS)) {
+                permits.release(maxInFlight);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static boolean join(Thread thread, long deadline) {
+        try {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining > 0) {
+                thread.join(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    /**
+     * Returns the number of messages reserved and not yet deleted or released.
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of messages deleted after their handler accepted them.
+     */
+    public long getDeletedMessages() {
+        return deleted.sum();
+    }
+
+    /**
+     * Returns the number of messages released back to the queue.
+     */
+    public long getReleasedMessages() {
+        return released.sum();
+    }
+
+    /**
+     * Returns the number of messages whose handler threw an exception.
+     */
+    public long getFailedMessages() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the error of the last failed request, or null if it succeeded.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the reservation timeout of the messages, 60 seconds by default. The timeout should
+     * cover the time a message waits for a worker plus the time its handler takes.
+     */
+    public void setTimeout(int timeout) {
+        if (timeout < 1) {
+            throw new IllegalArgumentException("timeout should be greater than 0");
+        }
+        this.timeout = timeout;
+    }
+
+    public int getWait() {
+        return wait;
+    }
+
+    /**
+     * Sets how long to long poll for messages, in seconds. Max is 30 seconds, 10 by default.
+     */
+    public void setWait(int wait) {
+        if (wait < 0 || wait > 30) {
+            throw new IllegalArgumentException("wait has to be within 0..30");
+        }
+        this.wait = wait;
+    }
+
+    public int getFailureDelay() {
+        return failureDelay;
+    }
+
+    /**
+     * Sets the delay in seconds before a message whose handler threw an exception is delivered
+     * again, 0 by default.
+     */
+    public void setFailureDelay(int failureDelay) {
+        if (failureDelay < 0) {
+            throw new IllegalArgumentException("failureDelay should not be negative");
+        }
+        this.failureDelay = failureDelay;
+    }
+
+    public long getDrainTimeoutMs() {
+        return drainTimeoutMs;
+    }
+
+    /**
+     * Sets how long {@link #close()} waits for running handlers, 30 seconds by default.
+     */
+    public void setDrainTimeoutMs(long drainTimeoutMs) {
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Runs the handler on virtual threads instead of platform threads. Takes effect on {@link #start()}.
+     *
+     * @throws UnsupportedOperationException If the JVM does not support virtual threads.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        if (virtualThreads && !VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        this.virtualThreads = virtualThreads;
+    }
+}
@@ -0,0 +1,260 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The QueueInfoCache class keeps snapshots of queue information, as returned by
+ * {@link Queue#getInfoAboutQueue()}, for a limited time.
+ *
+ * Set it on a client with {@link Client#setQueueInfoCache(QueueInfoCache)}, and
+ * {@code getInfoAboutQueue} of that client's queues is answered from the cache. A snapshot is
+ * served for {@code ttlMs} milliseconds. Once it is older than {@code refreshAfterMs}, by default
+ * three quarters of the TTL, the next lookup still gets it but starts a refresh in the background,
+ * so queues that are looked up regularly are never waited for. Concurrent lookups of a queue
+ * which is not cached share one request, and failures are not cached.
+ *
+ * At most {@code maxQueues} snapshots are kept; the least recently used one is evicted first.
+ * Queue names are the keys, so a cache should not be shared by clients of different projects.
+ */
+public class QueueInfoCache {
+    public static final long DEFAULT_TTL_MS = 5000;
+    public static final int DEFAULT_MAX_QUEUES = 10000;
+
+    static private class Snapshot {
+        // The snapshot, or the first request for it while it is loading.
+        CompletableFuture<QueueModel> value;
+        long loadedAt;
+        CompletableFuture<QueueModel> refreshing;
+    }
+
+    private final long ttlNanos;
+    private final long refreshAfterNanos;
+    private final int maxQueues;
+
+    // Refreshes complete on transport threads; a monitor would pin virtual threads looking up meanwhile.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Snapshot> snapshots;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+
+    /**
+     * Creates a cache of up to 10000 queues, keeping snapshots for 5 seconds.
+     */
+    public QueueInfoCache() {
+        this(DEFAULT_TTL_MS, DEFAULT_MAX_QUEUES);
+    }
+
+    /**
+     * Creates a cache refreshing snapshots in the background after three quarters of the TTL.
+     *
+     * @param ttlMs How long a snapshot is served, in milliseconds.
+     * @param maxQueues Maximum number of queues kept.
+     */
+    public QueueInfoCache(long ttlMs, int maxQueues) {
+        this(ttlMs, ttlMs * 3 / 4, maxQueues);
+    }
+
+    /**
+     * @param ttlMs How long a snapshot is served, in milliseconds.
+     * @param refreshAfterMs Age in milliseconds after which a lookup refreshes the snapshot in the
+     *                       background. A value of {@code ttlMs} or more turns background refreshes off.
+     * @param maxQueues Maximum number of queues kept.
+     */
+    public QueueInfoCache(long ttlMs, long refreshAfterMs, int maxQueues) {
+        if (ttlMs < 1) {
+            throw new IllegalArgumentException("ttlMs should be greater than 0");
+        }
+        if (refreshAfterMs < 0) {
+            throw new IllegalArgumentException("refreshAfterMs should not be negative");
+        }
+        if (maxQueues < 1) {
+            throw new IllegalArgumentException("maxQueues should be greater than 0");
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.refreshAfterNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(refreshAfterMs, ttlMs));
+        this.maxQueues = maxQueues;
+        this.snapshots = new LinkedHashMap<String, Snapshot>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, Snapshot> eldest) {
+                return size() > QueueInfoCache.this.maxQueues;
+            }
+        };
+    }
+
+    /**
+     * Returns information about the queue, from the cache if it holds a fresh enough snapshot.
+     *
+     * @throws io.iron.ironmq.HTTPException If the IronMQ service returns a status other than 200 OK.
+     * @throws java.io.IOException If there is an error accessing the IronMQ server.
+     */
+    public QueueModel get(Queue queue) throws IOException {
+        try {
+            return get(queue.async()).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrieving queue info");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Returns information about the queue, from the cache if it holds a fresh enough snapshot.
+     */
+    public CompletableFuture<QueueModel> get(AsyncQueue queue) {
+        String name = queue.getName();
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Snapshot snapshot = snapshots.get(name);
+            if (snapshot == null || snapshot.value.isCompletedExceptionally()) {
+                misses.increment();
+                snapshot = new Snapshot();
+                snapshots.put(name, snapshot);
+                snapshot.value = load(queue, snapshot);
+                return snapshot.value;
+            }
+            if (!snapshot.value.isDone()) {
+                hits.increment();
+                return snapshot.value;
+            }
+            long age = now - snapshot.loadedAt;
+            if (age >= ttlNanos) {
+                misses.increment();
+                return refresh(queue, snapshot);
+            }
+            hits.increment();
+            if (age >= refreshAfterNanos) {
+                refresh(queue, snapshot);
+            }
+            return snapshot.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Must be called with the lock held.
+    private CompletableFuture<QueueModel> load(AsyncQueue queue, Snapshot snapshot) {
+        CompletableFuture<QueueModel> result = new CompletableFuture<QueueModel>();
+        queue.fetchInfoAboutQueue().whenComplete((model, error) -> {
+            lock.lock();
+            try {
+                if (error == null) {
+                    snapshot.loadedAt = System.nanoTime();
+                } else if (snapshots.get(queue.getName()) == snapshot) {
+                    snapshots.remove(queue.getName());
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (error == null) {
+                result.complete(model);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    // Must be called with the lock held. Refreshes of a queue are coalesced like first lookups.
+    private CompletableFuture<QueueModel> refresh(AsyncQueue queue, Snapshot snapshot) {
+        if (snapshot.refreshing != null) {
+            return snapshot.refreshing;
+        }
+        refreshes.increment();
+        CompletableFuture<QueueModel> result = new CompletableFuture<QueueModel>();
+        snapshot.refreshing = result;
+        queue.fetchInfoAboutQueue().whenComplete((model, error) -> {
+            lock.lock();
+            try {
+                snapshot.refreshing = null;
+                if (error == null) {
+                    snapshot.value = CompletableFuture.completedFuture(model);
+                    snapshot.loadedAt = System.nanoTime();
+                }
+                // A failed refresh leaves the snapshot in place until it expires.
+            } finally {
+                lock.unlock();
+            }
+            if (error == null) {
+                result.complete(model);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Drops the snapshot of a queue, so the next lookup retrieves it.
+     */
+    public void invalidate(String queueName) {
+        lock.lock();
+        try {
+            snapshots.remove(queueName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all snapshots.
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            snapshots.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of queues in the cache.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return snapshots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache or by a request already in flight.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups which had to wait for a new request.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of refreshes started, in the background or for expired snapshots.
+     */
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+}
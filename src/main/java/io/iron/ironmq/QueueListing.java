@@ -0,0 +1,236 @@
+package io.iron.ironmq;
+
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * The QueueListing class lists all queues of a project, or all queues with a name prefix, one page
+ * at a time.
+ *
+ * Pages are fetched lazily while the listing is iterated: the next page is requested as soon as
+ * the caller starts on the current one, so at most two pages are held in memory. Every call to
+ * {@link #iterator()} or {@link #stream()} lists the queues anew.
+ *
+ * A listing of many queues can be split into shards, ranges of names which are listed in
+ * parallel, with {@link #setShards(int)} or {@link #setShardBoundaries(String...)}. Queues then
+ * arrive in alphabetical order within each shard, but the shards are interleaved, and up to two
+ * pages per shard are held in memory.
+ *
+ * Request errors are thrown from {@link Iterator#hasNext()} as {@link UncheckedIOException}s.
+ *
+ * <pre>
+ * QueueListing listing = Queues.listAll(client);
+ * listing.setShards(8);
+ * listing.stream().map(QueueModel::getName).forEach(...);
+ * </pre>
+ */
+public class QueueListing implements Iterable<QueueModel> {
+    /**
+     * The maximum number of queues the service returns per page.
+     */
+    public static final int MAX_PER_PAGE = 100;
+
+    // Characters of typical queue names, in ascending order; automatic shards split at them.
+    private static final String shardAlphabet = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+
+    private final Client client;
+    private final String prefix;
+    private final int perPage;
+    private volatile String[] boundaries = new String[0];
+
+    /**
+     * Creates a listing of all queues, 100 per page.
+     */
+    public QueueListing(Client client) {
+        this(client, null, MAX_PER_PAGE);
+    }
+
+    /**
+     * Creates a listing of the queues whose names start with the prefix, 100 per page.
+     */
+    public QueueListing(Client client, String prefix) {
+        this(client, prefix, MAX_PER_PAGE);
+    }
+
+    /**
+     * @param client The client to list the queues with.
+     * @param prefix Lists only queues whose names start with it, or all queues if null.
+     * @param perPage Number of queues per request, 1..100.
+     */
+    public QueueListing(Client client, String prefix, int perPage) {
+        if (perPage < 1 || perPage > MAX_PER_PAGE) {
+            throw new IllegalArgumentException("perPage has to be within 1..100");
+        }
+        this.client = client;
+        this.prefix = prefix == null ? "" : prefix;
+        this.perPage = perPage;
+    }
+
+    /**
+     * Splits the listing into shards listed in parallel, at evenly spaced letters and digits
+     * following the prefix. Queues are still listed completely whatever their names, but shards
+     * only take turns evenly if the names are spread over the alphabet; otherwise pick the
+     * boundaries with {@link #setShardBoundaries(String...)}.
+     *
+     * @param shards Number of shards, 1..63. 1 lists the queues in order.
+     */
+    public void setShards(int shards) {
+        if (shards < 1 || shards > shardAlphabet.length()) {
+            throw new IllegalArgumentException("shards has to be within 1.." + shardAlphabet.length());
+        }
+        String[] names = new String[shards - 1];
+        for (int i = 1; i < shards; i++) {
+            names[i - 1] = prefix + shardAlphabet.charAt((i * shardAlphabet.length() - 1) / shards);
+        }
+        this.boundaries = names;
+    }
+
+    /**
+     * Splits the listing into shards listed in parallel. The first shard lists the queues up to
+     * and including the first boundary, the next one those after it up to the second boundary,
+     * and the last one all queues after the last boundary.
+     *
+     * @param names Names to split at, in any order. No names lists the queues in order.
+     */
+    public void setShardBoundaries(String... names) {
+        this.boundaries = new TreeSet<String>(Arrays.asList(names)).toArray(new String[0]);
+    }
+
+    /**
+     * Returns the names at which the listing is split into shards.
+     */
+    public String[] getShardBoundaries() {
+        return boundaries.clone();
+    }
+
+    /**
+     * Starts listing the queues. The first page of every shard is requested right away.
+     */
+    public Iterator<QueueModel> iterator() {
+        return new Listing(boundaries);
+    }
+
+    /**
+     * Starts listing the queues. The stream is sequential; the shards are fetched in parallel
+     * either way.
+     */
+    public Stream<QueueModel> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    static private class Page {
+        final Shard shard;
+        final ArrayList<QueueModel> queues;
+        final boolean last;
+        final Throwable error;
+
+        Page(Shard shard, ArrayList<QueueModel> queues, boolean last, Throwable error) {
+            this.shard = shard;
+            this.queues = queues;
+            this.last = last;
+            this.error = error;
+        }
+    }
+
+    private class Shard {
+        // The queues after the lower bound, up to and including the upper one; null is unbounded.
+        private final String upper;
+        private final LinkedBlockingQueue<Page> pages;
+
+        Shard(String upper, LinkedBlockingQueue<Page> pages) {
+            this.upper = upper;
+            this.pages = pages;
+        }
+
+        void fetch(String previous) {
+            Queues.getQueuesAsync(client, previous, perPage, prefix).whenComplete((queues, error) -> {
+                if (error != null) {
+                    pages.add(new Page(this, null, true, error));
+                    return;
+                }
+                if (queues == null) {
+                    queues = new ArrayList<QueueModel>();
+                }
+                boolean last = queues.size() < perPage;
+                if (upper != null) {
+                    int inRange = 0;
+                    while (inRange < queues.size() && queues.get(inRange).getName().compareTo(upper) <= 0) {
+                        inRange++;
+                    }
+                    if (inRange < queues.size()) {
+                        queues = new ArrayList<QueueModel>(queues.subList(0, inRange));
+                        last = true;
+                    }
+                }
+                pages.add(new Page(this, queues, last || queues.isEmpty(), null));
+            });
+        }
+    }
+
+    private class Listing implements Iterator<QueueModel> {
+        private final LinkedBlockingQueue<Page> pages = new LinkedBlockingQueue<Page>();
+        private Iterator<QueueModel> current = Collections.emptyIterator();
+        private int unfinishedShards;
+        private UncheckedIOException failure;
+
+        Listing(String[] boundaries) {
+            unfinishedShards = boundaries.length + 1;
+            for (int i = 0; i <= boundaries.length; i++) {
+                Shard shard = new Shard(i < boundaries.length ? boundaries[i] : null, pages);
+                shard.fetch(i > 0 ? boundaries[i - 1] : null);
+            }
+        }
+
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (unfinishedShards == 0) {
+                    return false;
+                }
+                Page page;
+                try {
+                    page = pages.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UncheckedIOException(new InterruptedIOException("Interrupted while listing queues"));
+                }
+                if (page.error != null) {
+                    Throwable cause = page.error instanceof CompletionException && page.error.getCause() != null
+                            ? page.error.getCause() : page.error;
+                    failure = cause instanceof IOException
+                            ? new UncheckedIOException((IOException) cause)
+                            : new UncheckedIOException(new IOException(cause));
+                    throw failure;
+                }
+                if (page.last) {
+                    unfinishedShards--;
+                } else {
+                    // Prefetch the shard's next page while this one is consumed.
+                    page.shard.fetch(page.queues.get(page.queues.size() - 1).getName());
+                }
+                current = page.queues.iterator();
+            }
+            return true;
+        }
+
+        public QueueModel next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+}
@@ -5,16 +5,16 @@ import com.google.gson.annotations.SerializedName;
 import java.util.ArrayList;
 
 public class QueueModel {
-    private String id;
-    private String name;
-    private String type;
-    private Long size;
-    private String project_id;
-    private Long total_messages;
-    private QueuePushModel push;
-    private ArrayList<Alert> alerts;
-    @SerializedName("message_timeout") private Integer messageTimeout;
-    @SerializedName("message_expiration") private Integer messageExpiration;
+    String id;
+    String name;
+    String type;
+    Long size;
+    String project_id;
+    Long total_messages;
+    QueuePushModel push;
+    ArrayList<Alert> alerts;
+    @SerializedName("message_timeout") Integer messageTimeout;
+    @SerializedName("message_expiration") Integer messageExpiration;
 
     public QueueModel(String id, String name, Integer size, Integer total_messages, String project_id, Integer retries, String pushType, Integer retriesDelay, String errorQueue, ArrayList<Subscriber> subscribers, ArrayList<Alert> alerts) {
         this.id = id;
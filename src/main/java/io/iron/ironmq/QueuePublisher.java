@@ -0,0 +1,149 @@
+package io.iron.ironmq;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The QueuePublisher class publishes the messages of a queue to {@link Flow.Subscriber}s, reserving
+ * them only as fast as subscribers ask for them.
+ *
+ * Demand signalled with {@link Flow.Subscription#request(long)} turns into non-blocking long polling
+ * reservations of up to 100 messages, so no thread waits for messages and nothing is reserved
+ * before a subscriber can take it. With a {@code wait} of 0, an empty queue is polled continuously
+ * while there is demand. Each subscriber gets its own messages; subscribing several
+ * times makes competing consumers.
+ *
+ * Messages are reserved, not deleted. Pass them through an {@link AckProcessor} once processed,
+ * or delete them otherwise, before their reservation runs out. A failed reservation ends the
+ * subscription with {@code onError}; on cancellation, messages which were already reserved but
+ * not delivered are released.
+ *
+ * <pre>
+ * QueuePublisher publisher = new QueuePublisher(queue);
+ * publisher.subscribe(processingStage);
+ * </pre>
+ */
+public class QueuePublisher implements Flow.Publisher<Message> {
+    public static final int DEFAULT_TIMEOUT = 60;
+    public static final int DEFAULT_WAIT = 30;
+
+    private static final int maxBatchSize = 100;
+
+    private final AsyncQueue queue;
+    private final int timeout;
+    private final int wait;
+
+    /**
+     * Creates a publisher reserving messages for 60 seconds, long polling for up to 30 seconds.
+     *
+     * @param queue The queue to reserve messages from.
+     */
+    public QueuePublisher(Queue queue) {
+        this(queue, DEFAULT_TIMEOUT, DEFAULT_WAIT);
+    }
+
+    /**
+     * @param queue The queue to reserve messages from.
+     * @param timeout Reservation timeout in seconds.
+     * @param wait Time to long poll for messages, in seconds. Max is 30 seconds.
+     */
+    public QueuePublisher(Queue queue, int timeout, int wait) {
+        if (timeout < 1) {
+            throw new IllegalArgumentException("timeout should be greater than 0");
+        }
+        if (wait < 0 || wait > 30) {
+            throw new IllegalArgumentException("wait has to be within 0..30");
+        }
+        this.queue = queue.async();
+        this.timeout = timeout;
+        this.wait = wait;
+    }
+
+    public void subscribe(Flow.Subscriber<? super Message> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    private class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Message> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        // Set while a reservation is outstanding or its messages are being delivered.
+        private final AtomicBoolean fetching = new AtomicBoolean();
+        private volatile boolean done;
+
+        Subscription(Flow.Subscriber<? super Message> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            if (done) {
+                return;
+            }
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("n should be greater than 0"));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            fetch();
+        }
+
+        public void cancel() {
+            done = true;
+        }
+
+        private void fetch() {
+            if (done || demand.get() == 0 || !fetching.compareAndSet(false, true)) {
+                return;
+            }
+            if (done || demand.get() == 0) {
+                fetching.set(false);
+                // Demand may have been signalled between the checks.
+                fetch();
+                return;
+            }
+            int n = (int) Math.min(demand.get(), maxBatchSize);
+            queue.reserve(n, timeout, wait).whenComplete((messages, error) -> {
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                deliver(messages);
+                fetching.set(false);
+                fetch();
+            });
+        }
+
+        private void deliver(Messages messages) {
+            for (Message message : messages.getMessages()) {
+                if (done) {
+                    queue.releaseMessage(message);
+                    continue;
+                }
+                demand.decrementAndGet();
+                try {
+                    subscriber.onNext(message);
+                } catch (Throwable e) {
+                    // The subscriber broke the contract; stop publishing to it.
+                    done = true;
+                }
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (done) {
+                return;
+            }
+            done = true;
+            subscriber.onError(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+        }
+    }
+}
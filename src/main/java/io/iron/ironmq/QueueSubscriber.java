@@ -0,0 +1,151 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The QueueSubscriber class pushes the message bodies published to it onto a queue.
+ *
+ * Bodies are pushed in batches by a {@link BatchingProducer}. The subscriber requests
+ * {@code maxInFlight} bodies up front and one more for every push the service has confirmed, so a
+ * publisher never gets ahead of the queue by more than {@code maxInFlight} messages.
+ *
+ * The future returned by {@link #getCompletion()} completes once the publisher has completed and
+ * every body has been pushed. A failed push cancels the subscription and fails the future, as
+ * does an error from the publisher.
+ *
+ * <pre>
+ * QueueSubscriber subscriber = new QueueSubscriber(queue);
+ * publisher.subscribe(subscriber);
+ * subscriber.getCompletion().join();
+ * </pre>
+ */
+public class QueueSubscriber implements Flow.Subscriber<String> {
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+
+    private final BatchingProducer producer;
+    private final int maxInFlight;
+    private final CompletableFuture<Void> completion = new CompletableFuture<Void>();
+
+    private volatile Flow.Subscription subscription;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean upstreamDone;
+    private final LongAdder pushed = new LongAdder();
+
+    /**
+     * Creates a subscriber with up to 1000 messages in flight.
+     *
+     * @param queue The queue to push to.
+     */
+    public QueueSubscriber(Queue queue) {
+        this(queue, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param queue The queue to push to.
+     * @param maxInFlight Maximum number of bodies received and not yet pushed.
+     */
+    public QueueSubscriber(Queue queue, int maxInFlight) {
+        this(new BatchingProducer(queue), maxInFlight);
+    }
+
+    /**
+     * @param producer The producer to push with. It is closed when the stream ends.
+     * @param maxInFlight Maximum number of bodies received and not yet pushed.
+     */
+    public QueueSubscriber(BatchingProducer producer, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight should be greater than 0");
+        }
+        this.producer = producer;
+        this.maxInFlight = maxInFlight;
+    }
+
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null || completion.isDone()) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(maxInFlight);
+    }
+
+    public void onNext(String body) {
+        inFlight.incrementAndGet();
+        CompletableFuture<String> push;
+        try {
+            push = producer.push(body);
+        } catch (IllegalStateException e) {
+            // Already failed and closed.
+            inFlight.decrementAndGet();
+            return;
+        }
+        push.whenComplete((id, error) -> {
+            if (error != null) {
+                fail(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+                return;
+            }
+            pushed.increment();
+            inFlight.decrementAndGet();
+            if (upstreamDone) {
+                finish();
+            } else {
+                subscription.request(1);
+            }
+        });
+    }
+
+    public void onError(Throwable throwable) {
+        upstreamDone = true;
+        fail(throwable);
+    }
+
+    public void onComplete() {
+        upstreamDone = true;
+        producer.flush();
+        finish();
+    }
+
+    private void finish() {
+        if (inFlight.get() == 0 && closeProducer()) {
+            completion.complete(null);
+        }
+    }
+
+    private void fail(Throwable error) {
+        Flow.Subscription current = subscription;
+        if (current != null && !upstreamDone) {
+            current.cancel();
+        }
+        closeProducer();
+        completion.completeExceptionally(error);
+    }
+
+    private boolean closeProducer() {
+        try {
+            producer.close();
+            return true;
+        } catch (IOException e) {
+            completion.completeExceptionally(e);
+            return false;
+        }
+    }
+
+    /**
+     * Returns a future completed once every body has been pushed, or failed with the first error.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Returns the number of bodies pushed.
+     */
+    public long getPushedMessages() {
+        return pushed.sum();
+    }
+}
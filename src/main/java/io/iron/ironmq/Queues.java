@@ -1,12 +1,13 @@
 package io.iron.ironmq;
 
-import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 public class Queues {
     final private Client client;
@@ -21,6 +22,7 @@ public class Queues {
      * @throws HTTPException If the IronMQ service returns a status other than 200 OK.
      * @throws java.io.IOException If there is an error accessing the IronMQ server.
      * @deprecated Deprecated because of two reasons: It doesn't retrieve all queues and Queues.getQueues is more preferable.
+     *             {@link #listAll(Client)} retrieves all queues.
      */
     @Deprecated
     public ArrayList<QueueModel> getAllQueues() throws IOException {
@@ -75,6 +77,52 @@ public class Queues {
      * @throws java.io.IOException If there is an error accessing the IronMQ server.
      */
     public static ArrayList<QueueModel> getQueues(Client client, String previousQueueName, Integer perPage, String prefix) throws IOException {
+        IronReader reader = client.get(listUrl(previousQueueName, perPage, prefix));
+        QueuesContainer queues = Codecs.gson().fromJson(reader.reader, QueuesContainer.class);
+        reader.close();
+        return queues.getQueues();
+    }
+
+    /**
+     * Retrieves a page of queues like {@link #getQueues(Client, String, Integer, String)}, without
+     * blocking the calling thread.
+     */
+    static CompletableFuture<ArrayList<QueueModel>> getQueuesAsync(Client client, String previousQueueName, Integer perPage, String prefix) {
+        String url;
+        try {
+            url = listUrl(previousQueueName, perPage, prefix);
+        } catch (UnsupportedEncodingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.getAsync(url).thenApply(reader -> {
+            try {
+                return Codecs.gson().fromJson(reader.reader, QueuesContainer.class).getQueues();
+            } finally {
+                reader.close();
+            }
+        });
+    }
+
+    /**
+     * Lists all queues, fetching pages lazily while the returned listing is iterated.
+     *
+     * @see QueueListing
+     */
+    public static QueueListing listAll(Client client) {
+        return new QueueListing(client);
+    }
+
+    /**
+     * Lists all queues whose names start with the prefix, fetching pages lazily while the
+     * returned listing is iterated.
+     *
+     * @see QueueListing
+     */
+    public static QueueListing listAll(Client client, String prefix) {
+        return new QueueListing(client, prefix);
+    }
+
+    private static String listUrl(String previousQueueName, Integer perPage, String prefix) throws UnsupportedEncodingException {
         StringBuilder params = new StringBuilder();
         if (previousQueueName != null && !previousQueueName.isEmpty()) {
             params.append(String.format("previous=%s", URLEncoder.encode(previousQueueName, "UTF-8")));
@@ -88,13 +136,7 @@ public class Queues {
             }
             params.append(String.format("%sper_page=%d", params.length() > 0 ? "&" : "", perPage));
         }
-        String url = "queues?" + params;
-
-        IronReader reader = client.get(url);
-        Gson gson = new Gson();
-        QueuesContainer queues = gson.fromJson(reader.reader, QueuesContainer.class);
-        reader.close();
-        return queues.getQueues();
+        return "queues?" + params;
     }
 
 }
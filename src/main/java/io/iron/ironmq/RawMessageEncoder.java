@@ -0,0 +1,144 @@
+package io.iron.ironmq;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes push requests for bodies given as UTF-8 bytes without turning them into Strings.
+ *
+ * The bytes are JSON-escaped straight into the request buffer. Bytes of multi-byte UTF-8
+ * sequences never need escaping, so they are copied as they are once the sequence has been
+ * checked to be well-formed.
+ */
+final class RawMessageEncoder {
+    private static final byte[] hex = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] prefix = "{\"messages\":[{\"body\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] delayField = "\",\"delay\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] suffix = "}]}".getBytes(StandardCharsets.US_ASCII);
+
+    private RawMessageEncoder() {
+    }
+
+    /**
+     * Returns the body of a request pushing a single message. The buffer's position is not changed.
+     *
+     * @throws IllegalArgumentException If the body is not well-formed UTF-8.
+     */
+    static byte[] encodePush(ByteBuffer body, long delay) {
+        validateUtf8(body);
+        int length = body.remaining();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length + length / 8 + 48);
+        out.write(prefix, 0, prefix.length);
+        if (body.hasArray()) {
+            writeEscaped(out, body.array(), body.arrayOffset() + body.position(), length);
+        } else {
+            for (int i = body.position(); i < body.limit(); i++) {
+                writeEscaped(out, body.get(i));
+            }
+        }
+        out.write(delayField, 0, delayField.length);
+        byte[] delayBytes = Long.toString(delay).getBytes(StandardCharsets.US_ASCII);
+        out.write(delayBytes, 0, delayBytes.length);
+        out.write(suffix, 0, suffix.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Checks the remaining bytes of the buffer for malformed, overlong or surrogate sequences,
+     * which no String could have been encoded to.
+     */
+    private static void validateUtf8(ByteBuffer body) {
+        int i = body.position();
+        int end = body.limit();
+        while (i < end) {
+            int b = body.get(i) & 0xff;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            int continuations;
+            int min = 0x80;
+            int max = 0xbf;
+            if (b >= 0xc2 && b <= 0xdf) {
+                continuations = 1;
+            } else if (b >= 0xe0 && b <= 0xef) {
+                continuations = 2;
+                if (b == 0xe0) {
+                    min = 0xa0;
+                } else if (b == 0xed) {
+                    max = 0x9f;
+                }
+            } else if (b >= 0xf0 && b <= 0xf4) {
+                continuations = 3;
+                if (b == 0xf0) {
+                    min = 0x90;
+                } else if (b == 0xf4) {
+                    max = 0x8f;
+                }
+            } else {
+                throw malformed(body, i);
+            }
+            if (i + continuations >= end) {
+                throw malformed(body, i);
+            }
+            for (int k = 1; k <= continuations; k++) {
+                int c = body.get(i + k) & 0xff;
+                if (c < (k == 1 ? min : 0x80) || c > (k == 1 ? max : 0xbf)) {
+                    throw malformed(body, i);
+                }
+            }
+            i += continuations + 1;
+        }
+    }
+
+    private static IllegalArgumentException malformed(ByteBuffer body, int index) {
+        return new IllegalArgumentException("Message body is not valid UTF-8 at byte " + (index - body.position()));
+    }
+
+    private static void writeEscaped(ByteArrayOutputStream out, byte[] src, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (needsEscape(src[i])) {
+                out.write(src, start, i - start);
+                writeEscaped(out, src[i]);
+                start = i + 1;
+            }
+        }
+        out.write(src, start, end - start);
+    }
+
+    private static boolean needsEscape(byte b) {
+        return (b >= 0 && b < 0x20) || b == '"' || b == '\\';
+    }
+
+    private static void writeEscaped(ByteArrayOutputStream out, byte b) {
+        if (!needsEscape(b)) {
+            out.write(b);
+            return;
+        }
+        out.write('\\');
+        switch (b) {
+            case '"':
+            case '\\':
+                out.write(b);
+                break;
+            case '\n':
+                out.write('n');
+                break;
+            case '\r':
+                out.write('r');
+                break;
+            case '\t':
+                out.write('t');
+                break;
+            default:
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(hex[(b >> 4) & 0xf]);
+                out.write(hex[b & 0xf]);
+        }
+    }
+}
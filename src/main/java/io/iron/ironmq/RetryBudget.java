@@ -0,0 +1,98 @@
+package io.iron.ironmq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The RetryBudget class limits retries to a share of the traffic, so that an outage is not
+ * made worse by every client multiplying its load.
+ *
+ * Over the last 10 seconds, retries may not exceed {@code ratio} times the number of requests plus
+ * {@code minRetriesPerSecond} per second. The per-second allowance lets clients with little traffic
+ * still retry. Once the budget is spent, failures are reported without retrying until it recovers.
+ */
+public class RetryBudget implements RetryPolicy {
+    private static final int windowSeconds = 10;
+
+    private final RetryPolicy delegate;
+    private final double ratio;
+    private final int minRetriesPerSecond;
+
+    private final long[] requests = new long[windowSeconds];
+    private final long[] retries = new long[windowSeconds];
+    private long currentSecond;
+
+    /**
+     * @param delegate The policy choosing which failures are retried and when.
+     * @param ratio Maximum retries per request, for example 0.2 for 20%.
+     * @param minRetriesPerSecond Retries allowed per second regardless of the traffic.
+     */
+    public RetryBudget(RetryPolicy delegate, double ratio, int minRetriesPerSecond) {
+        if (ratio < 0) {
+            throw new IllegalArgumentException("ratio should not be negative");
+        }
+        if (minRetriesPerSecond < 0) {
+            throw new IllegalArgumentException("minRetriesPerSecond should not be negative");
+        }
+        this.delegate = delegate;
+        this.ratio = ratio;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+    }
+
+    public void requestStarted(RetryContext context) {
+        synchronized (this) {
+            requests[advance()]++;
+        }
+        delegate.requestStarted(context);
+    }
+
+    public long nextDelayMs(RetryContext context) {
+        long delay = delegate.nextDelayMs(context);
+        if (delay < 0) {
+            return delay;
+        }
+        synchronized (this) {
+            int slot = advance();
+            long totalRequests = 0;
+            long totalRetries = 0;
+            for (int i = 0; i < windowSeconds; i++) {
+                totalRequests += requests[i];
+                totalRetries += retries[i];
+            }
+            if (totalRetries + 1 > ratio * totalRequests + (double) minRetriesPerSecond * windowSeconds) {
+                return -1;
+            }
+            retries[slot]++;
+        }
+        return delay;
+    }
+
+    /**
+     * Clears the buckets of the seconds which have passed and returns the slot of the current one.
+     * Must be called with the lock held.
+     */
+    private int advance() {
+        long now = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime());
+        if (now - currentSecond >= windowSeconds) {
+            for (int i = 0; i < windowSeconds; i++) {
+                requests[i] = 0;
+                retries[i] = 0;
+            }
+        } else {
+            for (long second = currentSecond + 1; second <= now; second++) {
+                int slot = (int) Math.floorMod(second, (long) windowSeconds);
+                requests[slot] = 0;
+                retries[slot] = 0;
+            }
+        }
+        currentSecond = now;
+        return (int) Math.floorMod(now, (long) windowSeconds);
+    }
+
+    public double getRatio() {
+        return ratio;
+    }
+
+    public int getMinRetriesPerSecond() {
+        return minRetriesPerSecond;
+    }
+}
@@ -0,0 +1,71 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The RetryContext class describes a request to a {@link RetryPolicy}: what is being requested,
+ * how many attempts have failed so far and how long ago the first one started.
+ */
+public class RetryContext {
+    private final String method;
+    private final String endpoint;
+    private final long startNanos = System.nanoTime();
+    private int failedAttempts;
+    private IOException lastError;
+    private long lastDelayMs;
+
+    /**
+     * @param method The HTTP method as issued by the client, before any method override.
+     * @param endpoint The endpoint relative to the project, for example {@code queues/jobs/messages}.
+     */
+    public RetryContext(String method, String endpoint) {
+        this.method = method;
+        this.endpoint = endpoint;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the number of attempts which have failed so far.
+     */
+    public int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    /**
+     * Returns the error of the latest attempt.
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Returns the delay the policy chose before the latest attempt, 0 before the first retry.
+     */
+    public long getLastDelayMs() {
+        return lastDelayMs;
+    }
+
+    /**
+     * Returns the time in milliseconds since the first attempt started.
+     */
+    public long getElapsedMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    void attemptFailed(IOException error) {
+        failedAttempts++;
+        lastError = error;
+    }
+
+    void retryScheduled(long delayMs) {
+        lastDelayMs = delayMs;
+    }
+}
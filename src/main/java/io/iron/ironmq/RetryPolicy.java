@@ -0,0 +1,41 @@
+package io.iron.ironmq;
+
+/**
+ * The RetryPolicy interface decides whether and when a {@link Client} retries a failed request.
+ *
+ * The client calls {@link #requestStarted(RetryContext)} once per request and
+ * {@link #nextDelayMs(RetryContext)} after every failed attempt. Blocking requests sleep for the
+ * returned delay; asynchronous requests schedule the next attempt without holding a thread.
+ *
+ * Implementations must be thread-safe: a single policy is shared by every request a client makes.
+ * Presets can be combined, for example:
+ *
+ * <pre>
+ * client.setRetryPolicy(new DeadlineRetryPolicy(
+ *         new RetryBudget(new DecorrelatedJitterRetryPolicy(), 0.2, 10), 30000));
+ * </pre>
+ *
+ * @see DecorrelatedJitterRetryPolicy
+ * @see RetryBudget
+ * @see DeadlineRetryPolicy
+ */
+public interface RetryPolicy {
+    /**
+     * A policy which never retries.
+     */
+    RetryPolicy NEVER = context -> -1;
+
+    /**
+     * Called once before the first attempt of every request.
+     */
+    default void requestStarted(RetryContext context) {
+    }
+
+    /**
+     * Returns the time in milliseconds to wait before the next attempt, or a negative value to
+     * give up and report {@link RetryContext#getLastError()} to the caller.
+     *
+     * @param context The request, with the error of the attempt which has just failed.
+     */
+    long nextDelayMs(RetryContext context);
+}
@@ -0,0 +1,44 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * The Transport interface sends HTTP requests on behalf of a {@link Client}.
+ *
+ * Implementations must be thread-safe: a single transport is shared by every request a client makes.
+ * Methods other than GET, POST and PUT are tunnelled through POST with an
+ * {@code X-HTTP-Method-Override} header by the client before they reach the transport.
+ *
+ * @see JdkHttpTransport
+ * @see UrlConnectionTransport
+ */
+public interface Transport {
+    /**
+     * Sends the request and returns as soon as the response status and headers are available.
+     * The caller has to close the returned response.
+     *
+     * @throws java.io.IOException If there is an error accessing the server.
+     */
+    TransportResponse execute(TransportRequest request) throws IOException;
+
+    /**
+     * Sends the request without blocking the calling thread. The returned future completes once the
+     * whole response has been received, so reading its body never blocks.
+     *
+     * The default implementation is only a blocking fallback for transports built on a blocking
+     * HTTP client: it calls {@link #execute(TransportRequest)} on a thread of its own (a virtual
+     * thread on Java 21 and later) that stays busy for the whole request, and the body may still
+     * block when it is read. Transports that can send requests asynchronously should override it.
+     */
+    default CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(request);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, BlockingExecutor.get());
+    }
+}
@@ -0,0 +1,59 @@
+package io.iron.ironmq;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The TransportRequest class represents a single HTTP request passed to a {@link Transport}.
+ */
+public class TransportRequest {
+    private final String method;
+    private final URL url;
+    private final Map<String, String> headers;
+    private final byte[] body;
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+
+    /**
+     * @param method HTTP method.
+     * @param url Target URL.
+     * @param headers Request headers.
+     * @param body Encoded request body or null if there is no body.
+     * @param connectTimeoutMs Connection timeout in milliseconds, 0 means no timeout.
+     * @param readTimeoutMs Response timeout in milliseconds, 0 means no timeout.
+     */
+    public TransportRequest(String method, URL url, Map<String, String> headers, byte[] body,
+                            int connectTimeoutMs, int readTimeoutMs) {
+        this.method = method;
+        this.url = url;
+        this.headers = headers == null ? Collections.<String, String>emptyMap() : headers;
+        this.body = body;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+}
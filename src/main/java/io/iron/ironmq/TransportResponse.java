@@ -0,0 +1,38 @@
+package io.iron.ironmq;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The TransportResponse interface represents the response of a {@link Transport} to a request.
+ * The body has to be closed, either directly or through {@link #close()}, to free the connection.
+ */
+public interface TransportResponse {
+    /**
+     * Returns the HTTP status code.
+     */
+    int getStatus();
+
+    /**
+     * Returns the reason phrase of the status line, or null if the transport does not have one.
+     * HTTP/2 responses never carry one.
+     */
+    default String getReasonPhrase() {
+        return null;
+    }
+
+    /**
+     * Returns the first value of the specified header or null if the header is absent.
+     */
+    String getHeader(String name);
+
+    /**
+     * Returns the response body. For error statuses this is the error body.
+     */
+    InputStream getBody() throws IOException;
+
+    /**
+     * Discards the rest of the body and frees the connection.
+     */
+    void close();
+}
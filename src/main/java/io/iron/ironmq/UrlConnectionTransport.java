@@ -0,0 +1,130 @@
+package io.iron.ironmq;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The UrlConnectionTransport class sends requests through {@link HttpURLConnection}s leased from
+ * a {@link ConnectionPool}. Unless a pool is given explicitly, the pool shared by the request's
+ * endpoint is used.
+ */
+public class UrlConnectionTransport implements Transport {
+    private final ConnectionPool pool;
+
+    /**
+     * Creates a transport leasing connections from the shared pool of each endpoint.
+     */
+    public UrlConnectionTransport() {
+        this(null);
+    }
+
+    /**
+     * Creates a transport leasing all connections from the specified pool.
+     */
+    public UrlConnectionTransport(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    public TransportResponse execute(TransportRequest request) throws IOException {
+        ConnectionPool pool = this.pool != null ? this.pool : ConnectionPool.forUrl(request.getUrl());
+        long leaseTimeoutMs = request.getConnectTimeoutMs() > 0 ? request.getConnectTimeoutMs() : Long.MAX_VALUE;
+        HttpURLConnection conn = pool.lease(request.getUrl(), leaseTimeoutMs);
+        try {
+            conn.setRequestMethod(request.getMethod());
+            for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+            byte[] body = request.getBody();
+            if (body != null) {
+                conn.setDoOutput(true);
+                conn.setFixedLengthStreamingMode(body.length);
+            }
+            conn.setConnectTimeout(request.getConnectTimeoutMs());
+            conn.setReadTimeout(request.getReadTimeoutMs());
+
+            conn.connect();
+
+            if (body != null) {
+                OutputStream out = conn.getOutputStream();
+                out.write(body);
+                out.close();
+            }
+
+            return new Response(pool, conn, conn.getResponseCode());
+        } catch (IOException e) {
+            pool.release(conn);
+            throw e;
+        } catch (RuntimeException e) {
+            pool.release(conn);
+            throw e;
+        }
+    }
+
+    /**
+     * Opening and draining the body block on the socket, so they are guarded by a lock rather than
+     * a monitor, which would pin a virtual thread to its carrier while it waits.
+     */
+    private static class Response implements TransportResponse {
+        private final ConnectionPool pool;
+        private final HttpURLConnection conn;
+        private final int status;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private InputStream body;
+
+        Response(ConnectionPool pool, HttpURLConnection conn, int status) {
+            this.pool = pool;
+            this.conn = conn;
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getReasonPhrase() {
+            try {
+                return conn.getResponseMessage();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        public String getHeader(String name) {
+            return conn.getHeaderField(name);
+        }
+
+        public InputStream getBody() throws IOException {
+            lock.lock();
+            try {
+                if (body == null) {
+                    InputStream stream = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+                    if (stream == null) {
+                        stream = new java.io.ByteArrayInputStream(new byte[0]);
+                    }
+                    body = new FilterInputStream(stream) {
+                        @Override
+                        public void close() {
+                            Response.this.close();
+                        }
+                    };
+                }
+                return body;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                pool.release(conn);
+            }
+        }
+    }
+}
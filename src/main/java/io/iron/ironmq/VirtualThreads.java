@@ -0,0 +1,92 @@
+package io.iron.ironmq;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The VirtualThreads class creates virtual threads on Java 21 and later. The library is compiled
+ * for Java 11, so the API is looked up by reflection.
+ *
+ * The blocking {@link Queue} API can be called from virtual threads: the default
+ * {@link JdkHttpTransport} parks the calling thread while it waits for a response, and no lock
+ * the client holds while waiting is a monitor, so carriers are not pinned.
+ *
+ * <pre>
+ * ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("consumer");
+ * executor.submit(() -&gt; queue.reserve(100, 60, 30));
+ * </pre>
+ */
+public final class VirtualThreads {
+    static final private Method ofVirtual = lookUp();
+
+    private VirtualThreads() {
+    }
+
+    private static Method lookUp() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the running JVM supports virtual threads.
+     */
+    public static boolean isSupported() {
+        return ofVirtual != null;
+    }
+
+    /**
+     * Returns a factory of virtual threads named {@code <prefix>-<n>}.
+     *
+     * @throws UnsupportedOperationException If the JVM does not support virtual threads.
+     */
+    public static ThreadFactory factory(String prefix) {
+        if (ofVirtual == null) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later");
+        }
+        try {
+            Object builder = ofVirtual.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix + "-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    /**
+     * Returns an executor starting a new virtual thread named {@code <prefix>-<n>} for every task.
+     *
+     * @throws UnsupportedOperationException If the JVM does not support virtual threads.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(String prefix) {
+        ThreadFactory factory = factory(prefix);
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    /**
+     * Returns a factory of threads named {@code <prefix>-<n>}, which are virtual if {@code virtual}
+     * is true and daemon platform threads otherwise.
+     */
+    static ThreadFactory factory(String prefix, boolean virtual) {
+        if (virtual) {
+            return factory(prefix);
+        }
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -1,21 +1,44 @@
 package io.iron.ironmq.keystone;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import io.iron.ironmq.Codecs;
 import io.iron.ironmq.HttpClient;
 import io.iron.ironmq.TokenContainer;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.net.URL;
 import java.util.HashMap;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The KeystoneIdentity class authenticates requests with tokens issued by an OpenStack Keystone server.
+ *
+ * Requests only read the cached token. When less than {@code refreshAheadMs} is left, a background
+ * thread fetches the next token while requests go on with the current one. Background refreshes,
+ * failed or not, are at least a second apart. Only when there is no valid token do requests wait,
+ * and then all of them wait for the same call to Keystone.
+ */
 public class KeystoneIdentity implements TokenContainer {
+    public static final long DEFAULT_REFRESH_AHEAD_MS = 300000;
+    // Keeps tokens living shorter than refreshAheadMs from being refreshed on every request.
+    private static final long minRefreshIntervalMs = 1000;
+
+    static final private Gson gson = Codecs.gson().newBuilder()
+            .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.S")
+            .create();
+
     String server;
     String tenant;
     String username;
     String password;
-    Token tokenInfo;
+    private volatile Token tokenInfo;
+    private volatile long refreshAheadMs = DEFAULT_REFRESH_AHEAD_MS;
+    private volatile long lastRefresh;
+    final private AtomicReference<CompletableFuture<Token>> refreshing = new AtomicReference<CompletableFuture<Token>>();
 
     protected KeystoneIdentity() {
     }
@@ -43,37 +66,108 @@ public class KeystoneIdentity implements TokenContainer {
         this.password = password;
     }
 
+    public long getRefreshAheadMs() {
+        return refreshAheadMs;
+    }
+
+    /**
+     * @param refreshAheadMs Time in milliseconds before expiry at which the next token is fetched
+     *                       in the background.
+     */
+    public void setRefreshAheadMs(long refreshAheadMs) {
+        this.refreshAheadMs = refreshAheadMs;
+    }
+
+    /**
+     * Returns the id of a valid token. Blocks only if there is no valid token yet.
+     *
+     * @throws java.io.IOException If no valid token is cached and Keystone could not issue one.
+     */
     public String getToken() throws IOException {
-        if (tokenInfo == null || tokenInfo.isExpired()) {
-            Gson gson = new GsonBuilder()
-                    .setDateFormat("yyyy-MM-dd'T'HH:mm:ss.S")
-                    .create();
-
-            KeystoneGetTokenPayload payload = new KeystoneGetTokenPayload(
-                new Auth(
-                    tenant,
-                    new PasswordCredentials(username, password)
-                )
-            );
-            String body = gson.toJson(payload);
-
-            URL url = new URL(server + (server.endsWith("/") ? "" : "/") + "tokens");
-
-            String method = "POST";
-
-            HttpClient client = HttpClient.create();
-            HashMap<String, String> headers = new HashMap<String, String>() {{
-                put("Content-Type", "application/json");
-                put("Accept", "application/json");
-            }};
-            Reader response = client.singleRequest(method, url, body, headers);
-            KeystoneGetTokenResponse tokenResponse = gson.fromJson(response, KeystoneGetTokenResponse.class);
-            response.close();
+        Token token = tokenInfo;
+        if (token == null || token.isExpired()) {
+            return awaitRefresh().getId();
+        }
+        if (token.getRemainingMs() <= refreshAheadMs && System.currentTimeMillis() - lastRefresh >= minRefreshIntervalMs) {
+            refreshInBackground();
+        }
+        return token.getId();
+    }
 
-            tokenInfo = tokenResponse.getAccess().getToken();
+    /**
+     * Waits for a new token, fetching it on the calling thread unless another thread already is.
+     */
+    private Token awaitRefresh() throws IOException {
+        CompletableFuture<Token> future = new CompletableFuture<Token>();
+        CompletableFuture<Token> running = refreshing.compareAndExchange(null, future);
+        if (running == null) {
+            refresh(future);
+            running = future;
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a Keystone token");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
         }
+    }
 
-        return tokenInfo.getId();
+    private void refreshInBackground() {
+        CompletableFuture<Token> future = new CompletableFuture<Token>();
+        if (refreshing.compareAndSet(null, future)) {
+            Thread thread = new Thread(() -> refresh(future), "ironmq-keystone-" + tenant);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Fetches a token and completes the future with it. Must only be called by the thread which
+     * installed the future in {@code refreshing}.
+     */
+    private void refresh(CompletableFuture<Token> future) {
+        lastRefresh = System.currentTimeMillis();
+        try {
+            Token token = requestToken();
+            tokenInfo = token;
+            refreshing.set(null);
+            future.complete(token);
+        } catch (Throwable e) {
+            refreshing.set(null);
+            future.completeExceptionally(e);
+        }
+    }
+
+    private Token requestToken() throws IOException {
+        KeystoneGetTokenPayload payload = new KeystoneGetTokenPayload(
+            new Auth(
+                tenant,
+                new PasswordCredentials(username, password)
+            )
+        );
+        String body = gson.toJson(payload);
+
+        URL url = new URL(server + (server.endsWith("/") ? "" : "/") + "tokens");
+
+        String method = "POST";
+
+        HttpClient client = HttpClient.create();
+        HashMap<String, String> headers = new HashMap<String, String>() {{
+            put("Content-Type", "application/json");
+            put("Accept", "application/json");
+        }};
+        Reader response = client.singleRequest(method, url, body, headers);
+        try {
+            KeystoneGetTokenResponse tokenResponse = gson.fromJson(response, KeystoneGetTokenResponse.class);
+            return tokenResponse.getAccess().getToken();
+        } finally {
+            response.close();
+        }
     }
 
     public static String readFully(Reader reader) throws IOException {
@@ -2,7 +2,6 @@ package io.iron.ironmq.keystone;
 
 import com.google.gson.annotations.SerializedName;
 
-import javax.sound.midi.MidiFileFormat;
 import java.util.Date;
 
 public class Token {
@@ -60,8 +59,16 @@ public class Token {
      * @param seconds Number of seconds
      */
     public boolean isExpired(int seconds) {
+        return getRemainingMs() <= seconds * 1000L;
+    }
+
+    /**
+     * Returns the time in milliseconds until the token expires, measured on the local clock.
+     */
+    public long getRemainingMs() {
         long diff = localIssuedAt.getTime() - issuedAt.getTime();
         long localExpiresAtTime = expiresAt.getTime() + diff;
-        return (new Date().getTime() - seconds * 1000) >= localExpiresAtTime;
+        return localExpiresAtTime - new Date().getTime();
     }
+
 }
@@ -4,6 +4,7 @@ package client.iron.ironmq;
 import io.iron.ironmq.*;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.ClassRule;
 import org.junit.Test;
 
 import java.io.FileInputStream;
@@ -39,9 +40,12 @@ public class ClientIronMQTest {
     private String projectId = "";
     private Client client;
 
+    @ClassRule
+    public static final MockIronMQServer.Project project = new MockIronMQServer.Project();
+
     @Before
     public void setUp() throws Exception {
-        client = new Client();
+        client = project.client(() -> new Client());
     }
 
     @Test
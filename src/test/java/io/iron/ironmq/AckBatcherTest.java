@@ -0,0 +1,137 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class AckBatcherTest {
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        Client client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        client.setCircuitBreaker(null);
+        server.seed("ack-queue", 10, "Test message");
+        queue = client.queue("ack-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private ArrayList<CompletableFuture<Void>> ackAll(AckBatcher acks, Messages messages) {
+        ArrayList<CompletableFuture<Void>> results = new ArrayList<CompletableFuture<Void>>();
+        for (Message message : messages.getMessages()) {
+            results.add(acks.ack(message));
+        }
+        acks.flush();
+        return results;
+    }
+
+    @Test
+    public void testDeletesInBulk() throws Exception {
+        AckBatcher acks = new AckBatcher(queue, 100, 60000);
+        Messages messages = queue.reserve(10, 60, 0);
+        long requests = server.getRequestCount();
+        for (CompletableFuture<Void> result : ackAll(acks, messages)) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(requests + 1, server.getRequestCount());
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+        acks.close();
+    }
+
+    @Test
+    public void testThrottledBatchFailsAsWhole() throws Exception {
+        AckBatcher acks = new AckBatcher(queue, 100, 60000);
+        Messages messages = queue.reserve(10, 60, 0);
+        long requests = server.getRequestCount();
+        server.failNext(1, 429);
+        for (CompletableFuture<Void> result : ackAll(acks, messages)) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected HTTPException");
+            } catch (ExecutionException e) {
+                Assert.assertEquals(429, ((HTTPException) e.getCause()).getStatusCode());
+            }
+        }
+        // The batch was not split into single deletes.
+        Assert.assertEquals(requests + 1, server.getRequestCount());
+
+        for (CompletableFuture<Void> result : ackAll(acks, messages)) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        acks.close();
+    }
+
+    @Test
+    public void testRejectedBatchIsSplit() throws Exception {
+        AckBatcher acks = new AckBatcher(queue, 100, 60000);
+        Messages messages = queue.reserve(10, 60, 0);
+        long requests = server.getRequestCount();
+        server.failNext(1, 400);
+        for (CompletableFuture<Void> result : ackAll(acks, messages)) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(requests + 11, server.getRequestCount());
+        acks.close();
+    }
+
+    @Test
+    public void testSlowSendDoesNotBlockAcks() throws Exception {
+        // Stands in for work done on the sending thread, like fetching a Keystone token.
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final JdkHttpTransport delegate = new JdkHttpTransport();
+        Client client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        client.setTransport(new Transport() {
+            public TransportResponse execute(TransportRequest request) throws IOException {
+                return delegate.execute(request);
+            }
+
+            @Override
+            public CompletableFuture<TransportResponse> executeAsync(TransportRequest request) {
+                if (sending.getCount() == 0) {
+                    return delegate.executeAsync(request);
+                }
+                sending.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return delegate.executeAsync(request);
+            }
+        });
+        Messages messages = queue.reserve(2, 60, 0);
+        AckBatcher acks = new AckBatcher(client.queue("ack-queue"), 1, 60000);
+
+        Thread sender = new Thread(() -> acks.ack(messages.getMessage(0)));
+        sender.start();
+        Assert.assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<CompletableFuture<Void>> second =
+                CompletableFuture.supplyAsync(() -> acks.ack(messages.getMessage(1)));
+        // Fails if the second ack waits for the first batch to be sent.
+        CompletableFuture<Void> secondAck = second.get(5, TimeUnit.SECONDS);
+
+        unblock.countDown();
+        sender.join();
+        secondAck.get(5, TimeUnit.SECONDS);
+        acks.close();
+        Assert.assertEquals(8, queue.getInfoAboutQueue().getSize());
+    }
+}
@@ -0,0 +1,109 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+public class AsyncQueueTest {
+    private MockIronMQServer server;
+    private AsyncQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = server.createClient().queue("async-queue").async();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static Throwable failure(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        Assert.fail("Expected the future to fail");
+        return null;
+    }
+
+    @Test
+    public void testPushReserveDelete() throws Exception {
+        String id = queue.push("Hello").get();
+        Message message = queue.reserve().get();
+        Assert.assertEquals(id, message.getId());
+        Assert.assertEquals("Hello", message.getBody());
+
+        queue.deleteMessage(message).get();
+        Assert.assertEquals(0, queue.getInfoAboutQueue().get().getSize());
+        Assert.assertTrue(failure(queue.reserve()) instanceof EmptyQueueException);
+    }
+
+    @Test
+    public void testPushMessagesKeepsOrder() throws Exception {
+        Ids ids = queue.pushMessages(new String[]{"one", "two", "three"}).get();
+        Assert.assertEquals(3, ids.getSize());
+
+        Messages messages = queue.reserve(10, 60, 0).get();
+        Assert.assertEquals(3, messages.getSize());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(ids.getId(i), messages.getMessage(i).getId());
+        }
+        queue.deleteMessages(messages).get();
+        Assert.assertEquals(0, queue.peek(10).get().getSize());
+    }
+
+    @Test
+    public void testTouchAndRelease() throws Exception {
+        queue.push("Hello").get();
+        Message message = queue.reserve().get();
+        String reservationId = message.getReservationId();
+
+        MessageOptions touched = queue.touchMessage(message, 30L).get();
+        Assert.assertFalse(reservationId.equals(touched.getReservationId()));
+        Assert.assertEquals(touched.getReservationId(), message.getReservationId());
+
+        queue.releaseMessage(message).get();
+        Assert.assertEquals("Hello", queue.reserve().get().getBody());
+        // The released reservation is no longer valid.
+        Assert.assertTrue(failure(queue.deleteMessage(message)) instanceof HTTPException);
+    }
+
+    @Test
+    public void testKeepsManyOperationsInFlight() throws Exception {
+        List<CompletableFuture<String>> pushes = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 500; i++) {
+            pushes.add(queue.push("Message " + i));
+        }
+        Set<String> ids = new HashSet<String>();
+        for (CompletableFuture<String> push : pushes) {
+            Assert.assertTrue(ids.add(push.get()));
+        }
+        Assert.assertEquals(500, queue.getInfoAboutQueue().get().getSize());
+    }
+
+    @Test
+    public void testReportsErrors() throws Exception {
+        AsyncQueue missing = server.createClient().queue("missing-queue").async();
+        Throwable error = failure(missing.getInfoAboutQueue());
+        Assert.assertTrue(error instanceof HTTPException);
+        Assert.assertEquals(404, ((HTTPException) error).getStatusCode());
+    }
+
+    @Test
+    public void testRetriesServerErrors() throws Exception {
+        server.failNext(2, 503);
+        queue.push("Hello").get();
+        Assert.assertEquals("Hello", queue.reserve().get().getBody());
+    }
+}
@@ -0,0 +1,83 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class BatchingProducerTest {
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        Client client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        queue = client.queue("batching-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testBatchesPushes() throws Exception {
+        BatchingProducer producer = new BatchingProducer(queue, 10, BatchingProducer.DEFAULT_MAX_BATCH_BYTES, 60000);
+        ArrayList<CompletableFuture<String>> futures = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(producer.push("Message " + i));
+        }
+        Assert.assertEquals(5, producer.getBufferedMessages());
+        producer.close();
+        for (CompletableFuture<String> future : futures) {
+            Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(3, server.getRequestCount());
+
+        Assert.assertEquals(25, queue.reserve(100, 60, 0).getSize());
+    }
+
+    @Test
+    public void testLingerSendsPartialBatch() throws Exception {
+        BatchingProducer producer = new BatchingProducer(queue, 100, BatchingProducer.DEFAULT_MAX_BATCH_BYTES, 10);
+        Assert.assertNotNull(producer.push("Test message").get(5, TimeUnit.SECONDS));
+        producer.close();
+    }
+
+    @Test
+    public void testCountsEncodedBytes() throws Exception {
+        String[] bodies = {"plain", "ünïcödé", "日本語", "😀 emoji", "quote \" and \\ slash\n", "<a href='x'>&amp;</a>", "\u0001"};
+        for (String body : bodies) {
+            String json = Codecs.gson().toJson(body);
+            Assert.assertEquals(body, json.getBytes(StandardCharsets.UTF_8).length - 2, BatchingProducer.encodedLength(body));
+        }
+
+        // Two bodies of 300 characters but 900 bytes do not fit into one batch of 1500 bytes.
+        BatchingProducer producer = new BatchingProducer(queue, 100, 1500, 60000);
+        String body = new String(new char[300]).replace('\0', '語');
+        producer.push(body);
+        producer.push(body);
+        Assert.assertEquals(1, producer.getBufferedMessages());
+        producer.close();
+    }
+
+    @Test
+    public void testRejectsNullBody() throws Exception {
+        BatchingProducer producer = new BatchingProducer(queue);
+        try {
+            producer.push(null);
+            Assert.fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+            Assert.assertEquals("Message body cannot be null", e.getMessage());
+        }
+        Assert.assertEquals(0, producer.getBufferedMessages());
+        producer.close();
+    }
+}
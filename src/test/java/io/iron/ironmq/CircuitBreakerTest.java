@@ -0,0 +1,187 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerTest {
+    private MockIronMQServer server;
+    private Client client;
+    private CircuitBreaker breaker;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        breaker = new CircuitBreaker(server.getCloud());
+        breaker.setMinimumCalls(4);
+        breaker.setOpenMs(200);
+        breaker.setHalfOpenCalls(2);
+        client.setCircuitBreaker(breaker);
+        queue = client.queue("breaker-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private void failPushes(int count, int status) {
+        server.failNext(count, status);
+        for (int i = 0; i < count; i++) {
+            try {
+                queue.push("Test message");
+                Assert.fail("Expected HTTPException");
+            } catch (IOException e) {
+                Assert.assertTrue(e instanceof HTTPException);
+            }
+        }
+    }
+
+    @Test
+    public void testOpensOnFailureRate() throws IOException {
+        queue.push("Test message");
+        queue.push("Test message");
+        failPushes(2, 503);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        long requests = server.getRequestCount();
+        try {
+            queue.push("Test message");
+            Assert.fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            Assert.assertTrue(e.getRetryAfterMs() > 0);
+        }
+        Assert.assertEquals(requests, server.getRequestCount());
+    }
+
+    @Test
+    public void testClientErrorsDoNotOpen() throws IOException {
+        failPushes(4, 404);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOpensOnSlowCalls() throws IOException {
+        breaker.setSlowCallDurationMs(20);
+        breaker.setSlowCallRateThreshold(50);
+        server.setLatencyMs(30);
+        for (int i = 0; i < 4; i++) {
+            queue.push("Test message");
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testLongPollIsNotSlow() throws IOException {
+        breaker.setSlowCallDurationMs(20);
+        breaker.setSlowCallRateThreshold(50);
+        queue.create();
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(0, queue.reserve(1, 30, 1).getMessages().length);
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbes() throws Exception {
+        failPushes(4, 500);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(250);
+
+        queue.push("Test message");
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        queue.push("Test message");
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testFailedProbeReopens() throws Exception {
+        failPushes(4, 500);
+        Thread.sleep(250);
+        failPushes(1, 500);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenLimitsProbes() throws Exception {
+        failPushes(4, 500);
+        Thread.sleep(250);
+        long first = breaker.acquire();
+        breaker.acquire();
+        try {
+            breaker.acquire();
+            Assert.fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            Assert.assertEquals(0, e.getRetryAfterMs());
+        }
+        breaker.record(first, 0, false, true);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testAsyncFailsFast() throws Exception {
+        failPushes(4, 500);
+        long requests = server.getRequestCount();
+        try {
+            client.asyncQueue("breaker-queue").push("Test message").get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected CircuitBreakerOpenException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof CircuitBreakerOpenException);
+        }
+        Assert.assertEquals(requests, server.getRequestCount());
+    }
+
+    @Test
+    public void testOpenIsNotRetried() throws IOException {
+        client.setRetryPolicy(new DecorrelatedJitterRetryPolicy());
+        failPushes(4, 400);
+        breaker.setFailureRateThreshold(1);
+        breaker.setOpenMs(60000);
+        server.failNext(1, 503);
+        try {
+            queue.push("Test message");
+            Assert.fail("Expected CircuitBreakerOpenException");
+        } catch (CircuitBreakerOpenException e) {
+            Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        }
+    }
+
+    @Test
+    public void testOption() {
+        Cloud cloud = new Cloud("http", "breaker-option.example.com", 80);
+        Assert.assertNull(CircuitBreaker.fromOption(cloud, "false"));
+        Assert.assertNull(CircuitBreaker.fromOption(cloud, false));
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("failure_rate", 25.0);
+        settings.put("minimum_calls", "5");
+        settings.put("open_ms", 1000.0);
+        CircuitBreaker configured = CircuitBreaker.fromOption(cloud, settings);
+        Assert.assertEquals(25, configured.getFailureRateThreshold());
+        Assert.assertEquals(5, configured.getMinimumCalls());
+        Assert.assertEquals(1000, configured.getOpenMs());
+        Assert.assertEquals(CircuitBreaker.DEFAULT_HALF_OPEN_CALLS, configured.getHalfOpenCalls());
+        Assert.assertSame(configured, CircuitBreaker.forCloud(cloud));
+        Assert.assertSame(configured, CircuitBreaker.fromOption(cloud, true));
+        Assert.assertNull(CircuitBreaker.fromOption(cloud, null));
+
+        settings.put("enabled", false);
+        Assert.assertNull(CircuitBreaker.fromOption(cloud, settings));
+    }
+
+    @Test
+    public void testOffByDefault() {
+        Assert.assertNull(server.createClient().getCircuitBreaker());
+        Assert.assertSame(CircuitBreaker.forCloud(server.getCloud()), CircuitBreaker.fromOption(server.getCloud(), "true"));
+    }
+}
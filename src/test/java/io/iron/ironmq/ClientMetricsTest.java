@@ -0,0 +1,144 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClientMetricsTest {
+    private MockIronMQServer server;
+    private Client client;
+    private ClientMetrics metrics;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        client.setRetryPolicy(new DecorrelatedJitterRetryPolicy(5, 1, 5, new IdempotencyTable()));
+        client.setCircuitBreaker(null);
+        metrics = new ClientMetrics();
+        client.setMetrics(metrics);
+        queue = client.queue("metrics-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000000, histogram.getMaxMicros());
+        Assert.assertEquals(500500, histogram.getMeanMicros(), 1);
+        Assert.assertEquals(500000, histogram.getPercentileMicros(50), 500000 * 0.04);
+        Assert.assertEquals(990000, histogram.getPercentileMicros(99), 990000 * 0.04);
+        Assert.assertEquals(1000000, histogram.getPercentileMicros(100));
+        Assert.assertEquals(0, new LatencyHistogram().getPercentileMicros(50));
+
+        for (long micros = 0; micros < 1L << 30; micros = micros * 3 / 2 + 1) {
+            int index = LatencyHistogram.indexOf(micros);
+            Assert.assertTrue(micros <= LatencyHistogram.highestValueIn(index));
+            Assert.assertTrue(index == 0 || micros > LatencyHistogram.highestValueIn(index - 1));
+        }
+    }
+
+    @Test
+    public void testOperationNames() {
+        Assert.assertEquals("GET queues", ClientMetrics.operationName("GET", "queues?per_page=30"));
+        Assert.assertEquals("POST queues/{queue}/reservations",
+                ClientMetrics.operationName("POST", "queues/orders/reservations"));
+        Assert.assertEquals("DELETE queues/{queue}/messages/{id}",
+                ClientMetrics.operationName("DELETE", "queues/orders/messages/123"));
+        Assert.assertEquals("POST queues/{queue}/messages/{id}/subscribers/{subscriber}",
+                ClientMetrics.operationName("POST", "queues/orders/messages/123/subscribers/456"));
+    }
+
+    @Test
+    public void testRecordsRequests() throws IOException {
+        queue.push("Test message");
+        Message message = queue.reserve();
+        queue.deleteMessage(message);
+
+        OperationMetrics push = metrics.getOperation("POST queues/{queue}/messages");
+        Assert.assertEquals(1, push.getRequests());
+        Assert.assertEquals(1, push.getAttempts());
+        Assert.assertEquals(0, push.getFailures());
+        Assert.assertEquals(1, push.getLatency().getCount());
+        Assert.assertTrue(push.getBytesSent() > "Test message".length());
+        Assert.assertTrue(push.getBytesReceived() > 0);
+
+        OperationMetrics reserve = metrics.getOperation("POST queues/{queue}/reservations");
+        Assert.assertEquals(1, reserve.getRequests());
+        Assert.assertTrue(reserve.getBytesReceived() > "Test message".length());
+        Assert.assertNotNull(metrics.getOperation("DELETE queues/{queue}/messages/{id}"));
+
+        Assert.assertEquals(3, metrics.getStatusCount(200));
+        Assert.assertEquals(0, metrics.getInFlight());
+        Assert.assertEquals(0, push.getInFlight());
+        Assert.assertTrue(metrics.toString().contains("POST queues/{queue}/messages: requests=1"));
+    }
+
+    @Test
+    public void testRecordsRetriesAndFailures() throws Exception {
+        server.failNext(2, 503);
+        queue.push("Test message");
+        OperationMetrics push = metrics.getOperation("POST queues/{queue}/messages");
+        Assert.assertEquals(1, push.getRequests());
+        Assert.assertEquals(3, push.getAttempts());
+        Assert.assertEquals(2, push.getRetries());
+        Assert.assertEquals(0, push.getFailures());
+        Assert.assertEquals(2, metrics.getStatusCount(503));
+
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        server.failNext(1, 503);
+        try {
+            client.asyncQueue("metrics-queue").push("Test message").get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected HTTPException");
+        } catch (Exception e) {
+            Assert.assertTrue(e.getCause() instanceof HTTPException);
+        }
+        Assert.assertEquals(2, push.getRequests());
+        Assert.assertEquals(1, push.getFailures());
+        Assert.assertEquals(3, metrics.getStatusCount(503));
+        Assert.assertEquals(0, metrics.getInFlight());
+    }
+
+    @Test
+    public void testRecordingStops() throws IOException {
+        client.setMetrics(null);
+        queue.push("Test message");
+        Assert.assertTrue(metrics.getOperations().isEmpty());
+    }
+
+    @Test
+    public void testExportEvery() throws Exception {
+        AtomicInteger exports = new AtomicInteger();
+        Closeable exporting = metrics.exportEvery(m -> {
+            Assert.assertSame(metrics, m);
+            exports.incrementAndGet();
+        }, 20);
+        Thread.sleep(200);
+        exporting.close();
+        int count = exports.get();
+        Assert.assertTrue(count >= 2);
+        Thread.sleep(100);
+        Assert.assertEquals(count, exports.get());
+
+        try {
+            metrics.exportEvery(m -> {}, 0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
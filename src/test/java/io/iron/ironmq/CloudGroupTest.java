@@ -0,0 +1,212 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class CloudGroupTest {
+    private MockIronMQServer primary;
+    private MockIronMQServer secondary;
+    private CloudGroup group;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        primary = new MockIronMQServer().start();
+        secondary = new MockIronMQServer().start();
+        group = new CloudGroup(primary.getCloud(), secondary.getCloud());
+        client = primary.createClient();
+        client.setCloudGroup(group);
+        client.setRetryPolicy(new DecorrelatedJitterRetryPolicy(5, 1, 5, new IdempotencyTable()));
+        client.setCircuitBreaker(null);
+    }
+
+    @After
+    public void tearDown() {
+        primary.close();
+        secondary.close();
+    }
+
+    @Test
+    public void testHealthyPrimaryKeepsTraffic() throws IOException {
+        Queue queue = client.queue("group-queue");
+        for (int i = 0; i < 10; i++) {
+            queue.push("Test message");
+        }
+        Assert.assertEquals(10, primary.getRequestCount());
+        Assert.assertEquals(0, secondary.getRequestCount());
+        Assert.assertTrue(group.getLatencyMs(primary.getCloud()) >= 0);
+        Assert.assertEquals(-1, group.getLatencyMs(secondary.getCloud()), 0);
+    }
+
+    @Test
+    public void testFailoverOnServerErrors() throws IOException {
+        Queue queue = client.queue("group-queue");
+        queue.push("Test message");
+        primary.setFailureRate(1, 503);
+        for (int i = 0; i < 10; i++) {
+            queue.push("Test message");
+        }
+        Assert.assertEquals(10, secondary.getRequestCount());
+        Assert.assertTrue(primary.getRequestCount() <= 4);
+        Assert.assertTrue(group.getErrorRate(primary.getCloud()) > 0);
+    }
+
+    @Test
+    public void testFailoverWhenPrimaryIsDown() throws Exception {
+        Queue queue = client.queue("group-queue");
+        queue.push("Test message");
+        primary.close();
+        for (int i = 0; i < 5; i++) {
+            queue.push("Test message");
+        }
+        String id = client.asyncQueue("group-queue").push("Test message").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(6, secondary.getRequestCount());
+        Assert.assertNotNull(id);
+    }
+
+    @Test
+    public void testFasterEndpointIsPreferred() throws Exception {
+        group.setProbeIntervalMs(300);
+        primary.setLatencyMs(40);
+        Queue queue = client.queue("group-queue");
+        long deadline = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < deadline) {
+            queue.push("Test message");
+        }
+        Assert.assertTrue(secondary.getRequestCount() > 2 * primary.getRequestCount());
+    }
+
+    @Test
+    public void testErrorsFade() throws Exception {
+        Cloud first = group.getClouds().get(0);
+        Cloud second = group.getClouds().get(1);
+        group.setErrorDecayMs(20);
+        group.record(first, 0, true);
+        group.record(first, 0, true);
+        group.record(second, TimeUnit.MILLISECONDS.toNanos(5), false);
+        Assert.assertSame(second, group.select());
+
+        Thread.sleep(300);
+        Assert.assertTrue(group.getErrorRate(first) < 0.01);
+        Assert.assertSame(first, group.select());
+    }
+
+    @Test
+    public void testOpenCircuitIsSkipped() throws IOException {
+        CircuitBreaker breaker = new CircuitBreaker(primary.getCloud());
+        breaker.setMinimumCalls(1);
+        client.setCircuitBreaker(breaker);
+        CircuitBreaker.setForCloud(secondary.getCloud(), new CircuitBreaker(secondary.getCloud()));
+        breaker.record(breaker.acquire(), 0, true, true);
+
+        client.queue("group-queue").push("Test message");
+        Assert.assertEquals(0, primary.getRequestCount());
+        Assert.assertEquals(1, secondary.getRequestCount());
+    }
+
+    // Makes the secondary endpoint look much faster than the primary one.
+    private void preferSecondary() {
+        Cloud first = group.getClouds().get(0);
+        Cloud second = group.getClouds().get(1);
+        for (int i = 0; i < 10; i++) {
+            group.record(first, TimeUnit.SECONDS.toNanos(1), false);
+            group.record(second, TimeUnit.MILLISECONDS.toNanos(1), false);
+        }
+        Assert.assertSame(second, group.select());
+    }
+
+    @Test
+    public void testFailoverEndpointsGetConfiguredProtection() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(primary.getCloud());
+        breaker.setMinimumCalls(2);
+        client.setCircuitBreaker(breaker);
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(primary.getCloud(), 5, 1, 50);
+        limiter.setMaxWaitMs(1234);
+        client.setConcurrencyLimiter(limiter);
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        Queue queue = client.queue("group-queue");
+        primary.close();
+        secondary.setFailureRate(1, 503);
+        for (int i = 0; i < 5; i++) {
+            try {
+                queue.push("Test message");
+            } catch (IOException e) {
+            }
+        }
+
+        CircuitBreaker secondaryBreaker = CircuitBreaker.forCloud(secondary.getCloud());
+        Assert.assertNotSame(breaker, secondaryBreaker);
+        Assert.assertEquals(2, secondaryBreaker.getMinimumCalls());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, secondaryBreaker.getState());
+        ConcurrencyLimiter secondaryLimiter = ConcurrencyLimiter.forCloud(secondary.getCloud());
+        Assert.assertNotSame(limiter, secondaryLimiter);
+        Assert.assertEquals(1234, secondaryLimiter.getMaxWaitMs());
+    }
+
+    @Test
+    public void testMessageCallsStayWithIssuingEndpoint() throws Exception {
+        primary.seed("group-queue", 5, "Test message");
+        Queue queue = client.queue("group-queue");
+        Messages reserved = queue.reserve(3, 60, 0);
+        MessageStream stream = queue.reserveStream(1, 60, 0);
+        Message streamed = stream.next();
+        stream.close();
+        preferSecondary();
+
+        Message first = reserved.getMessage(0);
+        queue.touchMessage(first);
+        queue.deleteMessage(first);
+        queue.releaseMessage(reserved.getMessage(1), 0);
+        client.asyncQueue("group-queue").deleteMessages(new Messages(reserved.getMessage(2))).get(5, TimeUnit.SECONDS);
+        AckBatcher acks = new AckBatcher(queue);
+        CompletableFuture<Void> acked = acks.ack(streamed);
+        acks.close();
+        acked.get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(0, secondary.getRequestCount());
+        // The released message and the one never reserved are left.
+        Assert.assertEquals(2, primary.createClient().queue("group-queue").getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testIdleEndpointIsProbed() throws Exception {
+        group.setProbeIntervalMs(100);
+        Queue queue = client.queue("group-queue");
+        queue.push("Test message");
+        Thread.sleep(150);
+        queue.push("Test message");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (group.getLatencyMs(secondary.getCloud()) < 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(group.getLatencyMs(secondary.getCloud()) >= 0);
+        Assert.assertEquals(2, primary.getRequestCount());
+        Assert.assertEquals(1, secondary.getRequestCount());
+        // The probe did not push anything.
+        try {
+            secondary.createClient().queue("group-queue").getInfoAboutQueue();
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testLongPollIsNotLatency() throws Exception {
+        Queue queue = client.queue("group-queue");
+        queue.create();
+        Assert.assertEquals(0, queue.reserve(1, 60, 1).getSize());
+        Assert.assertTrue(group.getLatencyMs(primary.getCloud()) < 500);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyGroup() {
+        new CloudGroup();
+    }
+}
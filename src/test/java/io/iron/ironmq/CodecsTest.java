@@ -0,0 +1,85 @@
+package io.iron.ironmq;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+public class CodecsTest {
+    private final Gson reflective = new Gson();
+    private final Gson shared = Codecs.gson();
+
+    private void assertSameJson(Object value) {
+        Assert.assertEquals(JsonParser.parseString(reflective.toJson(value)), JsonParser.parseString(shared.toJson(value)));
+    }
+
+    @Test
+    public void testEncodesLikeReflection() {
+        Message message = new Message();
+        message.setBody("Body with \"quotes\" and ünicode");
+        message.setDelay(5);
+        message.setExpiresIn(3600);
+        assertSameJson(message);
+        assertSameJson(new Message());
+        assertSameJson(new Messages(message, new Message()));
+
+        assertSameJson(new MessageOptions("id", "reservation", 30L));
+        assertSameJson(new MessageOptions("reservation", 10L));
+        assertSameJson(new MessagesOptions(new MessageOptions[]{
+                new MessageOptions("1", "r1"), new SubscribedMessageOptions("2", "r2", "subscriber"), message}));
+
+        assertSameJson(new QueueModel(60, 3600));
+        ArrayList<Alert> alerts = new ArrayList<Alert>();
+        alerts.add(new Alert(Alert.typeFixed, Alert.directionAscending, 100, "alerts-queue"));
+        assertSameJson(new QueueModel(alerts));
+        QueueModel pushQueue = new QueueModel();
+        pushQueue.addSubscriber(new Subscriber("http://example.com", "example"));
+        assertSameJson(pushQueue);
+    }
+
+    @Test
+    public void testDecodesMessages() {
+        String json = "{\"messages\":[{\"id\":\"1\",\"body\":\"first\",\"reserved_count\":2," +
+                "\"reservation_id\":\"r1\",\"unknown\":{\"nested\":[1,2]}},{\"id\":\"2\",\"body\":null}]}";
+        Messages messages = shared.fromJson(json, Messages.class);
+        Assert.assertEquals(2, messages.getSize());
+        Assert.assertEquals("1", messages.getMessage(0).getId());
+        Assert.assertEquals("first", messages.getMessage(0).getBody());
+        Assert.assertEquals(2, messages.getMessage(0).getReservedCount());
+        Assert.assertEquals("r1", messages.getMessage(0).getReservationId());
+        Assert.assertNull(messages.getMessage(1).getBody());
+
+        Assert.assertEquals(0, shared.fromJson("{\"messages\":[]}", Messages.class).getSize());
+    }
+
+    @Test
+    public void testDecodesIds() {
+        Ids ids = shared.fromJson("{\"ids\":[\"1\",\"2\"],\"msg\":\"Messages put on queue.\"}", Ids.class);
+        Assert.assertArrayEquals(new String[]{"1", "2"}, ids.getIds());
+    }
+
+    @Test
+    public void testDecodesQueueModel() {
+        String json = "{\"name\":\"q\",\"project_id\":\"p\",\"size\":3,\"total_messages\":10," +
+                "\"message_timeout\":60,\"message_expiration\":604800,\"type\":\"multicast\"," +
+                "\"push\":{\"subscribers\":[{\"name\":\"s\",\"url\":\"http://example.com\"}],\"retries\":3}}";
+        QueueModel queue = shared.fromJson(json, QueueModel.class);
+        Assert.assertEquals("q", queue.getName());
+        Assert.assertEquals("p", queue.getProjectId());
+        Assert.assertEquals(3, queue.getSizeLong());
+        Assert.assertEquals(10, queue.getTotalMessagesLong());
+        Assert.assertEquals(60, queue.getMessageTimeout());
+        Assert.assertEquals(604800, queue.getMessageExpiration());
+        Assert.assertEquals("multicast", queue.getType());
+        Assert.assertEquals("s", queue.getSubscribers().get(0).getName());
+    }
+
+    @Test
+    public void testDecodesLikeReflection() {
+        String json = "{\"id\":\"1\",\"body\":\"b\",\"reserved_count\":1,\"reservation_id\":\"r\",\"expires_in\":60,\"delay\":2}";
+        Assert.assertEquals(reflective.toJson(reflective.fromJson(json, Message.class)),
+                reflective.toJson(shared.fromJson(json, Message.class)));
+    }
+}
@@ -0,0 +1,153 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class CompressionTest {
+    private MockIronMQServer server;
+    private Client client;
+    private ClientMetrics metrics;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        metrics = new ClientMetrics();
+        client.setMetrics(metrics);
+        queue = client.queue("compression-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static String[] batch(int count) {
+        String[] bodies = new String[count];
+        for (int i = 0; i < count; i++) {
+            bodies[i] = "{\"order\":" + i + ",\"customer\":\"customer-" + (i % 7) + "\",\"items\":[\"a\",\"b\",\"c\"]}";
+        }
+        return bodies;
+    }
+
+    private static byte[] roundTrip(Compression compression, byte[] data) throws IOException {
+        Compression.Output output = compression.newOutput();
+        output.write(data, 0, data.length / 2);
+        output.write(data, data.length / 2, data.length - data.length / 2);
+        output.close();
+        InputStream in = Compression.decode(new ByteArrayInputStream(output.toByteArray()), output.getContentEncoding());
+        return in.readAllBytes();
+    }
+
+    @Test
+    public void testOutputRoundTrips() throws IOException {
+        byte[] data = String.join(",", batch(100)).getBytes("UTF-8");
+        for (String encoding : Arrays.asList(Compression.GZIP, Compression.DEFLATE)) {
+            Compression compression = new Compression(encoding);
+            compression.setLevel(1);
+            Assert.assertArrayEquals(data, roundTrip(compression, data));
+
+            Compression.Output output = compression.newOutput();
+            output.write(data);
+            output.close();
+            Assert.assertEquals(encoding, output.getContentEncoding());
+            Assert.assertEquals(data.length, output.getUncompressedLength());
+            Assert.assertTrue(output.toByteArray().length * 4 < data.length);
+        }
+    }
+
+    @Test
+    public void testSmallBodiesAreNotCompressed() throws IOException {
+        Compression.Output output = new Compression(Compression.GZIP).newOutput();
+        output.write("small".getBytes("UTF-8"));
+        output.close();
+        Assert.assertNull(output.getContentEncoding());
+        Assert.assertEquals("small", new String(output.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testCompressedBatch() throws IOException {
+        client.setCompression(new Compression(Compression.GZIP));
+        String[] bodies = batch(100);
+        Ids ids = queue.pushMessages(bodies);
+        Assert.assertEquals(100, ids.getSize());
+
+        OperationMetrics push = metrics.getOperation("POST queues/{queue}/messages");
+        Assert.assertTrue(push.getRequestCompressionRatio() > 4);
+        Assert.assertTrue(push.getResponseCompressionRatio() > 1);
+        Assert.assertTrue(push.getBytesReceivedUncompressed() > push.getBytesReceived());
+
+        Messages messages = queue.reserve(100);
+        Assert.assertEquals(100, messages.getSize());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(bodies[i], messages.getMessage(i).getBody());
+        }
+    }
+
+    @Test
+    public void testDeflateAndAsync() throws Exception {
+        Compression compression = new Compression(Compression.DEFLATE);
+        compression.setThresholdBytes(0);
+        client.setCompression(compression);
+        String id = client.asyncQueue("compression-queue").push("Test message").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(id, queue.peek().getId());
+
+        OperationMetrics push = metrics.getOperation("POST queues/{queue}/messages");
+        Assert.assertTrue(push.getBytesSentUncompressed() > 0);
+        Assert.assertTrue(push.getBytesSent() != push.getBytesSentUncompressed());
+    }
+
+    @Test
+    public void testUncompressedByDefault() throws IOException {
+        Assert.assertNull(client.getCompression());
+        queue.pushMessages(batch(100));
+        OperationMetrics push = metrics.getOperation("POST queues/{queue}/messages");
+        Assert.assertEquals(1.0, push.getRequestCompressionRatio(), 0);
+        Assert.assertEquals(1.0, push.getResponseCompressionRatio(), 0);
+    }
+
+    @Test
+    public void testErrorMessagesAreDecompressed() throws IOException {
+        client.setCompression(new Compression(Compression.GZIP));
+        try {
+            queue.getInfoAboutQueue();
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+            Assert.assertEquals("Queue not found", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testFromOption() {
+        Assert.assertNull(Compression.fromOption(null));
+        Assert.assertNull(Compression.fromOption(false));
+        Assert.assertEquals(Compression.GZIP, Compression.fromOption(true).getEncoding());
+        Assert.assertEquals(Compression.DEFLATE, Compression.fromOption("deflate").getEncoding());
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("threshold_bytes", 4096.0);
+        settings.put("level", 1);
+        Compression compression = Compression.fromOption(settings);
+        Assert.assertEquals(Compression.GZIP, compression.getEncoding());
+        Assert.assertEquals(4096, compression.getThresholdBytes());
+        Assert.assertEquals(1, compression.getLevel());
+
+        try {
+            new Compression("br");
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
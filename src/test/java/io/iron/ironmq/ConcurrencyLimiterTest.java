@@ -0,0 +1,293 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ConcurrencyLimiterTest {
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private MockIronMQServer server;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        client.setCircuitBreaker(null);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private ConcurrencyLimiter limiter(int initialLimit, int minLimit, int maxLimit) {
+        return new ConcurrencyLimiter(server.getCloud(), initialLimit, minLimit, maxLimit);
+    }
+
+    private static void assertRejected(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected ConcurrencyLimitExceededException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ConcurrencyLimitExceededException);
+        }
+    }
+
+    @Test
+    public void testRejectsRightAway() throws Exception {
+        ConcurrencyLimiter limiter = limiter(2, 1, 10);
+        limiter.setMaxWaitMs(0);
+        limiter.acquire();
+        limiter.acquire();
+        try {
+            limiter.acquire();
+            Assert.fail("Expected ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+            Assert.assertEquals(2, e.getLimit());
+        }
+        Assert.assertEquals(1, limiter.getRejected());
+        Assert.assertEquals(2, limiter.getInFlight());
+
+        limiter.cancel();
+        limiter.acquire();
+        Assert.assertEquals(2, limiter.getInFlight());
+    }
+
+    @Test
+    public void testHandsOverReleasedPermit() throws Exception {
+        ConcurrencyLimiter limiter = limiter(1, 1, 1);
+        limiter.acquire();
+        CompletableFuture<Void> waiting = limiter.acquireAsync();
+        Assert.assertFalse(waiting.isDone());
+        Assert.assertEquals(1, limiter.getQueued());
+
+        limiter.release(MS, false);
+        waiting.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(0, limiter.getQueued());
+        Assert.assertEquals(1, limiter.getInFlight());
+    }
+
+    @Test
+    public void testQueuedRequestsTimeOut() throws Exception {
+        ConcurrencyLimiter limiter = limiter(1, 1, 1);
+        limiter.setMaxWaitMs(50);
+        limiter.setMaxQueued(1);
+        limiter.acquire();
+        CompletableFuture<Void> waiting = limiter.acquireAsync();
+        // The line is full.
+        assertRejected(limiter.acquireAsync());
+
+        assertRejected(waiting);
+        Assert.assertEquals(0, limiter.getQueued());
+        Assert.assertEquals(2, limiter.getRejected());
+        limiter.release(MS, false);
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testDecreasesOncePerRoundTrip() throws Exception {
+        ConcurrencyLimiter limiter = limiter(20, 1, 100);
+        limiter.acquire();
+        limiter.release(TimeUnit.SECONDS.toNanos(10), false);
+        Assert.assertEquals(20, limiter.getLimit());
+
+        limiter.acquire();
+        limiter.acquire();
+        limiter.release(MS, true);
+        limiter.release(MS, true);
+        Assert.assertEquals(18, limiter.getLimit());
+    }
+
+    @Test
+    public void testSlowRoundTripIsOverload() throws Exception {
+        ConcurrencyLimiter limiter = limiter(10, 1, 100);
+        limiter.setBackoffRatio(0.5);
+        limiter.acquire();
+        limiter.release(MS, false);
+        limiter.acquire();
+        limiter.release(10 * MS, false);
+        Assert.assertEquals(5, limiter.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(20);
+            limiter.acquire();
+            limiter.release(10 * MS, false);
+        }
+        Assert.assertEquals(1, limiter.getLimit());
+    }
+
+    @Test
+    public void testGrowsWhileSaturated() throws Exception {
+        ConcurrencyLimiter limiter = limiter(4, 1, 6);
+        for (int round = 0; round < 50; round++) {
+            int permits = limiter.getLimit();
+            for (int i = 0; i < permits; i++) {
+                limiter.acquire();
+            }
+            for (int i = 0; i < permits; i++) {
+                limiter.release(MS, false);
+            }
+        }
+        Assert.assertEquals(6, limiter.getLimit());
+
+        // A single request at a time does not raise the limit.
+        ConcurrencyLimiter idle = limiter(4, 1, 6);
+        for (int i = 0; i < 50; i++) {
+            idle.acquire();
+            idle.release(MS, false);
+        }
+        Assert.assertEquals(4, idle.getLimit());
+    }
+
+    @Test
+    public void testLimitsClientRequests() throws Exception {
+        ConcurrencyLimiter limiter = limiter(2, 1, 2);
+        limiter.setMaxWaitMs(0);
+        client.setConcurrencyLimiter(limiter);
+        client.setRetryPolicy(new DecorrelatedJitterRetryPolicy());
+        server.setLatencyMs(200);
+        AsyncQueue queue = client.asyncQueue("limited-queue");
+
+        CompletableFuture<String> first = queue.push("Test message");
+        CompletableFuture<String> second = queue.push("Test message");
+        assertRejected(queue.push("Test message"));
+        try {
+            client.queue("limited-queue").push("Test message");
+            Assert.fail("Expected ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+        }
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(2, server.getRequestCount());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testOverloadLowersClientLimit() throws Exception {
+        ConcurrencyLimiter limiter = limiter(10, 1, 10);
+        client.setConcurrencyLimiter(limiter);
+        server.failNext(1, 503);
+        try {
+            client.queue("limited-queue").push("Test message");
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(503, e.getStatusCode());
+        }
+        Assert.assertEquals(9, limiter.getLimit());
+
+        // Client errors say nothing about the endpoint's load.
+        server.failNext(1, 404);
+        try {
+            client.queue("limited-queue").push("Test message");
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+        }
+        Assert.assertEquals(9, limiter.getLimit());
+        Assert.assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void testReservationsAreNotLimited() throws Exception {
+        ConcurrencyLimiter limiter = limiter(1, 1, 1);
+        limiter.setMaxWaitMs(0);
+        client.setConcurrencyLimiter(limiter);
+        Queue queue = client.queue("limited-queue");
+        queue.push("Test message");
+
+        limiter.acquire();
+        Assert.assertEquals(1, queue.reserve(1).getSize());
+        try {
+            queue.push("Test message");
+            Assert.fail("Expected ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+        }
+    }
+
+    @Test
+    public void testRejectionKeepsBreakerProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(server.getCloud());
+        breaker.setMinimumCalls(1);
+        breaker.setOpenMs(100);
+        breaker.setHalfOpenCalls(1);
+        client.setCircuitBreaker(breaker);
+        ConcurrencyLimiter limiter = limiter(1, 1, 1);
+        limiter.setMaxWaitMs(0);
+        client.setConcurrencyLimiter(limiter);
+        Queue queue = client.queue("limited-queue");
+
+        server.failNext(1, 503);
+        try {
+            queue.push("Test message");
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+        }
+        Thread.sleep(150);
+
+        limiter.acquire();
+        try {
+            queue.push("Test message");
+            Assert.fail("Expected ConcurrencyLimitExceededException");
+        } catch (ConcurrencyLimitExceededException e) {
+        }
+        limiter.cancel();
+        // The rejected request did not use up the only probe.
+        queue.push("Test message");
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testWaitIsNotSlowCall() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(server.getCloud());
+        breaker.setMinimumCalls(2);
+        breaker.setSlowCallDurationMs(100);
+        breaker.setSlowCallRateThreshold(50);
+        client.setCircuitBreaker(breaker);
+        ConcurrencyLimiter limiter = limiter(1, 1, 1);
+        client.setConcurrencyLimiter(limiter);
+        AsyncQueue queue = client.asyncQueue("limited-queue");
+
+        for (int i = 0; i < 2; i++) {
+            limiter.acquire();
+            CompletableFuture<String> waiting = queue.push("Test message");
+            Thread.sleep(200);
+            limiter.release(MS, false);
+            waiting.get(5, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testOption() {
+        Cloud cloud = new Cloud("http", "limiter-option.example.com", 80);
+        Assert.assertNull(ConcurrencyLimiter.fromOption(cloud, null));
+        Assert.assertNull(ConcurrencyLimiter.fromOption(cloud, "false"));
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put("initial_limit", 8.0);
+        settings.put("max_limit", "16");
+        settings.put("max_wait_ms", 0);
+        settings.put("backoff_ratio", 0.75);
+        ConcurrencyLimiter configured = ConcurrencyLimiter.fromOption(cloud, settings);
+        Assert.assertEquals(8, configured.getLimit());
+        Assert.assertEquals(0, configured.getMaxWaitMs());
+        Assert.assertEquals(0.75, configured.getBackoffRatio(), 0);
+        Assert.assertEquals(ConcurrencyLimiter.DEFAULT_MAX_QUEUED, configured.getMaxQueued());
+        Assert.assertSame(configured, ConcurrencyLimiter.forCloud(cloud));
+        Assert.assertSame(configured, ConcurrencyLimiter.fromOption(cloud, true));
+
+        settings.put("enabled", false);
+        Assert.assertNull(ConcurrencyLimiter.fromOption(cloud, settings));
+    }
+}
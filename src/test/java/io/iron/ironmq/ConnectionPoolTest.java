@@ -0,0 +1,94 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class ConnectionPoolTest {
+    private MockIronMQServer server;
+    private URL url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        url = new URL("http://localhost:" + server.getPort() + "/3/projects/"
+                + MockIronMQServer.PROJECT_ID + "/queues");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testBoundsLeasedConnections() throws Exception {
+        ConnectionPool pool = new ConnectionPool(server.getCloud(), 2);
+        HttpURLConnection first = pool.lease(url, 100);
+        HttpURLConnection second = pool.lease(url, 100);
+        Assert.assertEquals(2, pool.getLeasedConnections());
+
+        try {
+            pool.lease(url, 50);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+        }
+
+        pool.release(first);
+        HttpURLConnection third = pool.lease(url, 100);
+        pool.release(second);
+        pool.release(third);
+        Assert.assertEquals(0, pool.getLeasedConnections());
+    }
+
+    @Test
+    public void testClosesConnectionsWithoutKeepAlive() throws Exception {
+        ConnectionPool pool = new ConnectionPool(server.getCloud(), 1);
+        HttpURLConnection conn = pool.lease(url, 100);
+        Assert.assertNull(conn.getRequestProperty("Connection"));
+        pool.release(conn);
+
+        pool.setKeepAlive(false);
+        conn = pool.lease(url, 100);
+        Assert.assertEquals("close", conn.getRequestProperty("Connection"));
+        pool.release(conn);
+    }
+
+    @Test
+    public void testTransportReturnsLeases() throws Exception {
+        ConnectionPool pool = new ConnectionPool(server.getCloud(), 1);
+        Client client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        client.setTransport(new UrlConnectionTransport(pool));
+        Queue queue = client.queue("pool-queue");
+
+        for (int i = 0; i < 5; i++) {
+            queue.push("Message " + i);
+        }
+        Assert.assertEquals(5, queue.reserve(10).getSize());
+        try {
+            client.queue("missing-queue").peek();
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        }
+        Assert.assertEquals(0, pool.getLeasedConnections());
+    }
+
+    @Test
+    public void testSharesPoolPerEndpoint() throws Exception {
+        Cloud cloud = server.getCloud();
+        ConnectionPool shared = ConnectionPool.forCloud(cloud);
+        Assert.assertSame(shared, ConnectionPool.forCloud(server.getCloud()));
+        Assert.assertSame(shared, ConnectionPool.forUrl(url));
+
+        ConnectionPool replacement = new ConnectionPool(cloud, 5);
+        ConnectionPool.setForCloud(cloud, replacement);
+        Assert.assertSame(replacement, ConnectionPool.forUrl(url));
+        Assert.assertEquals(5, ConnectionPool.forCloud(cloud).getMaxConnectionsPerHost());
+    }
+}
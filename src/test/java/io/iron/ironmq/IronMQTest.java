@@ -2,6 +2,7 @@ package io.iron.ironmq;
 
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.ClassRule;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -19,9 +20,12 @@ public class IronMQTest {
     private Client client;
     private Queue queue;
 
+    @ClassRule
+    public static final MockIronMQServer.Project project = new MockIronMQServer.Project();
+
     @Before
     public void setUp() throws Exception {
-        client = new Client(null, null, null, 3, 1);
+        client = project.client(() -> new Client(null, null, null, 3, 1));
         queue = new Queue(client, "my_queue_" + ts());
     }
 
@@ -32,7 +36,7 @@ public class IronMQTest {
     @Test(expected = HTTPException.class)
     public void testErrorResponse() throws IOException {
         // intentionally invalid project/token combination
-        Client client = new Client("4444444444444", "aaaaaa");
+        Client client = new Client("4444444444444", "aaaaaa", project.getCloud());
         Queue queue = client.queue("test-queue");
         queue.push("test");
     }
@@ -0,0 +1,133 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+
+public class LeaseManagerTest {
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = server.createClient().queue("lease-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static void await(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!check.done()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Check {
+        boolean done() throws Exception;
+    }
+
+    @Test
+    public void testRenewsReservations() throws Exception {
+        server.seed("lease-queue", 1, "Test message");
+        Message message = queue.reserve(1, 1).getMessage(0);
+        String reservationId = message.getReservationId();
+        LeaseManager leases = new LeaseManager(queue, 1, 10);
+        LeaseManager.Lease lease = leases.register(message);
+        Assert.assertEquals(1, leases.getActiveLeases());
+
+        // Three times the reservation timeout; the message stays reserved all along.
+        Thread.sleep(3000);
+        Assert.assertFalse(lease.isLost());
+        Assert.assertFalse(reservationId.equals(message.getReservationId()));
+        Assert.assertEquals(0, queue.reserve(1, 60, 0).getSize());
+
+        lease.delete().get();
+        Assert.assertEquals(0, leases.getActiveLeases());
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+        leases.close();
+    }
+
+    @Test
+    public void testClosingLeaseReleasesMessage() throws Exception {
+        server.seed("lease-queue", 1, "Test message");
+        Message message = queue.reserve(1, 60).getMessage(0);
+        LeaseManager leases = new LeaseManager(queue);
+        try (LeaseManager.Lease lease = leases.register(message)) {
+            Assert.assertSame(message, lease.getMessage());
+        }
+        Assert.assertEquals(0, leases.getActiveLeases());
+        await("the release", () -> queue.reserve(1, 60, 0).getSize() == 1);
+        leases.close();
+    }
+
+    @Test
+    public void testCompletedLeaseIsNotRenewed() throws Exception {
+        server.seed("lease-queue", 1, "Test message");
+        Message message = queue.reserve(1, 1).getMessage(0);
+        String reservationId = message.getReservationId();
+        LeaseManager leases = new LeaseManager(queue, 1, 10);
+        LeaseManager.Lease lease = leases.register(message);
+        lease.complete();
+        lease.close();
+
+        Thread.sleep(1500);
+        Assert.assertEquals(reservationId, message.getReservationId());
+        // The reservation ran out, so the message is back on the queue.
+        Assert.assertEquals(1, queue.reserve(1, 60, 0).getSize());
+        leases.close();
+    }
+
+    @Test
+    public void testLosesLeaseOfDeletedMessage() throws Exception {
+        server.seed("lease-queue", 1, "Test message");
+        Message message = queue.reserve(1, 1).getMessage(0);
+        LeaseManager leases = new LeaseManager(queue, 1, 10);
+        LeaseManager.Lease lease = leases.register(message);
+        queue.deleteMessage(message);
+
+        await("the lost lease", lease::isLost);
+        Assert.assertTrue(lease.getLostCause() instanceof HTTPException);
+        Assert.assertEquals(0, leases.getActiveLeases());
+        try {
+            lease.delete().get();
+            Assert.fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+        }
+        leases.close();
+    }
+
+    @Test
+    public void testClosedManagerRejectsLeases() throws Exception {
+        LeaseManager leases = new LeaseManager(queue);
+        leases.close();
+        try {
+            leases.register(new Message());
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testSettingsAreValidated() {
+        try {
+            new LeaseManager(queue, 0, 100);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new LeaseManager(queue, 60, 0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+public class MessageStreamTest {
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = server.createClient().queue("stream-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testReserveStream() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            queue.push("Message " + i);
+        }
+
+        int count = 0;
+        try (MessageStream stream = queue.reserveStream(100, 60, 0)) {
+            while (stream.hasNext()) {
+                Message message = stream.next();
+                Assert.assertEquals("Message " + count++, message.getBody());
+                Assert.assertNotNull(message.getReservationId());
+                queue.deleteMessage(message);
+            }
+            Assert.assertFalse(stream.hasNext());
+        }
+        Assert.assertEquals(50, count);
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testPeekStreamDoesNotReserve() throws Exception {
+        server.seed("stream-queue", 10, "Test message");
+        int count = 0;
+        try (MessageStream stream = queue.peekStream(100)) {
+            while (stream.hasNext()) {
+                Assert.assertEquals("Test message", stream.next().getBody());
+                count++;
+            }
+        }
+        Assert.assertEquals(10, count);
+        Assert.assertEquals(10, queue.reserve(100, 60, 0).getSize());
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        queue.push("Message");
+        queue.reserve(1, 60, 0);
+
+        MessageStream stream = queue.reserveStream(10, 60, 0);
+        Assert.assertFalse(stream.hasNext());
+        try {
+            stream.next();
+            Assert.fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+        }
+        stream.close();
+    }
+
+    @Test
+    public void testClosingEarlyKeepsMessagesReserved() throws Exception {
+        server.seed("stream-queue", 10, "Test message");
+        MessageStream stream = queue.reserveStream(10, 60, 0);
+        Assert.assertNotNull(stream.next());
+        stream.close();
+        Assert.assertFalse(stream.hasNext());
+
+        // The remaining messages were reserved by the request and are not handed out again.
+        Assert.assertEquals(0, queue.reserve(100, 60, 0).getSize());
+    }
+
+    @Test
+    public void testStreamFreesPooledConnection() throws Exception {
+        ConnectionPool pool = new ConnectionPool(server.getCloud(), 1);
+        Client client = server.createClient();
+        client.setTransport(new UrlConnectionTransport(pool));
+        Queue pooled = client.queue("stream-queue");
+        server.seed("stream-queue", 5, "Test message");
+
+        MessageStream stream = pooled.peekStream(5);
+        Assert.assertTrue(stream.hasNext());
+        Assert.assertEquals(1, pool.getLeasedConnections());
+        stream.close();
+        Assert.assertEquals(0, pool.getLeasedConnections());
+
+        try (MessageStream drained = pooled.peekStream(5)) {
+            while (drained.hasNext()) {
+                drained.next();
+            }
+            Assert.assertEquals(0, pool.getLeasedConnections());
+        }
+    }
+
+    @Test
+    public void testErrorsAreReported() throws Exception {
+        try {
+            server.createClient().queue("missing-queue").peekStream(10);
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        }
+        try {
+            queue.reserveStream(101, 60, 0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
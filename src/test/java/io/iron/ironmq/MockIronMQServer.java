@@ -0,0 +1,984 @@
+package io.iron.ironmq;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.rules.ExternalResource;
+
+/**
+ * The MockIronMQServer class is an in-process implementation of the IronMQ v3 API for tests.
+ *
+ * It serves the queue, message, reservation, touch, release, subscriber and alert endpoints the
+ * client uses, keeping all state in memory. Reservations run out after their timeout and the
+ * message becomes available again, delays and expirations are honoured and long polling waits for
+ * pushed messages. Compressed request bodies are decoded and responses are gzipped for clients
+ * accepting it. The server clock can be moved forward with {@link #advanceTime(long)} so
+ * tests of timeouts do not have to sleep.
+ *
+ * Latency and failures can be injected to exercise retries and timeouts:
+ *
+ * <pre>
+ * MockIronMQServer server = new MockIronMQServer().start();
+ * server.setLatencyMs(20);
+ * server.failNext(2, 503);
+ * Queue queue = server.createClient().queue("orders");
+ * </pre>
+ */
+public class MockIronMQServer implements Closeable {
+    public static final String PROJECT_ID = "mock-project";
+    public static final String TOKEN = "mock-token";
+
+    private static final int defaultPerPage = 30;
+    // Large enough for bursts of thousands of clients connecting at once.
+    private static final int backlog = 4096;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random = new Random();
+    private final AtomicLong requests = new AtomicLong();
+
+    // All queues and messages are guarded by the server's monitor.
+    private final TreeMap<String, MockQueue> queues = new TreeMap<String, MockQueue>();
+    private long lastMessageId;
+    private long clockOffsetMs;
+    // Completed and replaced whenever messages may have become available.
+    private CompletableFuture<Void> changes = new CompletableFuture<Void>();
+
+    private volatile long latencyMs;
+    private volatile double failureRate;
+    private volatile int failureStatus = 503;
+    private int pendingFailures;
+    private int pendingFailureStatus;
+
+    private static class MockQueue {
+        final String name;
+        int messageTimeout = 60;
+        int messageExpiration = 604800;
+        String type = "pull";
+        JsonObject push;
+        JsonArray alerts;
+        long totalMessages;
+        final LinkedHashMap<String, MockMessage> messages = new LinkedHashMap<String, MockMessage>();
+
+        MockQueue(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class MockMessage {
+        final String id;
+        final String body;
+        final long expiresAt;
+        long availableAt;
+        long reservedUntil;
+        String reservationId;
+        int reservedCount;
+
+        MockMessage(String id, String body, long availableAt, long expiresAt) {
+            this.id = id;
+            this.body = body;
+            this.availableAt = availableAt;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isReserved(long now) {
+            return reservationId != null && reservedUntil > now;
+        }
+
+        boolean isAvailable(long now) {
+            return availableAt <= now && !isReserved(now);
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt <= now && !isReserved(now);
+        }
+    }
+
+    private static class MockException extends Exception {
+        final int status;
+
+        MockException(int status, String msg) {
+            super(msg);
+            this.status = status;
+        }
+    }
+
+    /**
+     * Creates a server listening on a free port of the loopback interface.
+     * Requests are not served before {@link #start()} is called.
+     */
+    public MockIronMQServer() throws IOException {
+        this(0);
+    }
+
+    /**
+     * @param port The port to listen on, 0 to pick a free one.
+     */
+    public MockIronMQServer(int port) throws IOException {
+        this(port, false);
+    }
+
+    /**
+     * @param port The port to listen on, 0 to pick a free one.
+     * @param virtualThreads Whether to serve requests on virtual threads, so that many thousands
+     *                       of long polls can wait at the same time. Needs Java 21 or later.
+     */
+    public MockIronMQServer(int port, boolean virtualThreads) throws IOException {
+        // Headers and body are written separately; without TCP_NODELAY every response waits for a delayed ACK.
+        // The JDK reads the setting once, when the first server is created, so it is only set meanwhile.
+        boolean setNodelay = System.getProperty("sun.net.httpserver.nodelay") == null;
+        if (setNodelay) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), backlog);
+        } finally {
+            if (setNodelay) {
+                System.clearProperty("sun.net.httpserver.nodelay");
+            }
+        }
+        // Long polls hold their thread, so every request gets one.
+        if (virtualThreads) {
+            executor = VirtualThreads.newThreadPerTaskExecutor("ironmq-mock-server");
+        } else {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "ironmq-mock-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public MockIronMQServer start() {
+        server.start();
+        return this;
+    }
+
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the cloud pointing at this server.
+     */
+    public Cloud getCloud() {
+        return new Cloud("http", "localhost", getPort());
+    }
+
+    /**
+     * Returns a client authenticated against this server.
+     */
+    public Client createClient() {
+        return new Client(PROJECT_ID, TOKEN, getCloud(), 3);
+    }
+
+    /**
+     * A class rule running tests against the project configured in iron.json, or against a
+     * MockIronMQServer when the ironmq.mock system property is true. Like a real project, the mock
+     * server keeps its queues until all tests of the class have run.
+     *
+     * <pre>
+     * &#64;ClassRule
+     * public static final MockIronMQServer.Project project = new MockIronMQServer.Project();
+     * ...
+     * client = project.client(() -&gt; new Client());
+     * </pre>
+     */
+    public static class Project extends ExternalResource {
+        private MockIronMQServer server;
+
+        @Override
+        protected void before() throws IOException {
+            if (Boolean.getBoolean("ironmq.mock")) {
+                server = new MockIronMQServer().start();
+            }
+        }
+
+        @Override
+        protected void after() {
+            if (server != null) {
+                server.close();
+                server = null;
+            }
+        }
+
+        /**
+         * Returns a client of the mock server, or the client created by {@code configured} otherwise.
+         */
+        public Client client(Supplier<Client> configured) {
+            return server != null ? server.createClient() : configured.get();
+        }
+
+        /**
+         * Returns the cloud pointing at the mock server, or null for the configured one.
+         */
+        public Cloud getCloud() {
+            return server != null ? server.getCloud() : null;
+        }
+    }
+
+    /**
+     * Delays every response by the specified time.
+     */
+    public void setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Fails the specified share of requests, chosen at random, with the given status.
+     *
+     * @param failureRate Probability of a request failing, 0..1.
+     * @param status HTTP status of the failed responses.
+     */
+    public void setFailureRate(double failureRate, int status) {
+        this.failureRate = failureRate;
+        this.failureStatus = status;
+    }
+
+    /**
+     * Fails the next {@code count} requests with the given status.
+     */
+    public synchronized void failNext(int count, int status) {
+        pendingFailures = count;
+        pendingFailureStatus = status;
+    }
+
+    /**
+     * Moves the server clock forward, so reservations, delays and expirations run out early.
+     */
+    public synchronized void advanceTime(long millis) {
+        clockOffsetMs += millis;
+        messagesChanged();
+    }
+
+    /**
+     * Returns the number of requests received, including failed ones.
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * Puts messages onto a queue without going through HTTP, creating the queue if needed.
+     * Useful to fill queues for reservation benchmarks.
+     */
+    public synchronized void seed(String queueName, int count, String body) {
+        MockQueue queue = queues.get(queueName);
+        if (queue == null) {
+            queue = new MockQueue(queueName);
+            queues.put(queueName, queue);
+        }
+        long now = now();
+        for (int i = 0; i < count; i++) {
+            String id = String.format("%019d", ++lastMessageId);
+            queue.messages.put(id, new MockMessage(id, body, now, now + queue.messageExpiration * 1000L));
+            queue.totalMessages++;
+        }
+        messagesChanged();
+    }
+
+    /**
+     * Removes all queues and messages.
+     */
+    public synchronized void reset() {
+        queues.clear();
+    }
+
+    private long now() {
+        return System.currentTimeMillis() + clockOffsetMs;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            JsonObject response;
+            try {
+                injectFailure();
+                response = dispatch(exchange);
+            } catch (MockException e) {
+                send(exchange, e.status, message(e.getMessage()));
+                return;
+            }
+            send(exchange, 200, response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            send(exchange, 500, message(String.valueOf(e)));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void injectFailure() throws MockException {
+        synchronized (this) {
+            if (pendingFailures > 0) {
+                pendingFailures--;
+                throw new MockException(pendingFailureStatus, "Injected failure");
+            }
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            throw new MockException(failureStatus, "Injected failure");
+        }
+    }
+
+    private JsonObject dispatch(HttpExchange exchange) throws IOException, MockException, InterruptedException {
+        String method = exchange.getRequestMethod();
+        String override = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+        if (override != null) {
+            method = override.toUpperCase();
+        }
+
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        if (!("OAuth " + TOKEN).equals(authorization)) {
+            throw new MockException(401, "Invalid project/token combination");
+        }
+
+        String path = exchange.getRequestURI().getRawPath();
+        String prefix = "/3/projects/" + PROJECT_ID + "/queues";
+        int start = path.indexOf("/3/projects/");
+        if (start < 0 || !path.startsWith(prefix, start)) {
+            throw new MockException(401, "Invalid project/token combination");
+        }
+        String rest = path.substring(start + prefix.length());
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        JsonObject body = readBody(exchange);
+
+        if (rest.isEmpty() || rest.equals("/")) {
+            expect(method, "GET");
+            return listQueues(params);
+        }
+        String[] parts = rest.substring(1).split("/");
+        String name = decode(parts[0]);
+
+        if (parts.length == 1) {
+            if (method.equals("GET")) {
+                return getQueue(name);
+            } else if (method.equals("PUT")) {
+                return putQueue(name, body);
+            } else if (method.equals("PATCH")) {
+                return patchQueue(name, body);
+            } else if (method.equals("DELETE")) {
+                return deleteQueue(name);
+            }
+        } else if (parts[1].equals("messages")) {
+            if (parts.length == 2) {
+                if (method.equals("POST")) {
+                    return pushMessages(name, body);
+                } else if (method.equals("GET")) {
+                    return peekMessages(name, params);
+                } else if (method.equals("DELETE")) {
+                    return deleteMessages(name, body);
+                }
+            } else if (parts.length == 3) {
+                if (method.equals("GET")) {
+                    return getMessage(name, parts[2]);
+                } else if (method.equals("DELETE")) {
+                    return deleteMessage(name, parts[2], body);
+                }
+            } else if (parts.length == 4 && method.equals("POST") && parts[3].equals("touch")) {
+                return touchMessage(name, parts[2], body);
+            } else if (parts.length == 4 && method.equals("POST") && parts[3].equals("release")) {
+                return releaseMessage(name, parts[2], body);
+            } else if (parts.length == 4 && method.equals("GET") && parts[3].equals("subscribers")) {
+                return getMessageSubscribers(name, parts[2]);
+            }
+        } else if (parts[1].equals("reservations") && parts.length == 2) {
+            expect(method, "POST");
+            return reserveMessages(name, body);
+        } else if (parts[1].equals("subscribers") && parts.length == 2) {
+            return updateSubscribers(name, method, body);
+        } else if (parts[1].equals("alerts")) {
+            expect(method, "DELETE");
+            return deleteAlerts(name, parts.length == 3 ? parts[2] : null, body);
+        }
+        throw new MockException(404, "Endpoint not found");
+    }
+
+    private synchronized JsonObject listQueues(Map<String, String> params) throws MockException {
+        String previous = params.get("previous");
+        String prefix = params.get("prefix");
+        int perPage = intParam(params, "per_page", defaultPerPage);
+
+        JsonArray list = new JsonArray();
+        Iterator<String> names = (previous == null ? queues.keySet() : queues.tailMap(previous, false).keySet()).iterator();
+        while (names.hasNext() && list.size() < perPage) {
+            String name = names.next();
+            if (prefix != null && !name.startsWith(prefix)) {
+                continue;
+            }
+            JsonObject item = new JsonObject();
+            item.addProperty("name", name);
+            list.add(item);
+        }
+        JsonObject response = new JsonObject();
+        response.add("queues", list);
+        return response;
+    }
+
+    private synchronized JsonObject getQueue(String name) throws MockException {
+        return queueResponse(findQueue(name));
+    }
+
+    private synchronized JsonObject putQueue(String name, JsonObject body) throws MockException {
+        MockQueue queue = queues.get(name);
+        if (queue == null) {
+            queue = new MockQueue(name);
+            queues.put(name, queue);
+        }
+        updateQueue(queue, body);
+        return queueResponse(queue);
+    }
+
+    private synchronized JsonObject patchQueue(String name, JsonObject body) throws MockException {
+        MockQueue queue = findQueue(name);
+        updateQueue(queue, body);
+        return queueResponse(queue);
+    }
+
+    private synchronized JsonObject deleteQueue(String name) throws MockException {
+        findQueue(name);
+        queues.remove(name);
+        messagesChanged();
+        return message("Deleted");
+    }
+
+    private synchronized JsonObject pushMessages(String name, JsonObject body) throws MockException {
+        JsonArray messages = array(body, "messages");
+        if (messages == null || messages.size() == 0) {
+            throw new MockException(400, "Could not find any messages in the request body");
+        }
+        if (messages.size() > 100) {
+            throw new MockException(400, "Too many messages in the request body");
+        }
+        MockQueue queue = queues.get(name);
+        if (queue == null) {
+            queue = new MockQueue(name);
+            queues.put(name, queue);
+        }
+
+        long now = now();
+        JsonArray ids = new JsonArray();
+        for (JsonElement element : messages) {
+            JsonObject message = element.getAsJsonObject();
+            if (!message.has("body") || message.get("body").isJsonNull()) {
+                throw new MockException(400, "Message body is required");
+            }
+            long delay = longField(message, "delay", 0);
+            long expiresIn = longField(message, "expires_in", queue.messageExpiration);
+            String id = String.format("%019d", ++lastMessageId);
+            queue.messages.put(id, new MockMessage(id, message.get("body").getAsString(),
+                    now + delay * 1000, now + expiresIn * 1000));
+            queue.totalMessages++;
+            ids.add(id);
+        }
+        messagesChanged();
+
+        JsonObject response = message("Messages put on queue.");
+        response.add("ids", ids);
+        return response;
+    }
+
+    private synchronized JsonObject peekMessages(String name, Map<String, String> params) throws MockException {
+        MockQueue queue = findQueue(name);
+        int n = intParam(params, "n", 1);
+        checkCount(n);
+
+        long now = now();
+        JsonArray list = new JsonArray();
+        Iterator<MockMessage> it = queue.messages.values().iterator();
+        while (it.hasNext() && list.size() < n) {
+            MockMessage message = it.next();
+            if (message.isExpired(now)) {
+                it.remove();
+            } else if (message.isAvailable(now)) {
+                list.add(messageJson(message, false));
+            }
+        }
+        JsonObject response = new JsonObject();
+        response.add("messages", list);
+        return response;
+    }
+
+    private JsonObject reserveMessages(String name, JsonObject body) throws MockException, InterruptedException {
+        int n = (int) longField(body, "n", 1);
+        checkCount(n);
+        long wait = longField(body, "wait", 0);
+        if (wait < 0 || wait > 30) {
+            throw new MockException(400, "wait has to be within 0..30");
+        }
+
+        long deadline = System.currentTimeMillis() + wait * 1000;
+        while (true) {
+            CompletableFuture<Void> changed;
+            synchronized (this) {
+                changed = changes;
+                MockQueue queue = queues.get(name);
+                if (queue != null) {
+                    long timeout = longField(body, "timeout", queue.messageTimeout);
+                    long now = now();
+                    JsonArray list = new JsonArray();
+                    Iterator<MockMessage> it = queue.messages.values().iterator();
+                    while (it.hasNext() && list.size() < n) {
+                        MockMessage message = it.next();
+                        if (message.isExpired(now)) {
+                            it.remove();
+                        } else if (message.isAvailable(now)) {
+                            message.reservationId = newReservationId();
+                            message.reservedUntil = now + timeout * 1000;
+                            message.reservedCount++;
+                            list.add(messageJson(message, true));
+                        }
+                    }
+                    if (list.size() > 0 || System.currentTimeMillis() >= deadline) {
+                        JsonObject response = new JsonObject();
+                        response.add("messages", list);
+                        return response;
+                    }
+                } else if (System.currentTimeMillis() >= deadline) {
+                    throw new MockException(404, "Queue not found");
+                }
+            }
+            // Waits outside the monitor, so long polls on virtual threads do not pin their carrier.
+            // Also wake up when a delayed message or a reservation is due.
+            try {
+                changed.get(Math.min(100, Math.max(1, deadline - System.currentTimeMillis())), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                // Look again.
+            }
+        }
+    }
+
+    /**
+     * Wakes up waiting long polls. Must be called with the monitor held.
+     */
+    private void messagesChanged() {
+        changes.complete(null);
+        changes = new CompletableFuture<Void>();
+    }
+
+    private synchronized JsonObject getMessage(String name, String id) throws MockException {
+        MockMessage message = findMessage(findQueue(name), id);
+        JsonObject response = new JsonObject();
+        response.add("message", messageJson(message, message.isReserved(now())));
+        return response;
+    }
+
+    private synchronized JsonObject deleteMessage(String name, String id, JsonObject body) throws MockException {
+        MockQueue queue = findQueue(name);
+        MockMessage message = findMessage(queue, id);
+        checkReservation(message, string(body, "reservation_id"));
+        queue.messages.remove(id);
+        return message("Deleted");
+    }
+
+    private synchronized JsonObject deleteMessages(String name, JsonObject body) throws MockException {
+        MockQueue queue = findQueue(name);
+        JsonArray ids = array(body, "ids");
+        if (ids == null) {
+            queue.messages.clear();
+            return message("Cleared");
+        }
+
+        // Validate the whole batch first, so that a bad entry deletes nothing.
+        ArrayList<String> deleted = new ArrayList<String>();
+        for (JsonElement element : ids) {
+            JsonObject ack = element.getAsJsonObject();
+            String id = string(ack, "id");
+            checkReservation(findMessage(queue, id), string(ack, "reservation_id"));
+            deleted.add(id);
+        }
+        for (String id : deleted) {
+            queue.messages.remove(id);
+        }
+        return message("Deleted");
+    }
+
+    private synchronized JsonObject touchMessage(String name, String id, JsonObject body) throws MockException {
+        MockQueue queue = findQueue(name);
+        MockMessage message = findMessage(queue, id);
+        String reservationId = string(body, "reservation_id");
+        if (reservationId == null || !message.isReserved(now()) || !reservationId.equals(message.reservationId)) {
+            throw new MockException(403, "Message not reserved or reservation has expired");
+        }
+        long timeout = longField(body, "timeout", queue.messageTimeout);
+        message.reservationId = newReservationId();
+        message.reservedUntil = now() + timeout * 1000;
+
+        JsonObject response = message("Touched");
+        response.addProperty("reservation_id", message.reservationId);
+        return response;
+    }
+
+    private synchronized JsonObject releaseMessage(String name, String id, JsonObject body) throws MockException {
+        MockMessage message = findMessage(findQueue(name), id);
+        String reservationId = string(body, "reservation_id");
+        if (reservationId == null || !message.isReserved(now()) || !reservationId.equals(message.reservationId)) {
+            throw new MockException(403, "Message not reserved or reservation has expired");
+        }
+        message.reservationId = null;
+        message.reservedUntil = 0;
+        message.availableAt = now() + longField(body, "delay", 0) * 1000;
+        messagesChanged();
+        return message("Released");
+    }
+
+    private synchronized JsonObject getMessageSubscribers(String name, String id) throws MockException {
+        findMessage(findQueue(name), id);
+        JsonObject response = new JsonObject();
+        response.add("subscribers", new JsonArray());
+        return response;
+    }
+
+    private synchronized JsonObject updateSubscribers(String name, String method, JsonObject body) throws MockException {
+        MockQueue queue = findQueue(name);
+        JsonArray subscribers = array(body, "subscribers");
+        if (subscribers == null) {
+            throw new MockException(400, "Could not find any subscribers in the request body");
+        }
+        if (queue.push == null) {
+            queue.push = new JsonObject();
+        }
+        JsonArray current = array(queue.push, "subscribers");
+        if (current == null || method.equals("PUT")) {
+            current = new JsonArray();
+        }
+
+        for (JsonElement element : subscribers) {
+            JsonObject subscriber = element.getAsJsonObject();
+            String subscriberName = string(subscriber, "name");
+            int index = indexOfName(current, subscriberName);
+            if (method.equals("DELETE")) {
+                if (index >= 0) {
+                    current.remove(index);
+                }
+            } else if (method.equals("POST") || method.equals("PUT")) {
+                if (index >= 0) {
+                    current.set(index, subscriber);
+                } else {
+                    current.add(subscriber);
+                }
+            } else {
+                throw new MockException(405, "Method not allowed");
+            }
+        }
+        queue.push.add("subscribers", current);
+        if (queue.type.equals("pull")) {
+            queue.type = "multicast";
+        }
+        return message("Updated");
+    }
+
+    private synchronized JsonObject deleteAlerts(String name, String alertId, JsonObject body) throws MockException {
+        MockQueue queue = findQueue(name);
+        ArrayList<String> ids = new ArrayList<String>();
+        if (alertId != null) {
+            ids.add(decode(alertId));
+        } else {
+            JsonArray alerts = array(body, "alerts");
+            if (alerts != null) {
+                for (JsonElement element : alerts) {
+                    ids.add(string(element.getAsJsonObject(), "id"));
+                }
+            }
+        }
+        for (String id : ids) {
+            int index = indexOf(queue.alerts, "id", id);
+            if (index < 0) {
+                throw new MockException(404, "Alert not found");
+            }
+            queue.alerts.remove(index);
+        }
+        return message("Deleted");
+    }
+
+    private void updateQueue(MockQueue queue, JsonObject body) throws MockException {
+        JsonObject model = body.has("queue") && body.get("queue").isJsonObject()
+                ? body.getAsJsonObject("queue") : new JsonObject();
+        queue.messageTimeout = (int) longField(model, "message_timeout", queue.messageTimeout);
+        queue.messageExpiration = (int) longField(model, "message_expiration", queue.messageExpiration);
+        if (model.has("push") && model.get("push").isJsonObject()) {
+            JsonObject push = model.getAsJsonObject("push").deepCopy();
+            if (queue.push != null) {
+                for (Map.Entry<String, JsonElement> entry : push.entrySet()) {
+                    queue.push.add(entry.getKey(), entry.getValue());
+                }
+            } else {
+                queue.push = push;
+            }
+            if (queue.type.equals("pull")) {
+                queue.type = "multicast";
+            }
+        }
+        String type = string(model, "type");
+        if (type != null && !type.isEmpty()) {
+            queue.type = type;
+        }
+        JsonArray alerts = array(model, "alerts");
+        if (alerts != null) {
+            queue.alerts = new JsonArray();
+            for (JsonElement element : alerts) {
+                JsonObject alert = element.getAsJsonObject().deepCopy();
+                if (!alert.has("id")) {
+                    alert.addProperty("id", UUID.randomUUID().toString().replace("-", ""));
+                }
+                queue.alerts.add(alert);
+            }
+        }
+    }
+
+    private JsonObject queueResponse(MockQueue queue) {
+        JsonObject model = new JsonObject();
+        model.addProperty("name", queue.name);
+        model.addProperty("project_id", PROJECT_ID);
+        model.addProperty("type", queue.type);
+        model.addProperty("message_timeout", queue.messageTimeout);
+        model.addProperty("message_expiration", queue.messageExpiration);
+        model.addProperty("size", liveSize(queue, now()));
+        model.addProperty("total_messages", queue.totalMessages);
+        if (queue.push != null) {
+            model.add("push", queue.push.deepCopy());
+        }
+        if (queue.alerts != null) {
+            model.add("alerts", queue.alerts.deepCopy());
+        }
+        JsonObject response = new JsonObject();
+        response.add("queue", model);
+        return response;
+    }
+
+    /**
+     * Drops expired messages and returns the number of remaining ones.
+     */
+    private static int liveSize(MockQueue queue, long now) {
+        Iterator<MockMessage> it = queue.messages.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isExpired(now)) {
+                it.remove();
+            }
+        }
+        return queue.messages.size();
+    }
+
+    private void checkReservation(MockMessage message, String reservationId) throws MockException {
+        if (message.isReserved(now())) {
+            if (!message.reservationId.equals(reservationId)) {
+                throw new MockException(403, "Message is reserved by another consumer");
+            }
+        } else if (reservationId != null && !reservationId.isEmpty()) {
+            throw new MockException(403, "Reservation has expired");
+        }
+    }
+
+    private MockQueue findQueue(String name) throws MockException {
+        MockQueue queue = queues.get(name);
+        if (queue == null) {
+            throw new MockException(404, "Queue not found");
+        }
+        return queue;
+    }
+
+    private MockMessage findMessage(MockQueue queue, String id) throws MockException {
+        MockMessage message = id == null ? null : queue.messages.get(id);
+        if (message == null || message.isExpired(now())) {
+            throw new MockException(404, "Message not found");
+        }
+        return message;
+    }
+
+    private static JsonObject messageJson(MockMessage message, boolean withReservation) {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", message.id);
+        json.addProperty("body", message.body);
+        json.addProperty("reserved_count", message.reservedCount);
+        if (withReservation) {
+            json.addProperty("reservation_id", message.reservationId);
+        }
+        return json;
+    }
+
+    private static String newReservationId() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    private static void checkCount(int n) throws MockException {
+        if (n < 1 || n > 100) {
+            throw new MockException(400, "n has to be within 1..100");
+        }
+    }
+
+    private static void expect(String method, String expected) throws MockException {
+        if (!method.equals(expected)) {
+            throw new MockException(405, "Method not allowed");
+        }
+    }
+
+    private static JsonObject message(String msg) {
+        JsonObject json = new JsonObject();
+        json.addProperty("msg", msg);
+        return json;
+    }
+
+    private static int indexOfName(JsonArray list, String name) {
+        return indexOf(list, "name", name);
+    }
+
+    private static int indexOf(JsonArray list, String field, String value) {
+        if (list == null || value == null) {
+            return -1;
+        }
+        for (int i = 0; i < list.size(); i++) {
+            if (value.equals(string(list.get(i).getAsJsonObject(), field))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static JsonArray array(JsonObject json, String field) {
+        JsonElement element = json.get(field);
+        return element != null && element.isJsonArray() ? element.getAsJsonArray() : null;
+    }
+
+    private static String string(JsonObject json, String field) {
+        JsonElement element = json.get(field);
+        return element != null && !element.isJsonNull() ? element.getAsString() : null;
+    }
+
+    private static long longField(JsonObject json, String field, long defaultValue) throws MockException {
+        JsonElement element = json.get(field);
+        if (element == null || element.isJsonNull()) {
+            return defaultValue;
+        }
+        try {
+            return element.getAsLong();
+        } catch (RuntimeException e) {
+            throw new MockException(400, "Invalid value of " + field);
+        }
+    }
+
+    private static int intParam(Map<String, String> params, String name, int defaultValue) throws MockException {
+        String value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new MockException(400, "Invalid value of " + name);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        HashMap<String, String> params = new HashMap<String, String>();
+        if (query == null || query.isEmpty()) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+            }
+        }
+        return params;
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static JsonObject readBody(HttpExchange exchange) throws IOException, MockException {
+        InputStream body = exchange.getRequestBody();
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if ("gzip".equals(encoding)) {
+            body = new GZIPInputStream(body);
+        } else if ("deflate".equals(encoding)) {
+            body = new InflaterInputStream(body);
+        } else if (encoding != null) {
+            throw new MockException(415, "Unsupported Content-Encoding " + encoding);
+        }
+        InputStreamReader reader = new InputStreamReader(body, "UTF-8");
+        try {
+            JsonElement json = JsonParser.parseReader(reader);
+            if (json.isJsonNull()) {
+                return new JsonObject();
+            }
+            if (!json.isJsonObject()) {
+                throw new MockException(400, "Request body should be a JSON object");
+            }
+            return json.getAsJsonObject();
+        } catch (JsonParseException e) {
+            throw new MockException(400, "Request body is not valid JSON");
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonObject body) throws IOException {
+        byte[] bytes = body.toString().getBytes("UTF-8");
+        String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accepted != null && accepted.contains("gzip")) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(buffer);
+            gzip.write(bytes);
+            gzip.close();
+            bytes = buffer.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the client against {@link MockIronMQServer}, so these tests need no IronMQ project.
+ */
+public class MockIronMQServerTest {
+    private MockIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        queue = client.queue("mock-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testPushReserveDelete() throws IOException {
+        String id = queue.push("Test message");
+        Message message = queue.reserve();
+
+        Assert.assertEquals(id, message.getId());
+        Assert.assertEquals("Test message", message.getBody());
+        Assert.assertEquals(1, message.getReservedCount());
+        Assert.assertEquals(1, queue.getInfoAboutQueue().getSize());
+
+        queue.deleteMessage(message);
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+        Assert.assertEquals(1, queue.getInfoAboutQueue().getTotalMessages());
+    }
+
+    @Test
+    public void testReservationTimesOut() throws IOException {
+        queue.push("Test message");
+        Message first = queue.reserve(1, 30).getMessage(0);
+        Assert.assertEquals(0, queue.reserve(1).getSize());
+
+        server.advanceTime(31000);
+        Message second = queue.reserve(1).getMessage(0);
+        Assert.assertEquals(first.getId(), second.getId());
+        Assert.assertEquals(2, second.getReservedCount());
+        Assert.assertFalse(first.getReservationId().equals(second.getReservationId()));
+    }
+
+    @Test(expected = HTTPException.class)
+    public void testDeleteWithExpiredReservation() throws IOException {
+        queue.push("Test message");
+        Message message = queue.reserve(1, 30).getMessage(0);
+        server.advanceTime(31000);
+        queue.reserve(1);
+
+        queue.deleteMessage(message);
+    }
+
+    @Test
+    public void testTouchExtendsReservation() throws IOException {
+        queue.push("Test message");
+        Message message = queue.reserve(1, 30).getMessage(0);
+        String reservationId = message.getReservationId();
+
+        server.advanceTime(25000);
+        queue.touchMessage(message, 30);
+        Assert.assertFalse(reservationId.equals(message.getReservationId()));
+
+        server.advanceTime(25000);
+        Assert.assertEquals(0, queue.reserve(1).getSize());
+        queue.deleteMessage(message);
+    }
+
+    @Test
+    public void testReleaseWithDelay() throws IOException {
+        queue.push("Test message");
+        Message message = queue.reserve();
+        queue.releaseMessage(message, 10);
+
+        Assert.assertEquals(0, queue.reserve(1).getSize());
+        server.advanceTime(10000);
+        Assert.assertEquals(message.getId(), queue.reserve().getId());
+    }
+
+    @Test
+    public void testLongPollWakesUpOnPush() throws Exception {
+        queue.create();
+        CompletableFuture<Messages> reserved = client.asyncQueue("mock-queue").reserve(1, 60, 10);
+        Thread.sleep(200);
+        Assert.assertFalse(reserved.isDone());
+
+        queue.push("Test message");
+        Assert.assertEquals("Test message", reserved.get(5, TimeUnit.SECONDS).getMessage(0).getBody());
+    }
+
+    @Test
+    public void testInjectedFailuresAreRetried() throws IOException {
+        server.failNext(2, 503);
+        queue.push("Test message");
+        Assert.assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testInjectedClientError() throws IOException {
+        server.failNext(1, 404);
+        try {
+            queue.push("Test message");
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+            Assert.assertEquals("Injected failure", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testLatency() throws IOException {
+        server.setLatencyMs(200);
+        long start = System.nanoTime();
+        queue.push("Test message");
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void testInvalidToken() throws IOException {
+        Client other = new Client(MockIronMQServer.PROJECT_ID, "wrong-token", server.getCloud(), 3);
+        try {
+            other.queue("mock-queue").push("Test message");
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(401, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void testAckBatcherFallsBackToSingleDeletes() throws Exception {
+        queue.pushMessages(new String[]{"a", "b", "c"});
+        Messages messages = queue.reserve(3);
+        messages.getMessage(1).setReservationId("stale");
+
+        AckBatcher acks = new AckBatcher(queue, 3, 1000);
+        CompletableFuture<Void> a = acks.ack(messages.getMessage(0));
+        CompletableFuture<Void> b = acks.ack(messages.getMessage(1));
+        CompletableFuture<Void> c = acks.ack(messages.getMessage(2));
+
+        a.get(5, TimeUnit.SECONDS);
+        c.get(5, TimeUnit.SECONDS);
+        try {
+            b.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected the stale acknowledgement to fail");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(403, ((HTTPException) e.getCause()).getStatusCode());
+        }
+        acks.close();
+        Assert.assertEquals(1, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testBatchingProducer() throws Exception {
+        BatchingProducer producer = new BatchingProducer(queue, 10, 1 << 20, 50);
+        ArrayList<CompletableFuture<String>> ids = new ArrayList<CompletableFuture<String>>();
+        for (int i = 0; i < 25; i++) {
+            ids.add(producer.push("message " + i));
+        }
+        producer.close();
+
+        HashSet<String> distinct = new HashSet<String>();
+        for (CompletableFuture<String> id : ids) {
+            distinct.add(id.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(25, distinct.size());
+        Assert.assertEquals(25, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testSubscribersAndAlerts() throws IOException {
+        queue.create();
+        queue.addSubscribers(new Subscriber[]{new Subscriber("http://localhost:3001", "first")});
+        queue.addSubscribers(new Subscriber[]{new Subscriber("http://localhost:3002", "second")});
+        Assert.assertEquals(2, queue.getInfoAboutQueue().getSubscribers().size());
+
+        queue.removeSubscribers(new Subscriber[]{new Subscriber("http://localhost:3001", "first")});
+        QueueModel info = queue.getInfoAboutQueue();
+        Assert.assertEquals(1, info.getSubscribers().size());
+        Assert.assertEquals("second", info.getSubscribers().get(0).getName());
+
+        ArrayList<Alert> alerts = new ArrayList<Alert>();
+        alerts.add(new Alert(Alert.typeFixed, Alert.directionAscending, 10, "alerts_queue"));
+        String alertId = queue.updateAlerts(alerts).getAlerts().get(0).getId();
+        queue.deleteAlertFromQueueById(alertId);
+        Assert.assertTrue(queue.getInfoAboutQueue().getAlerts().isEmpty());
+    }
+}
@@ -0,0 +1,163 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class PrefetchingConsumerTest {
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = server.createClient().queue("prefetch-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static void await(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!check.done()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Check {
+        boolean done() throws Exception;
+    }
+
+    @Test
+    public void testDeliversAllMessages() throws Exception {
+        server.seed("prefetch-queue", 150, "Test message");
+        PrefetchingConsumer consumer = new PrefetchingConsumer(queue, 20, 60, 1);
+        consumer.start();
+
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < 150; i++) {
+            Message message = consumer.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull(message);
+            Assert.assertTrue(ids.add(message.getId()));
+            queue.deleteMessage(message);
+        }
+        Assert.assertNull(consumer.poll(100, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(consumer.getBufferedMessages() <= 20);
+        consumer.close();
+
+        Assert.assertNull(consumer.getLastError());
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testCloseReleasesBufferedMessages() throws Exception {
+        server.seed("prefetch-queue", 10, "Test message");
+        PrefetchingConsumer consumer = new PrefetchingConsumer(queue, 10, 60, 1);
+        consumer.start();
+        Assert.assertNotNull(consumer.take());
+        await("a buffered message", () -> consumer.getBufferedMessages() > 0);
+        consumer.close();
+
+        // Everything but the message taken is back on the queue.
+        Assert.assertEquals(0, consumer.getBufferedMessages());
+        Assert.assertEquals(9, queue.reserve(100, 60, 0).getSize());
+    }
+
+    @Test
+    public void testCloseReleasesMessagesOfPendingReservation() throws Exception {
+        server.seed("prefetch-queue", 1, "Test message");
+        PrefetchingConsumer consumer = new PrefetchingConsumer(queue, 10, 60, 1);
+        server.setLatencyMs(500);
+        long requests = server.getRequestCount();
+        consumer.start();
+        await("the reservation to be sent", () -> server.getRequestCount() > requests);
+        server.setLatencyMs(0);
+        consumer.close();
+        // Give an aborted request time to reserve on the server anyway.
+        Thread.sleep(600);
+
+        // The reservation was sent before close() and its message went back to the queue.
+        Assert.assertEquals(1, queue.reserve(100, 60, 0).getSize());
+    }
+
+    @Test
+    public void testCloseWakesUpWaitingConsumers() throws Exception {
+        PrefetchingConsumer consumer = new PrefetchingConsumer(queue, 10, 60, 1);
+        consumer.start();
+        CompletableFuture<Message> taken = CompletableFuture.supplyAsync(() -> {
+            try {
+                return consumer.take();
+            } catch (InterruptedException e) {
+                throw new CompletionException(e);
+            }
+        });
+        Thread.sleep(200);
+        Assert.assertFalse(taken.isDone());
+
+        long start = System.nanoTime();
+        consumer.close();
+        // Only waits for the pending one second long poll.
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        try {
+            taken.get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected IllegalStateException");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        try {
+            consumer.poll(1, TimeUnit.SECONDS);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            consumer.start();
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testDropsMessagesAboutToExpire() throws Exception {
+        server.seed("prefetch-queue", 5, "Test message");
+        PrefetchingConsumer consumer = new PrefetchingConsumer(queue, 10, 1, 0);
+        consumer.setExpiryMarginMs(2000);
+        consumer.start();
+        await("a buffered message", () -> consumer.getBufferedMessages() > 0);
+
+        Assert.assertNull(consumer.poll(100, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(consumer.getExpiredMessages() > 0);
+        consumer.close();
+    }
+
+    @Test
+    public void testSettingsAreValidated() {
+        try {
+            new PrefetchingConsumer(queue, 0, 60, 10);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new PrefetchingConsumer(queue, 10, 0, 10);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new PrefetchingConsumer(queue, 10, 60, 31);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
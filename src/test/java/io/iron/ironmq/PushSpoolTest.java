@@ -0,0 +1,205 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class PushSpoolTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockIronMQServer server;
+    private Queue queue;
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = client(server).queue("spool-queue");
+        directory = new File(folder.getRoot(), "spool");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static Client client(MockIronMQServer server) {
+        Client client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        client.setCircuitBreaker(null);
+        return client;
+    }
+
+    // A queue whose server is down.
+    private static Queue unreachableQueue() throws IOException {
+        MockIronMQServer stopped = new MockIronMQServer().start();
+        Queue queue = client(stopped).queue("spool-queue");
+        stopped.close();
+        return queue;
+    }
+
+    private static void await(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!check.done()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Check {
+        boolean done() throws Exception;
+    }
+
+    private void assertQueueHoldsInOrder(int count) throws IOException {
+        int next = 0;
+        while (next < count) {
+            Messages messages = queue.reserve(100, 60, 0);
+            Assert.assertTrue(messages.getSize() > 0);
+            for (Message message : messages.getMessages()) {
+                Assert.assertEquals("Message " + next++, message.getBody());
+            }
+        }
+        Assert.assertEquals(0, queue.reserve(100, 60, 0).getSize());
+    }
+
+    @Test
+    public void testReplaysPushesInOrder() throws Exception {
+        PushSpool spool = new PushSpool(queue, directory, 4096, 1024 * 1024);
+        for (int i = 0; i < 250; i++) {
+            spool.push("Message " + i);
+        }
+        await("replay", () -> spool.getPendingMessages() == 0);
+        spool.close();
+
+        Assert.assertEquals(250, spool.getReplayedMessages());
+        assertQueueHoldsInOrder(250);
+        // Replayed segments are deleted.
+        Assert.assertEquals(1, directory.listFiles((dir, name) -> name.endsWith(".segment")).length);
+    }
+
+    @Test
+    public void testRetriesDuringOutage() throws Exception {
+        server.failNext(3, 503);
+        PushSpool spool = new PushSpool(queue, directory);
+        spool.push("Message 0", 0);
+        await("replay", () -> spool.getReplayedMessages() == 1);
+        spool.close();
+
+        Assert.assertNull(spool.getLastError());
+        assertQueueHoldsInOrder(1);
+    }
+
+    @Test
+    public void testKeepsBatchOnAuthorizationError() throws Exception {
+        server.failNext(2, 401);
+        PushSpool spool = new PushSpool(queue, directory);
+        spool.push("Message 0", 0);
+        await("replay", () -> spool.getReplayedMessages() == 1);
+        spool.close();
+
+        Assert.assertEquals(0, spool.getDroppedMessages());
+        assertQueueHoldsInOrder(1);
+    }
+
+    @Test
+    public void testDropsMalformedBatch() throws Exception {
+        server.failNext(1, 400);
+        PushSpool spool = new PushSpool(queue, directory);
+        spool.push("Message 0", 0);
+        await("a dropped batch", () -> spool.getDroppedMessages() == 1);
+        spool.push("Message 0", 0);
+        await("replay", () -> spool.getReplayedMessages() == 1);
+        spool.close();
+        assertQueueHoldsInOrder(1);
+    }
+
+    @Test
+    public void testRecoversAfterReopening() throws Exception {
+        PushSpool offline = new PushSpool(unreachableQueue(), directory, 4096, 1024 * 1024);
+        for (int i = 0; i < 100; i++) {
+            offline.push("Message " + i);
+        }
+        await("a failed push", () -> offline.getLastError() != null);
+        offline.close();
+        Assert.assertEquals(100, offline.getPendingMessages());
+
+        PushSpool spool = new PushSpool(queue, directory, 4096, 1024 * 1024);
+        await("replay", () -> spool.getPendingMessages() == 0);
+        spool.close();
+        assertQueueHoldsInOrder(100);
+
+        // The checkpoint keeps replayed messages from being pushed again.
+        PushSpool reopened = new PushSpool(queue, directory, 4096, 1024 * 1024);
+        Assert.assertEquals(0, reopened.getPendingMessages());
+        reopened.close();
+    }
+
+    @Test
+    public void testDropsTornRecord() throws Exception {
+        PushSpool offline = new PushSpool(unreachableQueue(), directory);
+        offline.push("Message 0");
+        offline.push("Message 1");
+        offline.close();
+
+        // A record whose size was written but whose content was not, as after a crash.
+        File segment = directory.listFiles((dir, name) -> name.endsWith(".segment"))[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(2 * (16 + "Message 0".length()));
+            file.writeInt(40);
+            file.writeInt(12345);
+        }
+
+        PushSpool spool = new PushSpool(queue, directory);
+        Assert.assertEquals(2, spool.getPendingMessages());
+        spool.push("Message 2");
+        await("replay", () -> spool.getPendingMessages() == 0);
+        spool.close();
+        assertQueueHoldsInOrder(3);
+    }
+
+    @Test
+    public void testBoundsDiskUsage() throws Exception {
+        PushSpool spool = new PushSpool(unreachableQueue(), directory, 4096, 8192);
+        String body = new String(new char[1000]).replace('\0', 'x');
+        int pushed = 0;
+        try {
+            while (pushed < 100) {
+                spool.push(body);
+                pushed++;
+            }
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+        }
+        spool.close();
+        Assert.assertEquals(8, pushed);
+
+        PushSpool reopened = new PushSpool(unreachableQueue(), directory, 4096, 8192);
+        try {
+            reopened.push(new String(new char[5000]));
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testDirectoryIsLocked() throws Exception {
+        PushSpool spool = new PushSpool(queue, directory);
+        try {
+            new PushSpool(queue, directory);
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+        }
+        spool.close();
+    }
+}
@@ -0,0 +1,206 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class QueueConsumerTest {
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = server.createClient().queue("consumer-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static void await(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!check.done()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Check {
+        boolean done() throws Exception;
+    }
+
+    private QueueConsumer consumer(QueueConsumer.Handler handler, int concurrency, int maxInFlight) {
+        QueueConsumer consumer = new QueueConsumer(queue, handler, concurrency, maxInFlight);
+        consumer.setWait(1);
+        return consumer;
+    }
+
+    @Test
+    public void testProcessesAllMessages() throws Exception {
+        server.seed("consumer-queue", 250, "Test message");
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        QueueConsumer consumer = consumer(message -> {
+            Assert.assertTrue(ids.add(message.getId()));
+            return QueueConsumer.Result.DELETE;
+        }, 8, 50);
+        consumer.start();
+        await("all deletes", () -> consumer.getDeletedMessages() == 250);
+        consumer.close();
+
+        Assert.assertEquals(250, ids.size());
+        Assert.assertEquals(0, consumer.getInFlight());
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testBoundsMessagesInFlight() throws Exception {
+        server.seed("consumer-queue", 50, "Test message");
+        CountDownLatch unblock = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        QueueConsumer consumer = consumer(message -> {
+            started.incrementAndGet();
+            unblock.await();
+            return QueueConsumer.Result.DELETE;
+        }, 2, 5);
+        consumer.start();
+        await("workers to start", () -> started.get() == 2);
+        Thread.sleep(200);
+        Assert.assertEquals(5, consumer.getInFlight());
+        Assert.assertEquals(2, started.get());
+        Assert.assertEquals(45, queue.peek(100).getSize());
+
+        unblock.countDown();
+        await("all deletes", () -> consumer.getDeletedMessages() == 50);
+        consumer.close();
+    }
+
+    @Test
+    public void testReleasesRejectedMessages() throws Exception {
+        server.seed("consumer-queue", 10, "Test message");
+        QueueConsumer consumer = consumer(message -> {
+            if (message.getReservedCount() == 1) {
+                throw new IllegalStateException("First delivery fails");
+            }
+            if (message.getReservedCount() == 2) {
+                return QueueConsumer.Result.RELEASE;
+            }
+            return QueueConsumer.Result.DELETE;
+        }, 4, 20);
+        consumer.start();
+        await("all deletes", () -> consumer.getDeletedMessages() == 10);
+        consumer.close();
+
+        Assert.assertEquals(10, consumer.getFailedMessages());
+        Assert.assertEquals(20, consumer.getReleasedMessages());
+    }
+
+    @Test
+    public void testCloseReleasesUnprocessedMessages() throws Exception {
+        server.seed("consumer-queue", 20, "Test message");
+        CountDownLatch running = new CountDownLatch(1);
+        QueueConsumer consumer = consumer(message -> {
+            running.countDown();
+            Thread.sleep(300);
+            return QueueConsumer.Result.DELETE;
+        }, 1, 20);
+        consumer.start();
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        consumer.close();
+
+        long deleted = consumer.getDeletedMessages();
+        Assert.assertEquals(1, deleted);
+        Assert.assertEquals(19, consumer.getReleasedMessages());
+        Assert.assertEquals(0, consumer.getInFlight());
+        // Released messages can be reserved again right away.
+        Assert.assertEquals(19, queue.reserve(100, 60, 0).getSize());
+
+        try {
+            consumer.start();
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testCloseReleasesMessagesOfPendingReservation() throws Exception {
+        server.seed("consumer-queue", 10, "Test message");
+        AtomicInteger handled = new AtomicInteger();
+        QueueConsumer consumer = consumer(message -> {
+            handled.incrementAndGet();
+            return QueueConsumer.Result.DELETE;
+        }, 1, 10);
+        server.setLatencyMs(500);
+        long requests = server.getRequestCount();
+        consumer.start();
+        await("the reservation to be sent", () -> server.getRequestCount() > requests);
+        server.setLatencyMs(0);
+        consumer.close();
+        // Give an aborted request time to reserve on the server anyway.
+        Thread.sleep(600);
+
+        // The reservation was sent before close() and its messages went back to the queue.
+        Assert.assertEquals(0, handled.get());
+        Assert.assertEquals(10, consumer.getReleasedMessages());
+        Assert.assertEquals(0, consumer.getInFlight());
+        Assert.assertEquals(10, queue.reserve(100, 60, 0).getSize());
+    }
+
+    @Test
+    public void testDrainTimeoutAbandonsSlowHandlers() throws Exception {
+        server.seed("consumer-queue", 1, "Test message");
+        CountDownLatch running = new CountDownLatch(1);
+        QueueConsumer consumer = consumer(message -> {
+            running.countDown();
+            Thread.sleep(60000);
+            return QueueConsumer.Result.DELETE;
+        }, 1, 1);
+        consumer.setDrainTimeoutMs(200);
+        consumer.start();
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        consumer.close();
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        await("interrupted handler to release", () -> consumer.getReleasedMessages() == 1);
+    }
+
+    @Test
+    public void testVirtualThreadsNeedSupport() {
+        QueueConsumer consumer = new QueueConsumer(queue, message -> QueueConsumer.Result.DELETE);
+        if (VirtualThreads.isSupported()) {
+            consumer.setVirtualThreads(true);
+            Assert.assertTrue(consumer.isVirtualThreads());
+        } else {
+            try {
+                consumer.setVirtualThreads(true);
+                Assert.fail("Expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException e) {
+            }
+        }
+    }
+
+    @Test
+    public void testSettingsAreValidated() throws IOException {
+        try {
+            new QueueConsumer(queue, message -> QueueConsumer.Result.DELETE, 0, 10);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new QueueConsumer(queue, message -> QueueConsumer.Result.DELETE).setWait(31);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+public class QueueInfoCacheTest {
+    private MockIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        server.seed("info-queue", 5, "Test message");
+        queue = client.queue("info-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static void await(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!check.done()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Check {
+        boolean done() throws Exception;
+    }
+
+    @Test
+    public void testServesSnapshotsWithinTtl() throws Exception {
+        QueueInfoCache cache = new QueueInfoCache(60000, 100);
+        client.setQueueInfoCache(cache);
+        Assert.assertEquals(5, queue.getInfoAboutQueue().getSize());
+
+        long requests = server.getRequestCount();
+        queue.push("Another message");
+        Assert.assertEquals(5, queue.getInfoAboutQueue().getSize());
+        Assert.assertEquals(5, queue.async().getInfoAboutQueue().get().getSize());
+        Assert.assertEquals(requests + 1, server.getRequestCount());
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        cache.invalidate("info-queue");
+        Assert.assertEquals(6, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testCoalescesConcurrentLookups() throws Exception {
+        server.setLatencyMs(200);
+        QueueInfoCache cache = new QueueInfoCache();
+        long requests = server.getRequestCount();
+        ArrayList<CompletableFuture<QueueModel>> lookups = new ArrayList<CompletableFuture<QueueModel>>();
+        for (int i = 0; i < 20; i++) {
+            lookups.add(cache.get(queue.async()));
+        }
+        for (CompletableFuture<QueueModel> lookup : lookups) {
+            Assert.assertEquals(5, lookup.get().getSize());
+        }
+        Assert.assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testRefreshesInBackgroundBeforeExpiry() throws Exception {
+        QueueInfoCache cache = new QueueInfoCache(60000, 100, 100);
+        Assert.assertEquals(5, cache.get(queue).getSize());
+        queue.push("Another message");
+        Thread.sleep(150);
+
+        // Still served, while the refresh runs.
+        Assert.assertEquals(5, cache.get(queue).getSize());
+        Assert.assertEquals(1, cache.getRefreshes());
+        await("refresh", () -> cache.get(queue).getSize() == 6);
+        Assert.assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testReloadsExpiredSnapshots() throws Exception {
+        QueueInfoCache cache = new QueueInfoCache(100, 100);
+        Assert.assertEquals(5, cache.get(queue).getSize());
+        queue.push("Another message");
+        Thread.sleep(150);
+        Assert.assertEquals(6, cache.get(queue).getSize());
+        Assert.assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testDoesNotCacheFailures() throws Exception {
+        QueueInfoCache cache = new QueueInfoCache();
+        server.failNext(1, 500);
+        try {
+            cache.get(queue);
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(500, e.getStatusCode());
+        }
+        Assert.assertEquals(5, cache.get(queue).getSize());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        QueueInfoCache cache = new QueueInfoCache(60000, 2);
+        server.seed("info-queue-2", 0, "");
+        server.seed("info-queue-3", 0, "");
+        cache.get(queue);
+        cache.get(client.queue("info-queue-2"));
+        cache.get(queue);
+        cache.get(client.queue("info-queue-3"));
+        Assert.assertEquals(2, cache.size());
+
+        long requests = server.getRequestCount();
+        cache.get(queue);
+        Assert.assertEquals(requests, server.getRequestCount());
+        cache.get(client.queue("info-queue-2"));
+        Assert.assertEquals(requests + 1, server.getRequestCount());
+    }
+
+    @Test
+    public void testDestroyInvalidates() throws Exception {
+        QueueInfoCache cache = new QueueInfoCache();
+        client.setQueueInfoCache(cache);
+        queue.getInfoAboutQueue();
+        queue.destroy();
+        Assert.assertEquals(0, cache.size());
+    }
+}
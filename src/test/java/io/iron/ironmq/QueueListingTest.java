@@ -0,0 +1,114 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+public class QueueListingTest {
+    private MockIronMQServer server;
+    private Client client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        for (int i = 0; i < 250; i++) {
+            server.seed(String.format("queue-%03d", i), 0, "");
+        }
+        for (int i = 0; i < 20; i++) {
+            server.seed(String.format("other-%02d", i), 0, "");
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testListsAllQueuesInOrder() {
+        ArrayList<String> names = new ArrayList<String>();
+        for (QueueModel queue : new QueueListing(client, null, 30)) {
+            names.add(queue.getName());
+        }
+        Assert.assertEquals(270, names.size());
+        ArrayList<String> sorted = new ArrayList<String>(names);
+        sorted.sort(null);
+        Assert.assertEquals(sorted, names);
+    }
+
+    @Test
+    public void testFetchesPagesLazily() {
+        long before = server.getRequestCount();
+        Iterator<QueueModel> queues = new QueueListing(client, "queue-", 30).iterator();
+        Assert.assertEquals("queue-000", queues.next().getName());
+        // The first page and the prefetched second one.
+        Assert.assertTrue(server.getRequestCount() - before <= 2);
+    }
+
+    @Test
+    public void testListsPrefix() {
+        Set<String> names = Queues.listAll(client, "other-").stream()
+                .map(QueueModel::getName).collect(Collectors.toSet());
+        Assert.assertEquals(20, names.size());
+        for (String name : names) {
+            Assert.assertTrue(name.startsWith("other-"));
+        }
+    }
+
+    @Test
+    public void testShardsListEveryQueueOnce() {
+        QueueListing listing = new QueueListing(client, null, 30);
+        listing.setShards(8);
+        Assert.assertEquals(7, listing.getShardBoundaries().length);
+        assertListsEveryQueueOnce(listing);
+
+        listing.setShardBoundaries("queue-100", "queue-050", "queue-200", "other-10", "queue-050");
+        Assert.assertArrayEquals(new String[]{"other-10", "queue-050", "queue-100", "queue-200"},
+                listing.getShardBoundaries());
+        assertListsEveryQueueOnce(listing);
+    }
+
+    private static void assertListsEveryQueueOnce(QueueListing listing) {
+        Set<String> names = new HashSet<String>();
+        for (QueueModel queue : listing) {
+            Assert.assertTrue(names.add(queue.getName()));
+        }
+        Assert.assertEquals(270, names.size());
+    }
+
+    @Test
+    public void testRequestErrorsAreThrown() {
+        server.failNext(1, 500);
+        Iterator<QueueModel> queues = Queues.listAll(client).iterator();
+        try {
+            queues.hasNext();
+            Assert.fail("Expected UncheckedIOException");
+        } catch (UncheckedIOException e) {
+            Assert.assertTrue(e.getCause() instanceof HTTPException);
+        }
+    }
+
+    @Test
+    public void testSettingsAreValidated() {
+        try {
+            new QueueListing(client, null, 101);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new QueueListing(client).setShards(0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class QueuePublisherTest {
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = server.createClient().queue("flow-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static void await(String what, Check check) throws Exception {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!check.done()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail("Timed out waiting for " + what);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Check {
+        boolean done() throws Exception;
+    }
+
+    static private class Collector implements Flow.Subscriber<Message> {
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        volatile Flow.Subscription subscription;
+        volatile boolean completed;
+
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(Message message) {
+            Assert.assertTrue(ids.add(message.getId()));
+            received.incrementAndGet();
+        }
+
+        public void onError(Throwable throwable) {
+            error.set(throwable);
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    @Test
+    public void testDemandBoundsReservations() throws Exception {
+        server.seed("flow-queue", 50, "Test message");
+        Collector collector = new Collector();
+        new QueuePublisher(queue, 60, 1).subscribe(collector);
+        collector.subscription.request(5);
+        await("first messages", () -> collector.received.get() == 5);
+        Thread.sleep(200);
+        Assert.assertEquals(5, collector.received.get());
+        Assert.assertEquals(45, queue.peek(100).getSize());
+
+        collector.subscription.request(45);
+        await("remaining messages", () -> collector.received.get() == 50);
+        collector.subscription.cancel();
+        Assert.assertEquals(50, collector.ids.size());
+        Assert.assertNull(collector.error.get());
+    }
+
+    @Test
+    public void testAckProcessorDeletesMessages() throws Exception {
+        server.seed("flow-queue", 250, "Test message");
+        AckProcessor acks = new AckProcessor(queue);
+        Collector collector = new Collector();
+        // Subscribed downstream first; the demand is passed on once the publisher subscribes.
+        acks.subscribe(collector);
+        collector.subscription.request(Long.MAX_VALUE);
+        new QueuePublisher(queue, 60, 1).subscribe(acks);
+
+        await("all deletes", () -> collector.received.get() == 250);
+        collector.subscription.cancel();
+        Assert.assertEquals(250, acks.getDeletedMessages());
+        Assert.assertEquals(0, acks.getFailedAcks());
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testCancelReleasesUndeliveredMessages() throws Exception {
+        server.seed("flow-queue", 20, "Test message");
+        Collector collector = new Collector() {
+            public void onNext(Message message) {
+                super.onNext(message);
+                subscription.cancel();
+            }
+        };
+        new QueuePublisher(queue, 60, 1).subscribe(collector);
+        collector.subscription.request(20);
+        await("released messages", () -> queue.peek(100).getSize() == 19);
+        Assert.assertEquals(1, collector.received.get());
+    }
+
+    @Test
+    public void testInvalidDemandFails() throws Exception {
+        Collector collector = new Collector();
+        new QueuePublisher(queue).subscribe(collector);
+        collector.subscription.request(0);
+        Assert.assertTrue(collector.error.get() instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testQueueSubscriberPushesBodies() throws Exception {
+        QueueSubscriber subscriber = new QueueSubscriber(queue, 50);
+        SubmissionPublisher<String> publisher = new SubmissionPublisher<String>();
+        publisher.subscribe(subscriber);
+        for (int i = 0; i < 300; i++) {
+            publisher.submit("Message " + i);
+        }
+        publisher.close();
+        subscriber.getCompletion().get(10, TimeUnit.SECONDS);
+
+        Assert.assertEquals(300, subscriber.getPushedMessages());
+        Assert.assertEquals(300, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testSettingsAreValidated() {
+        try {
+            new QueuePublisher(queue, 60, 31);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new QueueSubscriber(queue, 0);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.iron.ironmq;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class RawMessageEncoderTest {
+    private static final String text = "Quote \" backslash \\ newline \n tab \t bell \u0007 café 日本 😀";
+
+    private MockIronMQServer server;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        queue = server.createClient().queue("raw-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static JsonObject decode(byte[] encoded) {
+        JsonObject request = JsonParser.parseString(new String(encoded, StandardCharsets.UTF_8)).getAsJsonObject();
+        Assert.assertEquals(1, request.getAsJsonArray("messages").size());
+        return request.getAsJsonArray("messages").get(0).getAsJsonObject();
+    }
+
+    @Test
+    public void testEncodesValidJson() {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        JsonObject message = decode(RawMessageEncoder.encodePush(ByteBuffer.wrap(body), 15));
+        Assert.assertEquals(text, message.get("body").getAsString());
+        Assert.assertEquals(15, message.get("delay").getAsLong());
+
+        String encoded = new String(RawMessageEncoder.encodePush(ByteBuffer.wrap(body), 0), StandardCharsets.UTF_8);
+        Assert.assertTrue(encoded.contains("\\\"") && encoded.contains("\\\\") && encoded.contains("\\n"));
+        Assert.assertTrue(encoded.contains("\\u0007"));
+        // Multi-byte sequences are copied as they are.
+        Assert.assertTrue(encoded.contains("café 日本 😀"));
+    }
+
+    @Test
+    public void testEncodesRemainingBytesOnly() {
+        byte[] body = ("skipped" + text + "skipped").getBytes(StandardCharsets.UTF_8);
+        int length = text.getBytes(StandardCharsets.UTF_8).length;
+
+        ByteBuffer slice = ByteBuffer.wrap(body, "skipped".length(), length);
+        Assert.assertEquals(text, decode(RawMessageEncoder.encodePush(slice, 0)).get("body").getAsString());
+        Assert.assertEquals("skipped".length(), slice.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(body.length);
+        direct.put(body).position("skipped".length()).limit("skipped".length() + length);
+        Assert.assertEquals(text, decode(RawMessageEncoder.encodePush(direct, 0)).get("body").getAsString());
+        Assert.assertEquals("skipped".length(), direct.position());
+
+        Assert.assertEquals("", decode(RawMessageEncoder.encodePush(ByteBuffer.allocate(0), 0)).get("body").getAsString());
+    }
+
+    @Test
+    public void testPushesBytes() throws Exception {
+        String id = queue.push(text.getBytes(StandardCharsets.UTF_8));
+        Message message = queue.reserve(1, 60, 0).getMessage(0);
+        Assert.assertEquals(id, message.getId());
+        Assert.assertEquals(text, message.getBody());
+
+        ByteBuffer buffer = ByteBuffer.wrap(("x" + text).getBytes(StandardCharsets.UTF_8));
+        buffer.position(1);
+        queue.push(buffer);
+        Assert.assertEquals(1, buffer.position());
+        Assert.assertEquals(text, queue.reserve(1, 60, 0).getMessage(0).getBody());
+    }
+
+    @Test
+    public void testRejectsMalformedUtf8() throws Exception {
+        byte[][] malformed = {
+                {(byte) 0xff},
+                {'a', (byte) 0xc3, '('},
+                {(byte) 0xc0, (byte) 0xaf},
+                {(byte) 0xe2, (byte) 0x82},
+                {(byte) 0xed, (byte) 0xa0, (byte) 0x80},
+                {(byte) 0xf4, (byte) 0x90, (byte) 0x80, (byte) 0x80},
+        };
+        for (byte[] body : malformed) {
+            try {
+                RawMessageEncoder.encodePush(ByteBuffer.wrap(body), 0);
+                Assert.fail("Expected IllegalArgumentException");
+            } catch (IllegalArgumentException e) {
+            }
+        }
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(2);
+        direct.put((byte) 0xc3).put((byte) 0x28).flip();
+        try {
+            queue.push(direct);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        // Nothing was sent.
+        Assert.assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void testPushesBytesWithDelay() throws Exception {
+        queue.push("Delayed".getBytes(StandardCharsets.UTF_8), 30);
+        Assert.assertEquals(0, queue.reserve(1, 60, 0).getSize());
+        server.advanceTime(31000);
+        Assert.assertEquals("Delayed", queue.reserve(1, 60, 0).getMessage(0).getBody());
+    }
+}
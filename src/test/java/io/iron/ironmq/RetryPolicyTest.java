@@ -0,0 +1,146 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class RetryPolicyTest {
+    private MockIronMQServer server;
+    private Client client;
+    private Queue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+        client = server.createClient();
+        client.setRetryPolicy(new DecorrelatedJitterRetryPolicy(5, 1, 5, new IdempotencyTable()));
+        queue = client.queue("retry-queue");
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private static RetryContext failed(String method, String endpoint, IOException error, int times) {
+        RetryContext context = new RetryContext(method, endpoint);
+        for (int i = 0; i < times; i++) {
+            context.attemptFailed(error);
+        }
+        return context;
+    }
+
+    @Test
+    public void testIdempotencyTable() {
+        IdempotencyTable table = new IdempotencyTable();
+        Assert.assertFalse(table.isIdempotent("POST", "queues/q/messages"));
+        Assert.assertFalse(table.isIdempotent("POST", "queues/q/reservations"));
+        Assert.assertFalse(table.isIdempotent("POST", "queues/q/messages/1/touch"));
+        Assert.assertTrue(table.isIdempotent("POST", "queues/q/subscribers"));
+        Assert.assertTrue(table.isIdempotent("DELETE", "queues/q/messages"));
+        Assert.assertTrue(table.isIdempotent("GET", "queues/q/messages?n=1"));
+
+        table.set("POST", "queues/q/messages", true);
+        Assert.assertTrue(table.isIdempotent("POST", "queues/q/messages"));
+        Assert.assertFalse(table.isIdempotent("POST", "queues/other/messages"));
+    }
+
+    @Test
+    public void testClassification() {
+        DecorrelatedJitterRetryPolicy policy = new DecorrelatedJitterRetryPolicy();
+        Assert.assertTrue(policy.nextDelayMs(failed("POST", "queues/q/messages", new HTTPException(503, ""), 1)) >= 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("POST", "queues/q/messages", new HTTPException(429, ""), 1)) >= 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("POST", "queues/q/messages", new ConnectException(), 1)) >= 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("POST", "queues/q/messages", new HTTPException(502, ""), 1)) < 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("POST", "queues/q/messages", new SocketTimeoutException(), 1)) < 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("DELETE", "queues/q/messages", new HTTPException(502, ""), 1)) >= 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("DELETE", "queues/q/messages", new SocketTimeoutException(), 1)) >= 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("GET", "queues/q", new HTTPException(404, ""), 1)) < 0);
+        Assert.assertTrue(policy.nextDelayMs(failed("GET", "queues/q", new HTTPException(503, ""), 6)) < 0);
+    }
+
+    @Test
+    public void testDecorrelatedJitterBounds() {
+        DecorrelatedJitterRetryPolicy policy = new DecorrelatedJitterRetryPolicy(100, 10, 1000, new IdempotencyTable());
+        RetryContext context = new RetryContext("GET", "queues/q");
+        for (int i = 0; i < 50; i++) {
+            context.attemptFailed(new HTTPException(503, ""));
+            long previous = Math.max(10, context.getLastDelayMs());
+            long delay = policy.nextDelayMs(context);
+            Assert.assertTrue(delay >= 10);
+            Assert.assertTrue(delay <= Math.min(1000, previous * 3));
+            context.retryScheduled(delay);
+        }
+    }
+
+    @Test
+    public void testRetryBudget() {
+        RetryBudget budget = new RetryBudget(new DecorrelatedJitterRetryPolicy(), 0.1, 0);
+        int retried = 0;
+        for (int i = 0; i < 100; i++) {
+            RetryContext context = new RetryContext("GET", "queues/q");
+            budget.requestStarted(context);
+            context.attemptFailed(new HTTPException(503, ""));
+            if (budget.nextDelayMs(context) >= 0) {
+                retried++;
+            }
+        }
+        Assert.assertEquals(10, retried);
+    }
+
+    @Test
+    public void testDeadline() {
+        DeadlineRetryPolicy policy = new DeadlineRetryPolicy(context -> 1000, 500);
+        Assert.assertTrue(policy.nextDelayMs(failed("GET", "queues/q", new HTTPException(503, ""), 1)) < 0);
+        policy = new DeadlineRetryPolicy(context -> 10, 500);
+        Assert.assertEquals(10, policy.nextDelayMs(failed("GET", "queues/q", new HTTPException(503, ""), 1)));
+    }
+
+    @Test
+    public void testPushIsNotRetriedAfterAmbiguousError() throws IOException {
+        server.failNext(1, 500);
+        try {
+            queue.push("Test message");
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(500, e.getStatusCode());
+        }
+        Assert.assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testDeleteIsRetriedAfterAmbiguousError() throws IOException {
+        queue.push("Test message");
+        Message message = queue.reserve();
+        server.failNext(2, 502);
+        queue.deleteMessage(message);
+        Assert.assertEquals(0, queue.getInfoAboutQueue().getSize());
+    }
+
+    @Test
+    public void testAsyncRetries() throws Exception {
+        server.failNext(3, 429);
+        String id = client.asyncQueue("retry-queue").push("Test message").get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(id, queue.peek().getId());
+        Assert.assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void testRetriesDisabled() throws Exception {
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        server.failNext(1, 503);
+        try {
+            client.asyncQueue("retry-queue").push("Test message").get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected HTTPException");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(503, ((HTTPException) e.getCause()).getStatusCode());
+        }
+    }
+}
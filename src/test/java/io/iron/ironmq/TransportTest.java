@@ -0,0 +1,184 @@
+package io.iron.ironmq;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+public class TransportTest {
+    private MockIronMQServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new MockIronMQServer().start();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private TransportRequest request(String method, String queueName, String body, int connectTimeoutMs, int readTimeoutMs)
+            throws IOException {
+        URL url = new URL("http://localhost:" + server.getPort() + "/3/projects/"
+                + MockIronMQServer.PROJECT_ID + "/queues/" + queueName + (body == null ? "" : "/messages"));
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Authorization", "OAuth " + MockIronMQServer.TOKEN);
+        if (body != null) {
+            headers.put("Content-Type", "application/json");
+        }
+        return new TransportRequest(method, url, headers, body == null ? null : body.getBytes("UTF-8"),
+                connectTimeoutMs, readTimeoutMs);
+    }
+
+    private static String read(TransportResponse response) throws IOException {
+        try {
+            InputStream body = response.getBody();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[1024];
+            int n;
+            while ((n = body.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            response.close();
+        }
+    }
+
+    private void assertSendsRequests(Transport transport) throws Exception {
+        TransportResponse pushed = transport.execute(
+                request("POST", "transport-queue", "{\"messages\":[{\"body\":\"Hello\"}]}", 1000, 1000));
+        Assert.assertEquals(200, pushed.getStatus());
+        Assert.assertTrue(pushed.getHeader("Content-Type").startsWith("application/json"));
+        Assert.assertTrue(read(pushed).contains("\"ids\""));
+
+        TransportResponse missing = transport.execute(request("GET", "missing-queue", null, 1000, 1000));
+        Assert.assertEquals(404, missing.getStatus());
+        Assert.assertTrue(read(missing).contains("Queue not found"));
+
+        Client client = server.createClient();
+        client.setRetryPolicy(RetryPolicy.NEVER);
+        client.setTransport(transport);
+        Queue queue = client.queue("transport-queue");
+        queue.push("World");
+        Messages messages = queue.reserve(10);
+        Assert.assertEquals(2, messages.getSize());
+        Assert.assertEquals("Hello", messages.getMessage(0).getBody());
+        Assert.assertEquals("World", messages.getMessage(1).getBody());
+    }
+
+    private void assertTimesOutReading(Transport transport) throws Exception {
+        server.setLatencyMs(2000);
+        try {
+            read(transport.execute(request("GET", "transport-queue", null, 1000, 200)));
+            Assert.fail("Expected IOException");
+        } catch (IOException e) {
+        }
+    }
+
+    @Test
+    public void testJdkHttpTransport() throws Exception {
+        assertSendsRequests(new JdkHttpTransport());
+    }
+
+    @Test
+    public void testUrlConnectionTransport() throws Exception {
+        assertSendsRequests(new UrlConnectionTransport(new ConnectionPool(server.getCloud(), 2)));
+    }
+
+    @Test
+    public void testJdkHttpTransportAsync() throws Exception {
+        TransportResponse response = new JdkHttpTransport().executeAsync(
+                request("POST", "transport-queue", "{\"messages\":[{\"body\":\"Hello\"}]}", 1000, 1000)).get();
+        Assert.assertEquals(200, response.getStatus());
+        Assert.assertTrue(read(response).contains("\"ids\""));
+    }
+
+    @Test
+    public void testJdkHttpTransportTimesOutReading() throws Exception {
+        assertTimesOutReading(new JdkHttpTransport());
+    }
+
+    @Test
+    public void testUrlConnectionTransportTimesOutReading() throws Exception {
+        assertTimesOutReading(new UrlConnectionTransport(new ConnectionPool(server.getCloud(), 2)));
+    }
+
+    @Test
+    public void testJdkHttpTransportHonorsConnectTimeout() throws Exception {
+        JdkHttpTransport transport = new JdkHttpTransport();
+        Assert.assertEquals(Duration.ofMillis(1500),
+                transport.clientFor(request("GET", "q", null, 1500, 0)).connectTimeout().get());
+        Assert.assertEquals(Duration.ofMillis(250),
+                transport.clientFor(request("GET", "q", null, 250, 0)).connectTimeout().get());
+        Assert.assertSame(transport.clientFor(request("GET", "q", null, 250, 0)),
+                transport.clientFor(request("GET", "other", null, 250, 0)));
+        Assert.assertFalse(transport.clientFor(request("GET", "q", null, 0, 0)).connectTimeout().isPresent());
+
+        JdkHttpTransport fixed = new JdkHttpTransport(3000);
+        Assert.assertEquals(Duration.ofMillis(3000),
+                fixed.clientFor(request("GET", "q", null, 250, 0)).connectTimeout().get());
+    }
+
+    @Test
+    public void testClientConnectTimeoutReachesTransport() throws Exception {
+        final TransportRequest[] sent = new TransportRequest[1];
+        final JdkHttpTransport delegate = new JdkHttpTransport();
+        Client client = server.createClient();
+        client.setConnectionTimeOutMs(1234);
+        client.setTransport(new Transport() {
+            public TransportResponse execute(TransportRequest request) throws IOException {
+                sent[0] = request;
+                return delegate.execute(request);
+            }
+        });
+        client.queue("transport-queue").push("Hello");
+        Assert.assertEquals(1234, sent[0].getConnectTimeoutMs());
+        Assert.assertEquals(Duration.ofMillis(1234), delegate.clientFor(sent[0]).connectTimeout().get());
+    }
+
+    @Test
+    public void testDefaultAsyncRunsOffCommonPool() throws Exception {
+        final Thread[] ran = new Thread[1];
+        final JdkHttpTransport delegate = new JdkHttpTransport();
+        Transport transport = new Transport() {
+            public TransportResponse execute(TransportRequest request) throws IOException {
+                ran[0] = Thread.currentThread();
+                return delegate.execute(request);
+            }
+        };
+        TransportResponse response = transport.executeAsync(
+                request("POST", "transport-queue", "{\"messages\":[{\"body\":\"Hello\"}]}", 1000, 1000)).get();
+        Assert.assertTrue(read(response).contains("\"ids\""));
+        Assert.assertFalse(ran[0] instanceof ForkJoinWorkerThread);
+        Assert.assertTrue(ran[0].getName().startsWith("ironmq-transport-"));
+    }
+
+    @Test
+    public void testKeepsReasonPhrase() throws Exception {
+        UrlConnectionTransport transport = new UrlConnectionTransport(new ConnectionPool(server.getCloud(), 2));
+        TransportResponse missing = transport.execute(request("GET", "missing-queue", null, 1000, 1000));
+        Assert.assertEquals("Not Found", missing.getReasonPhrase());
+        missing.close();
+
+        TransportRequest request = request("GET", "missing-queue", null, 1000, 1000);
+        try {
+            new HttpClient(false, transport).singleRequest("GET", request.getUrl(), null,
+                    new HashMap<String, String>(request.getHeaders()));
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+            Assert.assertEquals("Not Found", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package io.iron.ironmq.keystone;
+
+import com.sun.net.httpserver.HttpServer;
+import io.iron.ironmq.HTTPException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class KeystoneIdentityTest {
+    private HttpServer server;
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile long latencyMs;
+    private volatile long lifetimeMs = 3600000;
+    private volatile int status = 200;
+    private KeystoneIdentity identity;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/v2.0/tokens", exchange -> {
+            int call = calls.incrementAndGet();
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.S");
+            Date now = new Date();
+            String json = "{\"access\":{\"token\":{\"id\":\"token-" + call + "\"," +
+                    "\"issued_at\":\"" + format.format(now) + "\"," +
+                    "\"expires\":\"" + format.format(new Date(now.getTime() + lifetimeMs)) + "\"}}}";
+            byte[] body = json.getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        });
+        server.start();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/v2.0";
+        identity = new KeystoneIdentity(url, "tenant", "user", "password");
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testTokenIsCached() throws Exception {
+        Assert.assertEquals("token-1", identity.getToken());
+        Assert.assertEquals("token-1", identity.getToken());
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneFetch() throws Exception {
+        latencyMs = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        List<Future<String>> tokens = new ArrayList<Future<String>>();
+        for (int i = 0; i < 16; i++) {
+            tokens.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return identity.getToken();
+                }
+            }));
+        }
+        for (Future<String> token : tokens) {
+            Assert.assertEquals("token-1", token.get());
+        }
+        executor.shutdown();
+        Assert.assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testRefreshAheadOfExpiry() throws Exception {
+        lifetimeMs = 60000;
+        identity.setRefreshAheadMs(59000);
+        Assert.assertEquals("token-1", identity.getToken());
+        Thread.sleep(1100);
+
+        latencyMs = 500;
+        long start = System.currentTimeMillis();
+        Assert.assertEquals("token-1", identity.getToken());
+        Assert.assertEquals("token-1", identity.getToken());
+        Assert.assertTrue(System.currentTimeMillis() - start < 400);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!identity.getToken().equals("token-2") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals("token-2", identity.getToken());
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testFailedFetchWithoutToken() throws Exception {
+        status = 500;
+        try {
+            identity.getToken();
+            Assert.fail("Expected HTTPException");
+        } catch (HTTPException e) {
+            Assert.assertEquals(500, e.getStatusCode());
+        }
+        status = 200;
+        Assert.assertEquals("token-2", identity.getToken());
+    }
+}